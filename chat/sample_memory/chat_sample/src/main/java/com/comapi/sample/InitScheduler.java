@@ -0,0 +1,159 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * Runs initialisation work that isn't needed to display the first screen after the first activity frame has been drawn.
+ * Deferred tasks run on the main thread one per idle pass of the main looper, so they don't delay frames or input handling. All methods should be called on the main thread.
+ */
+public class InitScheduler {
+
+    /**
+     * Deferred task with a name for the startup trace.
+     */
+    private static class Task {
+
+        final String name;
+
+        final Runnable runnable;
+
+        Task(String name, Runnable runnable) {
+            this.name = name;
+            this.runnable = runnable;
+        }
+    }
+
+    private final Queue<Task> tasks = new LinkedList<>();
+
+    private boolean firstFrameDrawn;
+
+    private boolean idleHandlerAdded;
+
+    private final MessageQueue.IdleHandler idleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            Task task = tasks.poll();
+            if (task != null) {
+                StartupTrace.Span span = StartupTrace.begin(task.name);
+                task.runnable.run();
+                span.end();
+            }
+            idleHandlerAdded = !tasks.isEmpty();
+            return idleHandlerAdded;
+        }
+    };
+
+    /**
+     * Waits for the first activity to draw its first frame and starts running deferred tasks afterwards. Call in Application#onCreate.
+     *
+     * @param application Application instance.
+     */
+    public void start(final Application application) {
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+                application.unregisterActivityLifecycleCallbacks(this);
+                runAfterNextDraw(activity.getWindow().getDecorView(), new Runnable() {
+                    @Override
+                    public void run() {
+                        StartupTrace.mark("first_frame");
+                        firstFrameDrawn = true;
+                        scheduleIdle();
+                    }
+                });
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    /**
+     * Adds a task to be run after the first frame. Tasks run in the order they were added.
+     *
+     * @param name     Name of the task in the startup trace.
+     * @param runnable Work to run on the main thread.
+     */
+    public void defer(String name, Runnable runnable) {
+        tasks.add(new Task(name, runnable));
+        if (firstFrameDrawn) {
+            scheduleIdle();
+        }
+    }
+
+    private void scheduleIdle() {
+        if (!idleHandlerAdded && !tasks.isEmpty()) {
+            idleHandlerAdded = true;
+            Looper.myQueue().addIdleHandler(idleHandler);
+        }
+    }
+
+    /**
+     * Runs the action after the view has been drawn next time. The view is invalidated to make sure a drawing pass happens, the action is posted from the pre-draw callback so it runs once the pass is complete.
+     *
+     * @param view   View to observe.
+     * @param action Action to run on the main thread.
+     */
+    static void runAfterNextDraw(final View view, final Runnable action) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                view.post(action);
+                return true;
+            }
+        });
+        view.invalidate();
+    }
+}
@@ -34,11 +34,18 @@ import com.comapi.chat.model.ChatStore;
 import com.comapi.internal.log.LogConfig;
 import com.comapi.internal.log.LogLevel;
 import com.comapi.sample.comapi.AuthChallengeHandler;
+import com.comapi.sample.comapi.LocalTokenProvider;
 import com.comapi.sample.comapi.MainController;
+import com.comapi.sample.comapi.TimedTokenProvider;
+import com.comapi.sample.comapi.TokenMinter;
 import com.comapi.sample.events.InitialisationEvent;
+import com.comapi.sample.store.PartStore;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.io.File;
+import java.nio.charset.Charset;
+
 /**
  * Application class, Comapi SDK initialisation should be called in {@link SampleApplication#onCreate} method.
  * This class also implements a callback interface and receives a Comapi Chat SDK client object.
@@ -47,23 +54,65 @@ import org.greenrobot.eventbus.EventBus;
  */
 public class SampleApplication extends Application implements Callback<ComapiChatClient> {
 
+    /**
+     * Time in milliseconds after which an authentication challenge fails if no token has been issued.
+     */
+    private static final long TOKEN_TIMEOUT = 10000;
+
     private MainController mainMainController;
 
+    /**
+     * Runs initialisation not needed for the first screen after the first frame.
+     */
+    private final InitScheduler initScheduler = new InitScheduler();
+
+    /**
+     * Measures Comapi SDK initialisation, ends in {@link #success} or {@link #error}.
+     */
+    private StartupTrace.Span sdkInitSpan;
+
     @Override
     public void onCreate() {
         super.onCreate();
 
+        StartupTrace.Span span = StartupTrace.begin("application_create");
+        StartupTrace.saveTo(new File(getFilesDir(), StartupTrace.FILE_NAME));
+        initScheduler.start(this);
+
+        // Use the subscriber index generated at compile time (see build.gradle) instead of looking up @Subscribe methods with reflection
+        EventBus.builder().addIndex(new SampleEventBusIndex()).installDefaultEventBus();
+
         //Initialise Firebase if you want to enable comapi push functionality. You will also need to include fcm dependencies and configuration json.
         //FirebaseApp.initializeApp(this);
+        //With push disabled Firebase isn't needed by the SDK and can be initialised after the first frame instead:
+        //initScheduler.defer("firebase", new Runnable() { public void run() { FirebaseApp.initializeApp(SampleApplication.this); } });
+
+        // Message part files of the previous run are moved aside now and deleted once the first screen is drawn
+        final File partsDir = new File(getCacheDir(), "message_parts");
+        PartStore.retire(partsDir);
+        initScheduler.defer("stale_parts_delete", new Runnable() {
+            @Override
+            public void run() {
+                PartStore.deleteRetired(partsDir);
+            }
+        });
 
         // Initialise Comapi
-        initComapi();
+        initComapi(partsDir);
+
+        span.end();
     }
 
-    private void initComapi() {
+    private void initComapi(File partsDir) {
 
         //Create class to encapsulate all calls to Comapi APIs. Is also an registration point for UI listeners.
         mainMainController = new MainController();
+        // Messages not accepted by the server are kept in the outbox file until they can be sent. Has to be read before the session starts.
+        StartupTrace.Span outboxSpan = StartupTrace.begin("outbox_load");
+        mainMainController.getComapiService().initOutbox(new File(getFilesDir(), "outbox"));
+        outboxSpan.end();
+        // Data of large message parts is kept in files, the in-memory store holds only previews
+        mainMainController.initPartStore(partsDir);
 
         // PUT YOUR API KEY HERE
         final String apiSpaceId = "";
@@ -73,13 +122,20 @@ public class SampleApplication extends Application implements Callback<ComapiCha
             return;
         }
 
+        // Tokens are minted locally on a background thread, in realistic scenario they would be obtained from some auth provider service
+        AuthChallengeHandler authenticator = new AuthChallengeHandler(getSharedPreferences(Const.PREFS_NAME, MODE_PRIVATE),
+                new TimedTokenProvider(new LocalTokenProvider(new TokenMinter("secret".getBytes(Charset.forName("UTF-8")), "local", "local")), TOKEN_TIMEOUT));
+        // Get ready for the challenge of a returning user while the SDK initialises
+        authenticator.prefetch();
+
         // Asynchronously initialise Comapi SDK client (retrieve it in callback)
+        sdkInitSpan = StartupTrace.begin("comapi_init");
         ComapiChat.initialise(
                 this, new ChatConfig()
                         // Set the id of the app space, the device belongs to
                         .apiSpaceId(apiSpaceId)
                         // Sets handler for authentication challenges (SDK asking for JWT token)
-                        .authenticator(new AuthChallengeHandler(getSharedPreferences(Const.PREFS_NAME, MODE_PRIVATE)))
+                        .authenticator(authenticator)
                         // Display all available logs to the console, don't log to the file
                         .logConfig(new LogConfig().setFileLevel(LogLevel.OFF).setConsoleLevel(LogLevel.DEBUG).setNetworkLevel(LogLevel.DEBUG))
                         // Sets persistence store factory. ChatStore instance will queue db changes and perform them when {@link ChatStore#endTransaction} has been called.
@@ -97,6 +153,7 @@ public class SampleApplication extends Application implements Callback<ComapiCha
     @Override
     public void success(ComapiChatClient client) {
         Log.i(Const.TAG, "Comapi Chat initialised successfully.");
+        sdkInitSpan.end();
         // We will call Comapi client methods only through MainController
         mainMainController.setClient(client);
         // Post global sticky event and pass Comapi Controller instance to Activities after SDK finishes initialising.
@@ -106,6 +163,7 @@ public class SampleApplication extends Application implements Callback<ComapiCha
     @Override
     public void error(Throwable t) {
         Log.e(Const.TAG, "Comapi Chat initialised with error.", t);
+        sdkInitSpan.end();
         // Post global sticky event to tell Activities that the Comapi client is unavailable due to initialisation error.
         EventBus.getDefault().postSticky(new InitialisationEvent(null));
     }
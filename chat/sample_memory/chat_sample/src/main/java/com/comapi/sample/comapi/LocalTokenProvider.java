@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Token provider minting tokens in process on a background thread. Stands in for a client of an auth provider service.
+ */
+public class LocalTokenProvider implements TokenProvider {
+
+    private final TokenMinter minter;
+
+    private final ExecutorService executor;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param minter Mints tokens signed with the ApiSpace secret.
+     */
+    public LocalTokenProvider(TokenMinter minter) {
+        this.minter = minter;
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public void prefetch(final String profileId) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Minting a throwaway token loads the JWT and crypto classes, the first challenge doesn't pay for it.
+                minter.mint(profileId, "prefetch");
+            }
+        });
+    }
+
+    @Override
+    public void requestToken(final String profileId, final String nonce, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String token;
+                try {
+                    token = minter.mint(profileId, nonce);
+                } catch (RuntimeException e) {
+                    callback.onError(e);
+                    return;
+                }
+                callback.onToken(token);
+            }
+        });
+    }
+}
@@ -1,5 +1,6 @@
 package com.comapi.sample.comapi;
 
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.comapi.Callback;
@@ -10,11 +11,14 @@ import com.comapi.sample.Const;
 import com.comapi.sample.events.LoginEvent;
 import com.comapi.sample.store.ChatStoreData;
 import com.comapi.sample.store.ChatStoreImplementation;
+import com.comapi.sample.store.PartStore;
 import com.comapi.sample.store.UIListener;
 import com.comapi.sample.ui.model.UIMessageItem;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.io.File;
+
 /**
  * Access to local persistence store
  *
@@ -46,6 +50,63 @@ public class MainController {
     public MainController() {
         controller = new ServiceController(); // create controller for Comapi operations
         data = new ChatStoreData(); // Create in-memory data storage
+
+        // Display queued messages before the server confirms them
+        controller.getOutboundPipeline().setListener(new OutboundMessagePipeline.Listener() {
+
+            @Override
+            public void onQueued(OutboundMessagePipeline.PendingMessage message) {
+                data.upsertPending(message);
+                notifyMessagesChanged(message.getConversationId());
+            }
+
+            @Override
+            public void onStatusChanged(OutboundMessagePipeline.PendingMessage message) {
+                data.upsertPending(message);
+                notifyMessagesChanged(message.getConversationId());
+            }
+
+            @Override
+            public void onRemoved(OutboundMessagePipeline.PendingMessage message) {
+                // echoed messages have been already replaced in the store transaction, failed ones stay in the outbox and are queued again in the next session
+                if (!message.isEchoed()) {
+                    data.deletePending(message.getConversationId(), message.getLocalId());
+                    notifyMessagesChanged(message.getConversationId());
+                }
+            }
+        });
+
+        // Match messages coming back from the server with the queued ones
+        data.setEchoListener(new ChatStoreData.EchoListener() {
+
+            @Override
+            public void onEcho(String conversationId, String localId) {
+                controller.getOutboundPipeline().onEcho(localId);
+                // the send response could have been lost, the echo is enough to know the server has the message
+                controller.acknowledgeOutbox(localId);
+            }
+        });
+
+        // Cached participants lists belong to the data being removed
+        data.setClearListener(new ChatStoreData.ClearListener() {
+
+            @Override
+            public void onCleared() {
+                controller.clearRosters();
+            }
+        });
+    }
+
+    /**
+     * Informs message screen that the messages in a conversation have changed.
+     *
+     * @param conversationId Unique conversation id.
+     */
+    private void notifyMessagesChanged(String conversationId) {
+        UIListener<UIMessageItem> listener = messageListener;
+        if (listener != null && TextUtils.equals(listener.getMetadata(), conversationId)) {
+            listener.setData(data.getSortedMessages(conversationId));
+        }
     }
 
     /**
@@ -57,6 +118,17 @@ public class MainController {
         return new ChatStoreImplementation(data, conversationListener, messageListener);
     }
 
+    /**
+     * Sets directory for data of large message parts. Files left from the previous run are deleted unless already moved aside with {@link PartStore#retire(File)}, the in-memory store starts empty.
+     *
+     * @param dir Directory for message part files.
+     */
+    public void initPartStore(File dir) {
+        PartStore partStore = new PartStore(dir);
+        partStore.clear();
+        data.setPartStore(partStore);
+    }
+
     /**
      * Gets controller for Comapi operations.
      */
@@ -132,6 +204,9 @@ public class MainController {
                Log.i(Const.TAG, "Successfully started session");
                updateProfileId();
 
+               // send messages left in the outbox by the previous run
+               controller.replayOutbox();
+
                // Post login finished event to EventBus
                EventBus.getDefault().postSticky(new LoginEvent(result.getProfileId(), result.isSuccessfullyCreated()));
            }
@@ -0,0 +1,597 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of outgoing messages. Messages in a conversation are sent one by one in the order they were typed in, different conversations are sent in parallel up to a limit.
+ * Every queued message is reported to the {@link Listener} straight away so it can be displayed with a local status before the server confirms it.
+ * Failed sends are retried with exponential backoff. The message is reconciled when its echo with the same local id in the metadata comes back from the server through the store.
+ * A message that ran out of attempts is displayed as failed for a while and then removed.
+ */
+public class OutboundMessagePipeline {
+
+    /**
+     * Key of the message metadata entry with the local message id.
+     */
+    public static final String METADATA_LOCAL_ID = "localMessageId";
+
+    /**
+     * Default maximum number of messages being sent at the same time.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 3;
+
+    /**
+     * Default maximum number of attempts to send a message.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    /**
+     * Default delay before the first retry. Doubled with every next attempt.
+     */
+    public static final long DEFAULT_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Maximum delay between attempts.
+     */
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    /**
+     * Time after which a sent message without the echo from the server is no longer displayed as local.
+     */
+    private static final long ECHO_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Time for which a message that ran out of attempts is displayed as failed before it is no longer displayed as local.
+     */
+    private static final long FAILED_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * Local status of a queued message.
+     */
+    public enum Status {
+        sending, sent, failed
+    }
+
+    /**
+     * Sends a single message, e.g. with Comapi Chat SDK or a fake client in tests.
+     */
+    public interface Sender {
+
+        /**
+         * Send the message.
+         *
+         * @param message  Message to send.
+         * @param callback Callback to be notified when the call finishes.
+         */
+        void send(PendingMessage message, ServiceController.UICallback callback);
+    }
+
+    /**
+     * Listener for local changes to the queued messages.
+     */
+    public interface Listener {
+
+        /**
+         * Message was queued for sending.
+         *
+         * @param message Queued message.
+         */
+        void onQueued(PendingMessage message);
+
+        /**
+         * Local status of the message changed.
+         *
+         * @param message Queued message.
+         */
+        void onStatusChanged(PendingMessage message);
+
+        /**
+         * Message is no longer local, either the echo arrived from the server, the wait for it timed out or the message failed to be sent.
+         *
+         * @param message Queued message.
+         */
+        void onRemoved(PendingMessage message);
+    }
+
+    /**
+     * Message waiting for the server confirmation.
+     */
+    public static class PendingMessage {
+
+        private final String localId;
+        private final String conversationId;
+        private final String body;
+        private final String from;
+        private final long sequence;
+        private final long queuedOn;
+        private volatile Status status;
+        private volatile boolean echoed;
+        private int attempts;
+        private long firstSentOn;
+
+        PendingMessage(String localId, String conversationId, String body, String from, long sequence) {
+            this.localId = localId;
+            this.conversationId = conversationId;
+            this.body = body;
+            this.from = from;
+            this.sequence = sequence;
+            this.queuedOn = System.currentTimeMillis();
+            this.status = Status.sending;
+        }
+
+        /**
+         * Get local message id. Sent in the message metadata to match the echo from the server.
+         *
+         * @return Local message id.
+         */
+        public String getLocalId() {
+            return localId;
+        }
+
+        /**
+         * Get conversation unique id.
+         *
+         * @return Conversation unique id.
+         */
+        public String getConversationId() {
+            return conversationId;
+        }
+
+        /**
+         * Get message body.
+         *
+         * @return Message body.
+         */
+        public String getBody() {
+            return body;
+        }
+
+        /**
+         * Get profile id of the sender.
+         *
+         * @return Profile id of the sender.
+         */
+        public String getFrom() {
+            return from;
+        }
+
+        /**
+         * Get order in which the message was queued.
+         *
+         * @return Order in which the message was queued.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get time when the message was queued.
+         *
+         * @return Time when the message was queued.
+         */
+        public long getQueuedOn() {
+            return queuedOn;
+        }
+
+        /**
+         * Get local status of the message.
+         *
+         * @return Local status of the message.
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Check if the echo for this message came back from the server.
+         *
+         * @return True if the echo came back from the server.
+         */
+        public boolean isEchoed() {
+            return echoed;
+        }
+    }
+
+    /**
+     * Sends single messages.
+     */
+    private final Sender sender;
+
+    /**
+     * Schedules retries and echo timeouts.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Maximum number of messages being sent at the same time.
+     */
+    private final int maxInFlight;
+
+    /**
+     * Maximum number of attempts to send a message.
+     */
+    private final int maxAttempts;
+
+    /**
+     * Delay before the first retry.
+     */
+    private final long backoffMillis;
+
+    /**
+     * Listener for local changes to the queued messages.
+     */
+    private volatile Listener listener;
+
+    /**
+     * Messages to send by conversation id. Head of the queue is the message being sent.
+     */
+    private final Map<String /*conversationId*/, Deque<PendingMessage>> queues;
+
+    /**
+     * Conversations with a message being sent or waiting for a retry.
+     */
+    private final Set<String /*conversationId*/> busy;
+
+    /**
+     * All messages not yet confirmed by the echo from the server by local message id.
+     */
+    private final Map<String /*localId*/, PendingMessage> unconfirmed;
+
+    private long nextSequence;
+    private int inFlight;
+    private long sentCount;
+    private long retryCount;
+    private long failedCount;
+    private long echoCount;
+    private long echoTimeoutCount;
+    private long totalEchoLatency;
+    private long maxEchoLatency;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param sender        Sends single messages.
+     * @param scheduler     Schedules retries and echo timeouts.
+     * @param maxInFlight   Maximum number of messages being sent at the same time.
+     * @param maxAttempts   Maximum number of attempts to send a message.
+     * @param backoffMillis Delay before the first retry.
+     */
+    public OutboundMessagePipeline(Sender sender, ScheduledExecutorService scheduler, int maxInFlight, int maxAttempts, long backoffMillis) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.queues = new LinkedHashMap<>();
+        this.busy = new HashSet<>();
+        this.unconfirmed = new HashMap<>();
+    }
+
+    /**
+     * Sets listener for local changes to the queued messages.
+     *
+     * @param listener Listener for local changes to the queued messages.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queue message for sending.
+     *
+     * @param conversationId Conversation unique id.
+     * @param body           Message body.
+     * @param from           Profile id of the sender.
+     * @return Queued message.
+     */
+    public PendingMessage enqueue(String conversationId, String body, String from) {
+        return enqueue(UUID.randomUUID().toString(), conversationId, body, from);
+    }
+
+    /**
+     * Queue message with a given local id for sending, e.g. a message restored from the outbox after restart.
+     *
+     * @param localId        Local message id.
+     * @param conversationId Conversation unique id.
+     * @param body           Message body.
+     * @param from           Profile id of the sender.
+     * @return Queued message.
+     */
+    public PendingMessage enqueue(String localId, String conversationId, String body, String from) {
+
+        PendingMessage message;
+        synchronized (this) {
+            message = new PendingMessage(localId, conversationId, body, from, nextSequence++);
+            Deque<PendingMessage> queue = queues.get(conversationId);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(conversationId, queue);
+            }
+            queue.add(message);
+            unconfirmed.put(message.getLocalId(), message);
+        }
+
+        Listener l = listener;
+        if (l != null) {
+            l.onQueued(message);
+        }
+
+        pump();
+        return message;
+    }
+
+    /**
+     * Inform pipeline that the message with a given local id came back from the server.
+     *
+     * @param localId Local message id from the message metadata.
+     */
+    public void onEcho(String localId) {
+
+        PendingMessage message;
+        synchronized (this) {
+            message = unconfirmed.remove(localId);
+            if (message == null) {
+                return;
+            }
+            message.echoed = true;
+            if (message.firstSentOn > 0) {
+                long latency = System.currentTimeMillis() - message.firstSentOn;
+                echoCount++;
+                totalEchoLatency += latency;
+                maxEchoLatency = Math.max(maxEchoLatency, latency);
+            }
+        }
+
+        Listener l = listener;
+        if (l != null) {
+            l.onRemoved(message);
+        }
+    }
+
+    /**
+     * Start sending head messages of the conversations that are not busy, up to the in-flight limit.
+     */
+    private void pump() {
+
+        List<PendingMessage> toSend = new ArrayList<>();
+
+        synchronized (this) {
+            Iterator<Map.Entry<String, Deque<PendingMessage>>> iterator = queues.entrySet().iterator();
+            while (iterator.hasNext() && inFlight < maxInFlight) {
+                Map.Entry<String, Deque<PendingMessage>> entry = iterator.next();
+                if (entry.getValue().isEmpty()) {
+                    iterator.remove();
+                } else if (!busy.contains(entry.getKey())) {
+                    PendingMessage message = entry.getValue().peek();
+                    busy.add(entry.getKey());
+                    inFlight++;
+                    message.attempts++;
+                    if (message.firstSentOn == 0) {
+                        message.firstSentOn = System.currentTimeMillis();
+                    }
+                    toSend.add(message);
+                }
+            }
+        }
+
+        for (final PendingMessage message : toSend) {
+            sender.send(message, new ServiceController.UICallback() {
+                @Override
+                public void finished(boolean isSuccess) {
+                    if (isSuccess) {
+                        onSent(message);
+                    } else {
+                        onFailed(message);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Message was accepted by the server. Start sending next message in the conversation and wait for the echo.
+     *
+     * @param message Sent message.
+     */
+    private void onSent(final PendingMessage message) {
+
+        synchronized (this) {
+            removeHead(message);
+            sentCount++;
+        }
+
+        if (!message.isEchoed()) {
+            message.status = Status.sent;
+            Listener l = listener;
+            if (l != null) {
+                l.onStatusChanged(message);
+            }
+            // Stop displaying the message as local if the echo never comes back
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onEchoTimeout(message);
+                }
+            }, ECHO_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        pump();
+    }
+
+    /**
+     * Sending the message failed. Retry after a delay or give up if the attempts limit has been reached, the failed message is removed after a timeout.
+     *
+     * @param message Message that failed to be sent.
+     */
+    private void onFailed(final PendingMessage message) {
+
+        boolean giveUp;
+        long delay = 0;
+
+        synchronized (this) {
+            giveUp = message.attempts >= maxAttempts;
+            if (giveUp) {
+                removeHead(message);
+                unconfirmed.remove(message.getLocalId());
+                failedCount++;
+            } else {
+                // Keep the conversation busy so that the next messages will not overtake this one
+                inFlight--;
+                retryCount++;
+                delay = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << (message.attempts - 1));
+            }
+        }
+
+        if (giveUp) {
+            message.status = Status.failed;
+            Listener l = listener;
+            if (l != null) {
+                l.onStatusChanged(message);
+            }
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onFailedTimeout(message);
+                }
+            }, FAILED_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            pump();
+        } else {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (OutboundMessagePipeline.this) {
+                        busy.remove(message.getConversationId());
+                    }
+                    pump();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            // Other conversations can use the slot while this one waits for the retry
+            pump();
+        }
+    }
+
+    /**
+     * Echo from the server hasn't arrived on time.
+     *
+     * @param message Sent message.
+     */
+    private void onEchoTimeout(PendingMessage message) {
+
+        synchronized (this) {
+            if (unconfirmed.remove(message.getLocalId()) == null) {
+                return;
+            }
+            echoTimeoutCount++;
+        }
+
+        Listener l = listener;
+        if (l != null) {
+            l.onRemoved(message);
+        }
+    }
+
+    /**
+     * Message that failed to be sent has been displayed long enough.
+     *
+     * @param message Failed message.
+     */
+    private void onFailedTimeout(PendingMessage message) {
+        Listener l = listener;
+        if (l != null) {
+            l.onRemoved(message);
+        }
+    }
+
+    /**
+     * Remove message from the head of its conversation queue and release the conversation.
+     *
+     * @param message Message being sent.
+     */
+    private void removeHead(PendingMessage message) {
+        Deque<PendingMessage> queue = queues.get(message.getConversationId());
+        if (queue != null && queue.peek() == message) {
+            queue.poll();
+        }
+        busy.remove(message.getConversationId());
+        inFlight--;
+    }
+
+    /**
+     * Get number of messages queued and not yet accepted by the server.
+     *
+     * @return Number of messages queued.
+     */
+    public synchronized int getQueueDepth() {
+        int depth = 0;
+        for (Deque<PendingMessage> queue : queues.values()) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Get number of messages being sent.
+     *
+     * @return Number of messages being sent.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Get average time from the first send attempt to the echo from the server.
+     *
+     * @return Average send to echo latency in milliseconds.
+     */
+    public synchronized long getAverageEchoLatency() {
+        return echoCount > 0 ? totalEchoLatency / echoCount : 0;
+    }
+
+    /**
+     * Get maximum time from the first send attempt to the echo from the server.
+     *
+     * @return Maximum send to echo latency in milliseconds.
+     */
+    public synchronized long getMaxEchoLatency() {
+        return maxEchoLatency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "Outbound queued=%d inFlight=%d sent=%d retried=%d failed=%d echoed=%d echoTimeouts=%d echoLatencyAvg=%dms echoLatencyMax=%dms",
+                getQueueDepth(), inFlight, sentCount, retryCount, failedCount, echoCount, echoTimeoutCount, getAverageEchoLatency(), maxEchoLatency);
+    }
+}
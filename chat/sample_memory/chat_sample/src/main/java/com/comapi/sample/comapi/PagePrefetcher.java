@@ -0,0 +1,291 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Requests older message pages before the user scrolls to the oldest loaded message, so that paging back in history does not wait for a network round trip.
+ * The list view reports its visible window with {@link PagePrefetcher#onVisibleRangeChanged(String, int, int)}. When the first visible row is within the look-ahead distance from the oldest loaded message a page request is issued.
+ * Hit and miss counters can be used to tune the look-ahead and the in-flight cap.
+ */
+public class PagePrefetcher {
+
+    /**
+     * Default number of rows from the oldest loaded message at which the next page will be requested.
+     */
+    public static final int DEFAULT_LOOK_AHEAD = 10;
+
+    /**
+     * Default maximum number of page requests running at the same time.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+
+    /**
+     * Source of older message pages, e.g. Comapi Chat SDK paging API or a fake client in tests.
+     */
+    public interface PageSource {
+
+        /**
+         * Load the page of messages preceding the oldest message loaded for a conversation.
+         *
+         * @param conversationId Conversation unique id.
+         * @param callback       Callback to be notified when the page has been loaded.
+         */
+        void loadPreviousPage(String conversationId, ServiceController.UICallback callback);
+    }
+
+    /**
+     * Paging state of a single conversation.
+     */
+    private static class PagingState {
+
+        /**
+         * Number of rows in the list when the last page was requested, -1 if no page has been requested.
+         */
+        int requestedAtCount = -1;
+
+        /**
+         * Number of rows in the list when the user reached the oldest loaded message, -1 if it wasn't reached yet.
+         */
+        int edgeReachedAtCount = -1;
+
+        /**
+         * True if the page request is running.
+         */
+        boolean inFlight;
+
+        /**
+         * True if the user reached the oldest loaded message while the page request was running.
+         */
+        boolean waitedOn;
+    }
+
+    /**
+     * Source of older message pages.
+     */
+    private final PageSource source;
+
+    /**
+     * Number of rows from the oldest loaded message at which the next page will be requested.
+     */
+    private final int lookAhead;
+
+    /**
+     * Maximum number of page requests running at the same time.
+     */
+    private final int maxInFlight;
+
+    /**
+     * Paging state by conversation id.
+     */
+    private final Map<String /*conversationId*/, PagingState> states;
+
+    /**
+     * Number of page requests running.
+     */
+    private int inFlight;
+
+    /**
+     * Number of pages loaded before the user reached the oldest loaded message.
+     */
+    private long hits;
+
+    /**
+     * Number of times the user reached the oldest loaded message before the page was loaded.
+     */
+    private long misses;
+
+    /**
+     * Number of page requests issued.
+     */
+    private long issued;
+
+    /**
+     * Number of page requests that failed.
+     */
+    private long failures;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param source      Source of older message pages.
+     * @param lookAhead   Number of rows from the oldest loaded message at which the next page will be requested.
+     * @param maxInFlight Maximum number of page requests running at the same time.
+     */
+    public PagePrefetcher(PageSource source, int lookAhead, int maxInFlight) {
+        this.source = source;
+        this.lookAhead = Math.max(0, lookAhead);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.states = new HashMap<>();
+    }
+
+    /**
+     * Inform prefetcher about the rows visible on the screen. Messages are ordered from the oldest (position 0) to the most recent.
+     *
+     * @param conversationId Conversation unique id.
+     * @param firstVisible   Position of the first visible row.
+     * @param totalCount     Number of rows in the list.
+     */
+    public void onVisibleRangeChanged(String conversationId, int firstVisible, int totalCount) {
+
+        if (conversationId == null || totalCount <= 0) {
+            // Nothing loaded yet, the first page is requested by the SDK itself.
+            return;
+        }
+
+        PagingState toLoad = null;
+
+        synchronized (this) {
+
+            PagingState state = states.get(conversationId);
+            if (state == null) {
+                state = new PagingState();
+                states.put(conversationId, state);
+            }
+
+            if (firstVisible == 0 && state.edgeReachedAtCount != totalCount) {
+                // User reached the oldest loaded message
+                state.edgeReachedAtCount = totalCount;
+                if (state.inFlight) {
+                    // Page is still loading, the user has to wait
+                    misses++;
+                    state.waitedOn = true;
+                } else if (state.requestedAtCount != totalCount) {
+                    // Page was never requested for this position, the user has to wait. Not speculative so the in-flight cap doesn't apply.
+                    misses++;
+                    state.waitedOn = true;
+                    toLoad = markRequested(state, totalCount);
+                }
+            } else if (firstVisible <= lookAhead && !state.inFlight && state.requestedAtCount != totalCount && inFlight < maxInFlight) {
+                // Close enough to the oldest loaded message, request next page in advance
+                toLoad = markRequested(state, totalCount);
+            }
+        }
+
+        if (toLoad != null) {
+            load(conversationId, toLoad);
+        }
+    }
+
+    /**
+     * Mark conversation as having a page request running.
+     *
+     * @param state      Paging state of a conversation.
+     * @param totalCount Number of rows in the list.
+     * @return Paging state for which the request should be issued.
+     */
+    private PagingState markRequested(PagingState state, int totalCount) {
+        state.inFlight = true;
+        state.requestedAtCount = totalCount;
+        inFlight++;
+        issued++;
+        return state;
+    }
+
+    /**
+     * Request page from the source.
+     *
+     * @param conversationId Conversation unique id.
+     * @param state          Paging state of a conversation.
+     */
+    private void load(String conversationId, final PagingState state) {
+        source.loadPreviousPage(conversationId, new ServiceController.UICallback() {
+            @Override
+            public void finished(boolean isSuccess) {
+                synchronized (PagePrefetcher.this) {
+                    state.inFlight = false;
+                    inFlight--;
+                    if (!isSuccess) {
+                        failures++;
+                        // Allow retry for the same position
+                        state.requestedAtCount = -1;
+                        state.edgeReachedAtCount = -1;
+                    } else if (!state.waitedOn) {
+                        hits++;
+                    }
+                    state.waitedOn = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget paging state of a conversation e.g. when the screen with messages is closed.
+     *
+     * @param conversationId Conversation unique id.
+     */
+    public synchronized void clear(String conversationId) {
+        states.remove(conversationId);
+    }
+
+    /**
+     * Get number of pages loaded before the user reached the oldest loaded message.
+     *
+     * @return Number of prefetch hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get number of times the user reached the oldest loaded message before the page was loaded.
+     *
+     * @return Number of prefetch misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get number of page requests issued.
+     *
+     * @return Number of page requests issued.
+     */
+    public synchronized long getIssued() {
+        return issued;
+    }
+
+    /**
+     * Get number of page requests that failed.
+     *
+     * @return Number of page requests that failed.
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Get number of page requests running.
+     *
+     * @return Number of page requests running.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "Prefetch look-ahead=%d issued=%d hits=%d misses=%d failures=%d inFlight=%d", lookAhead, issued, hits, misses, failures, inFlight);
+    }
+}
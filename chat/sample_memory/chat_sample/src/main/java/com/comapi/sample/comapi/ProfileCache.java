@@ -0,0 +1,281 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import com.comapi.Callback;
+import com.comapi.QueryBuilder;
+import com.comapi.internal.network.ComapiResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of profile ids confirmed to exist in the ApiSpace. Lets the app skip the profile query before adding a participant that was already looked up.
+ * Entries expire after a time to live and the least recently used ones are removed when the cache is full.
+ */
+public class ProfileCache {
+
+    /**
+     * Default time after which a profile has to be queried again.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Default maximum number of cached profile ids.
+     */
+    public static final int DEFAULT_MAX_SIZE = 500;
+
+    /**
+     * Maximum number of profile ids to check in a single query.
+     */
+    public static final int MAX_QUERY_SIZE = 50;
+
+    /**
+     * Name of the profile id field in query results.
+     */
+    private static final String KEY_ID = "id";
+
+    /**
+     * Queries profiles with given ids.
+     */
+    public interface ProfileQuery {
+
+        /**
+         * Query profiles with given ids.
+         *
+         * @param query    Query string created with {@link com.comapi.QueryBuilder}.
+         * @param callback Callback with the query result.
+         */
+        void queryProfiles(String query, Callback<ComapiResult<List<Map<String, Object>>>> callback);
+    }
+
+    /**
+     * Result of checking which profiles exist.
+     */
+    public interface CheckResult {
+
+        /**
+         * All profile ids have been checked.
+         *
+         * @param existing  Profile ids that exist in the ApiSpace, in the original order.
+         * @param notFound  Profile ids that don't exist.
+         * @param unchecked Profile ids that couldn't be checked because the query failed.
+         */
+        void onChecked(List<String> existing, List<String> notFound, List<String> unchecked);
+    }
+
+    private final long ttl;
+
+    /**
+     * Time when the profile was confirmed by profile id. Iterated from the least recently used.
+     */
+    private final LinkedHashMap<String /*profileId*/, Long> confirmedOn;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param ttl     Time after which a profile has to be queried again.
+     * @param maxSize Maximum number of cached profile ids.
+     */
+    public ProfileCache(long ttl, final int maxSize) {
+        this.ttl = ttl;
+        this.confirmedOn = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get profile ids that are not known to exist and have to be queried.
+     *
+     * @param profileIds Profile ids to check.
+     * @return Profile ids missing in the cache.
+     */
+    public synchronized List<String> getUnknown(Collection<String> profileIds) {
+        List<String> unknown = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String id : profileIds) {
+            Long time = confirmedOn.get(id);
+            if (time != null && now - time < ttl) {
+                hits++;
+            } else {
+                if (time != null) {
+                    confirmedOn.remove(id);
+                }
+                misses++;
+                unknown.add(id);
+            }
+        }
+        return unknown;
+    }
+
+    /**
+     * Check which profiles exist. Profile ids missing in the cache are checked with as few queries as possible.
+     *
+     * @param profileIds Profile ids to check. Duplicates and empty ids are ignored.
+     * @param query      Queries profiles with given ids.
+     * @param result     Result of the check.
+     */
+    public void check(Collection<String> profileIds, ProfileQuery query, final CheckResult result) {
+
+        final List<String> ids = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(profileIds)) {
+            if (id != null && !id.isEmpty()) {
+                ids.add(id);
+            }
+        }
+        final List<String> unknown = getUnknown(ids);
+
+        if (unknown.isEmpty()) {
+            result.onChecked(ids, new ArrayList<String>(), new ArrayList<String>());
+            return;
+        }
+
+        final Set<String> notFound = Collections.synchronizedSet(new HashSet<>(unknown));
+        final Set<String> unchecked = Collections.synchronizedSet(new HashSet<String>());
+        final List<List<String>> chunks = split(unknown);
+        final AtomicInteger remaining = new AtomicInteger(chunks.size());
+
+        for (final List<String> chunk : chunks) {
+            query.queryProfiles(new QueryBuilder().inArray(KEY_ID, chunk).build(), new Callback<ComapiResult<List<Map<String, Object>>>>() {
+
+                @Override
+                public void success(ComapiResult<List<Map<String, Object>>> response) {
+                    if (response.isSuccessful()) {
+                        Set<String> found = getProfileIds(response.getResult());
+                        putAll(found);
+                        notFound.removeAll(found);
+                    } else {
+                        unchecked.addAll(chunk);
+                    }
+                    finish();
+                }
+
+                @Override
+                public void error(Throwable t) {
+                    unchecked.addAll(chunk);
+                    finish();
+                }
+
+                private void finish() {
+                    if (remaining.decrementAndGet() == 0) {
+                        List<String> existing = new ArrayList<>();
+                        List<String> missing = new ArrayList<>();
+                        List<String> failed = new ArrayList<>();
+                        for (String id : ids) {
+                            if (unchecked.contains(id)) {
+                                failed.add(id);
+                            } else if (notFound.contains(id)) {
+                                missing.add(id);
+                            } else {
+                                existing.add(id);
+                            }
+                        }
+                        result.onChecked(existing, missing, failed);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Save profile ids confirmed to exist.
+     *
+     * @param profileIds Existing profile ids.
+     */
+    public synchronized void putAll(Collection<String> profileIds) {
+        long now = System.currentTimeMillis();
+        for (String id : profileIds) {
+            confirmedOn.put(id, now);
+        }
+    }
+
+    /**
+     * Get number of profile ids found in the cache.
+     *
+     * @return Number of cache hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get number of profile ids that had to be queried.
+     *
+     * @return Number of cache misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get profile ids from the result of profile query.
+     *
+     * @param profiles Profiles returned from the query.
+     * @return Profile ids.
+     */
+    static Set<String> getProfileIds(List<Map<String, Object>> profiles) {
+        Set<String> ids = new HashSet<>();
+        if (profiles != null) {
+            for (Map<String, Object> profile : profiles) {
+                Object id = profile.get(KEY_ID);
+                if (id != null) {
+                    ids.add(id.toString());
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Split profile ids to lists small enough to check in a single query.
+     *
+     * @param profileIds Profile ids to query.
+     * @return Profile ids split for separate queries.
+     */
+    static List<List<String>> split(List<String> profileIds) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < profileIds.size(); i += MAX_QUERY_SIZE) {
+            chunks.add(new ArrayList<>(profileIds.subList(i, Math.min(profileIds.size(), i + MAX_QUERY_SIZE))));
+        }
+        return chunks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "Profiles cached=%d hits=%d misses=%d", confirmedOn.size(), hits, misses);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shapes SDK calls made by the controller with token buckets so that bulk UI actions don't burst requests to the server.
+ * Every call takes a token from a global bucket and from the bucket of its priority. Calls without tokens are queued and the higher priority queues are served first.
+ * Lower priority calls wait while any higher priority call is queued, even if only the budget of the higher priority is exhausted.
+ */
+public class RequestScheduler {
+
+    /**
+     * Priority of a request, from the highest.
+     */
+    public enum Priority {
+        SEND, PAGING, PROFILE
+    }
+
+    /**
+     * Source of time, replaced with a fake in tests.
+     */
+    public interface Clock {
+
+        /**
+         * Get current time.
+         *
+         * @return Current time in milliseconds. Only differences between the values are used.
+         */
+        long now();
+    }
+
+    /**
+     * Clock based on {@link System#nanoTime()}.
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    /**
+     * Token bucket with a burst capacity refilled at a constant rate.
+     */
+    static class TokenBucket {
+
+        private final int capacity;
+        private final double tokensPerMilli;
+        private double tokens;
+        private long refilledOn;
+
+        /**
+         * Recommended constructor.
+         *
+         * @param capacity        Maximum number of tokens.
+         * @param tokensPerSecond Refill rate.
+         * @param now             Current time.
+         */
+        TokenBucket(int capacity, double tokensPerSecond, long now) {
+            this.capacity = capacity;
+            this.tokensPerMilli = tokensPerSecond / 1000;
+            this.tokens = capacity;
+            this.refilledOn = now;
+        }
+
+        private void refill(long now) {
+            if (now > refilledOn) {
+                tokens = Math.min(capacity, tokens + (now - refilledOn) * tokensPerMilli);
+                refilledOn = now;
+            }
+        }
+
+        boolean hasToken(long now) {
+            refill(now);
+            return tokens >= 1;
+        }
+
+        void take() {
+            tokens -= 1;
+        }
+
+        long millisUntilToken(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerMilli);
+        }
+    }
+
+    /**
+     * Queued SDK call.
+     */
+    private static class Request {
+
+        final Priority priority;
+        final String operation;
+        final Runnable call;
+        final long queuedOn;
+
+        Request(Priority priority, String operation, Runnable call, long queuedOn) {
+            this.priority = priority;
+            this.operation = operation;
+            this.call = call;
+            this.queuedOn = queuedOn;
+        }
+    }
+
+    private final Clock clock;
+
+    /**
+     * Schedules serving the queue when tokens become available. If null {@link #drain()} has to be called manually, e.g. in tests with a fake clock.
+     */
+    private final ScheduledExecutorService executor;
+
+    private final TokenBucket global;
+
+    private final Map<Priority, TokenBucket> budgets;
+
+    private final Map<Priority, Deque<Request>> queues;
+
+    private boolean isDrainScheduled;
+
+    private long executedCount;
+
+    private long delayedCount;
+
+    private long maxDelay;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param clock           Source of time.
+     * @param executor        Schedules serving the queue when tokens become available, can be null.
+     * @param capacity        Maximum burst of requests of all priorities.
+     * @param tokensPerSecond Sustained rate of requests of all priorities.
+     */
+    public RequestScheduler(Clock clock, ScheduledExecutorService executor, int capacity, double tokensPerSecond) {
+        this.clock = clock;
+        this.executor = executor;
+        this.global = new TokenBucket(capacity, tokensPerSecond, clock.now());
+        this.budgets = new EnumMap<>(Priority.class);
+        this.queues = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            budgets.put(priority, new TokenBucket(capacity, tokensPerSecond, clock.now()));
+            queues.put(priority, new ArrayDeque<Request>());
+        }
+    }
+
+    /**
+     * Set budget for requests of a given priority.
+     *
+     * @param priority        Request priority.
+     * @param capacity        Maximum burst of requests with this priority.
+     * @param tokensPerSecond Sustained rate of requests with this priority.
+     * @return This scheduler.
+     */
+    public synchronized RequestScheduler setBudget(Priority priority, int capacity, double tokensPerSecond) {
+        budgets.put(priority, new TokenBucket(capacity, tokensPerSecond, clock.now()));
+        return this;
+    }
+
+    /**
+     * Execute SDK call now if there are tokens available, otherwise queue it.
+     *
+     * @param priority  Request priority.
+     * @param operation Operation name, for diagnostics.
+     * @param call      SDK call.
+     */
+    public void submit(Priority priority, String operation, Runnable call) {
+        synchronized (this) {
+            queues.get(priority).add(new Request(priority, operation, call, clock.now()));
+        }
+        drain();
+    }
+
+    /**
+     * Execute queued calls for which there are tokens available, higher priorities first. Stops at the first priority with calls left in its queue.
+     */
+    public void drain() {
+
+        List<Request> ready = new ArrayList<>();
+
+        synchronized (this) {
+            long now = clock.now();
+            long wait = Long.MAX_VALUE;
+            for (Priority priority : Priority.values()) {
+                Deque<Request> queue = queues.get(priority);
+                TokenBucket budget = budgets.get(priority);
+                while (!queue.isEmpty() && global.hasToken(now) && budget.hasToken(now)) {
+                    Request request = queue.poll();
+                    global.take();
+                    budget.take();
+                    executedCount++;
+                    long delay = now - request.queuedOn;
+                    if (delay > 0) {
+                        delayedCount++;
+                        maxDelay = Math.max(maxDelay, delay);
+                    }
+                    ready.add(request);
+                }
+                if (!queue.isEmpty()) {
+                    // Lower priorities would take the global tokens this queue is waiting for, leave them queued until it empties
+                    wait = Math.max(global.millisUntilToken(now), budget.millisUntilToken(now));
+                    break;
+                }
+            }
+            if (wait != Long.MAX_VALUE && executor != null && !isDrainScheduled) {
+                isDrainScheduled = true;
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (RequestScheduler.this) {
+                            isDrainScheduled = false;
+                        }
+                        drain();
+                    }
+                }, Math.max(1, wait), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        for (Request request : ready) {
+            request.call.run();
+        }
+    }
+
+    /**
+     * Get number of queued requests with a given priority.
+     *
+     * @param priority Request priority.
+     * @return Number of queued requests.
+     */
+    public synchronized int getQueueSize(Priority priority) {
+        return queues.get(priority).size();
+    }
+
+    /**
+     * Get names of queued operations in the order they will be executed.
+     *
+     * @return Names of queued operations.
+     */
+    public synchronized List<String> getQueuedOperations() {
+        List<String> operations = new ArrayList<>();
+        for (Priority priority : Priority.values()) {
+            for (Request request : queues.get(priority)) {
+                operations.add(request.operation);
+            }
+        }
+        return operations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "Scheduler queued send=%d paging=%d profile=%d executed=%d delayed=%d maxDelay=%dms",
+                queues.get(Priority.SEND).size(), queues.get(Priority.PAGING).size(), queues.get(Priority.PROFILE).size(), executedCount, delayedCount, maxDelay);
+    }
+}
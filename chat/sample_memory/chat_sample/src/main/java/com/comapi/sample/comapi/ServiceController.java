@@ -21,11 +21,11 @@
 package com.comapi.sample.comapi;
 
 import android.content.Context;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.comapi.Callback;
-import com.comapi.QueryBuilder;
 import com.comapi.Session;
 import com.comapi.chat.ChatResult;
 import com.comapi.chat.ComapiChatClient;
@@ -39,13 +39,24 @@ import com.comapi.internal.network.model.conversation.Roles;
 import com.comapi.internal.network.model.events.conversation.ParticipantAddedEvent;
 import com.comapi.internal.network.model.events.conversation.ParticipantRemovedEvent;
 import com.comapi.internal.network.model.events.conversation.ParticipantUpdatedEvent;
+import com.comapi.internal.network.model.messaging.MessageToSend;
+import com.comapi.internal.network.model.messaging.Part;
+import com.comapi.sample.BuildConfig;
 import com.comapi.sample.Const;
 import com.comapi.sample.ui.ManageParticipantsActivity;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Controller class wrapping Comapi Client and holds UI listeners.
@@ -54,6 +65,11 @@ import java.util.UUID;
  */
 public class ServiceController {
 
+    /**
+     * Time after which a cached participants list is fetched again when the participants screen opens.
+     */
+    private static final long ROSTER_TTL_MILLIS = 5 * 60 * 1000;
+
     /**
      * Comapi Chat SDK client obtained from initialisation in SampleApplication#onCreate
      */
@@ -70,14 +86,120 @@ public class ServiceController {
     private UICallback synchroniseCallback;
 
     /**
-     * UI callback for comapiChatClient.messaging().getParticipants() call. Used to hide swipe to refresh widget when API finishes.
+     * UI listener for participants of the conversation displayed in ManageParticipantsActivity.
      */
     private ManageParticipantsActivity.UiParticipantsListener uiParticipantsListener;
 
     /**
-     * Listener for changes to participants list for a conversation. Used to update a screen with conversation participants.
+     * Conversation unique id for which the participants are displayed.
+     */
+    private String participantsConversationId;
+
+    /**
+     * Listener for changes to participants list in all conversations. Keeps cached participants lists up to date.
+     */
+    private final ParticipantsListener comapiParticipantsListener;
+
+    /**
+     * Cached participants lists by conversation id, in the order the participants were added.
+     */
+    private final Map<String /*conversationId*/, Set<String /*profileId*/>> rosters;
+
+    /**
+     * Time when the participants list was fetched from the server by conversation id.
+     */
+    private final Map<String /*conversationId*/, Long> rosterFetchedOn;
+
+    /**
+     * Requests older message pages before the user scrolls to the oldest loaded message.
+     */
+    private final PagePrefetcher pagePrefetcher;
+
+    /**
+     * Deduplicates concurrent synchronisation and paging calls.
+     */
+    private final SingleFlight singleFlight;
+
+    /**
+     * Sends messages in order and keeps their local copies until the server confirms them.
+     */
+    private final OutboundMessagePipeline outboundPipeline;
+
+    /**
+     * Durable copy of messages not yet accepted by the server.
+     */
+    private MessageOutbox outbox;
+
+    /**
+     * Messages left in the outbox by the previous run, queued again when the session starts.
      */
-    private ParticipantsListener comapiParticipantsListener;
+    private List<MessageOutbox.Entry> outboxRestored;
+
+    /**
+     * Limits the rate of SDK calls, sending messages first, then paging and then profile and participant calls.
+     */
+    private final RequestScheduler scheduler;
+
+    /**
+     * Records latency and results of SDK calls. Disabled in release builds.
+     */
+    private final ApiMetrics metrics = BuildConfig.DEBUG ? new ApiMetrics(new ApiMetrics.LogExporter()) : ApiMetrics.DISABLED;
+
+    /**
+     * Profile ids known to exist, skips the profile query when adding participants.
+     */
+    private final ProfileCache profileCache = new ProfileCache(ProfileCache.DEFAULT_TTL_MILLIS, ProfileCache.DEFAULT_MAX_SIZE);
+
+    /**
+     * Recommended constructor.
+     */
+    public ServiceController() {
+        singleFlight = new SingleFlight();
+        rosters = new HashMap<>();
+        rosterFetchedOn = new HashMap<>();
+        comapiParticipantsListener = new ParticipantsListener() {
+            @Override
+            public void onParticipantAdded(ParticipantAddedEvent event) {
+                if (updateRoster(event.getConversationId(), event.getProfileId(), true)) {
+                    // notify UI about newly added participant
+                    notifyParticipant(event.getConversationId(), event.getProfileId(), true);
+                }
+            }
+
+            @Override
+            public void onParticipantUpdated(ParticipantUpdatedEvent event) {
+                // sample app won't display any details about conversation participants, only make sure the participant is in the list
+                if (updateRoster(event.getConversationId(), event.getProfileId(), true)) {
+                    notifyParticipant(event.getConversationId(), event.getProfileId(), true);
+                }
+            }
+
+            @Override
+            public void onParticipantRemoved(ParticipantRemovedEvent event) {
+                if (updateRoster(event.getConversationId(), event.getProfileId(), false)) {
+                    // notify UI about removed participant
+                    notifyParticipant(event.getConversationId(), event.getProfileId(), false);
+                }
+            }
+        };
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        scheduler = new RequestScheduler(RequestScheduler.SYSTEM_CLOCK, executor, 10, 5)
+                .setBudget(RequestScheduler.Priority.SEND, 10, 4)
+                .setBudget(RequestScheduler.Priority.PAGING, 3, 1)
+                .setBudget(RequestScheduler.Priority.PROFILE, 5, 2);
+        outboundPipeline = new OutboundMessagePipeline(new OutboundMessagePipeline.Sender() {
+            @Override
+            public void send(OutboundMessagePipeline.PendingMessage message, UICallback callback) {
+                getService().sendQueuedMessage(message, callback);
+            }
+        }, executor, OutboundMessagePipeline.DEFAULT_MAX_IN_FLIGHT, OutboundMessagePipeline.DEFAULT_MAX_ATTEMPTS, OutboundMessagePipeline.DEFAULT_BACKOFF_MILLIS);
+        pagePrefetcher = new PagePrefetcher(new PagePrefetcher.PageSource() {
+            @Override
+            public void loadPreviousPage(String conversationId, UICallback callback) {
+                getService().getPreviousMessages(conversationId, callback);
+            }
+        }, PagePrefetcher.DEFAULT_LOOK_AHEAD, PagePrefetcher.DEFAULT_MAX_IN_FLIGHT);
+    }
 
     /**
      * Creates an Comapi service API wrapper
@@ -91,6 +213,8 @@ public class ServiceController {
      */
     void setClient(ComapiChatClient client) {
         this.client = client;
+        // listen to participant changes in all conversations to keep cached participants lists up to date
+        client.addListener(comapiParticipantsListener);
     }
 
     /**
@@ -100,6 +224,88 @@ public class ServiceController {
         return client;
     }
 
+    /**
+     * Sets durable outbox for messages not yet accepted by the server and reads messages left from the previous run.
+     *
+     * @param file Outbox journal file.
+     */
+    public void initOutbox(File file) {
+        MessageOutbox messageOutbox = new MessageOutbox(file);
+        try {
+            messageOutbox.load();
+            synchronized (this) {
+                outbox = messageOutbox;
+                outboxRestored = messageOutbox.getPending();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(Const.TAG, "Error loading message outbox: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Queue messages left in the outbox by the previous run. Called when the session becomes available, messages are sent in the original order.
+     */
+    void replayOutbox() {
+        List<MessageOutbox.Entry> entries;
+        synchronized (this) {
+            entries = outboxRestored;
+            outboxRestored = null;
+        }
+        if (entries != null && client != null) {
+            Session session = client.getSession();
+            for (MessageOutbox.Entry entry : entries) {
+                outboundPipeline.enqueue(entry.getId(), entry.getConversationId(), entry.getBody(), session != null ? session.getProfileId() : null);
+            }
+        }
+    }
+
+    /**
+     * Remove message from the outbox after the server accepted it.
+     *
+     * @param localId Local message id.
+     */
+    void acknowledgeOutbox(String localId) {
+        MessageOutbox o = outbox;
+        if (o != null) {
+            o.acknowledge(localId);
+        }
+    }
+
+    /**
+     * Gets rate limiter of SDK calls, e.g. to check queued requests.
+     */
+    public RequestScheduler getRequestScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Gets recorded latency and results of SDK calls.
+     */
+    public ApiMetrics getApiMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets deduplicating layer for synchronisation and paging calls.
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Gets queue of outgoing messages.
+     */
+    public OutboundMessagePipeline getOutboundPipeline() {
+        return outboundPipeline;
+    }
+
+    /**
+     * Gets prefetcher of older message pages. Message list screen should report visible rows to it.
+     */
+    public PagePrefetcher getPagePrefetcher() {
+        return pagePrefetcher;
+    }
+
     /**
      * Sets UI callback for comapiChatClient.messaging().previousMessages() call. Used to hide swipe to refresh widget when paging API finishes.
      */
@@ -129,57 +335,124 @@ public class ServiceController {
     }
 
     /**
-     * Sets listener for participants added/removed from conversation events.
+     * Sets listener for participants added/removed from conversation events. Cached participants list is passed to the listener straight away, it is fetched from the server only if it is missing or stale.
      */
     public void setListener(String conversationId, final ManageParticipantsActivity.UiParticipantsListener uiParticipantsListener) {
 
-        this.uiParticipantsListener = uiParticipantsListener;
-
-        // create SDK listener
-        comapiParticipantsListener = new ParticipantsListener() {
-            @Override
-            public void onParticipantAdded(ParticipantAddedEvent event) {
-                if (uiParticipantsListener != null) {
-                    // notify UI about newly added participant
-                    uiParticipantsListener.add(event.getProfileId());
-                }
-            }
-
-            @Override
-            public void onParticipantUpdated(ParticipantUpdatedEvent event) {
-                // sample app won't display and use any details about conversation participants, ignoring this callback
+        List<String> cached = null;
+        synchronized (rosters) {
+            this.participantsConversationId = conversationId;
+            this.uiParticipantsListener = uiParticipantsListener;
+            Set<String> roster = rosters.get(conversationId);
+            if (roster != null) {
+                cached = new ArrayList<>(roster);
             }
+        }
 
-            @Override
-            public void onParticipantRemoved(ParticipantRemovedEvent event) {
-                if (uiParticipantsListener != null) {
-                    // notify UI about removed participant
-                    uiParticipantsListener.remove(event.getProfileId());
-                }
-            }
-        };
+        if (cached != null) {
+            uiParticipantsListener.set(cached);
+        }
 
-        // pass listener object to Comapi client
-        client.addListener(comapiParticipantsListener);
-        // query participants in a conversation after listener has been added, will update ManageParticipantsActivity with most recent data
-        getService().checkParticipants(conversationId);
+        if (cached == null || isRosterStale(conversationId)) {
+            // query participants in a conversation, will update ManageParticipantsActivity with most recent data
+            getService().checkParticipants(conversationId);
+        }
     }
 
     /**
      * Removes UI callback for comapiChatClient.messaging().getParticipants() call.
      */
     public void removeParticipantsListener() {
-        // Remove listener from Comapi client
-        client.removeListener(comapiParticipantsListener);
-        // Remove UI listener from app controller
-        this.uiParticipantsListener = null;
+        synchronized (rosters) {
+            // Remove UI listener from app controller, cached participants lists are still updated with events
+            this.uiParticipantsListener = null;
+            this.participantsConversationId = null;
+        }
+    }
+
+    /**
+     * Check if participants list for a conversation should be fetched from the server again.
+     *
+     * @param conversationId Conversation unique id.
+     * @return True if the cached list is missing or too old.
+     */
+    private boolean isRosterStale(String conversationId) {
+        synchronized (rosters) {
+            Long fetchedOn = rosterFetchedOn.get(conversationId);
+            return fetchedOn == null || System.currentTimeMillis() - fetchedOn > ROSTER_TTL_MILLIS;
+        }
+    }
+
+    /**
+     * Forget cached participants lists, e.g. when the store is cleared or another user may log in.
+     */
+    public void clearRosters() {
+        synchronized (rosters) {
+            rosters.clear();
+            rosterFetchedOn.clear();
+        }
+    }
+
+    /**
+     * Replace cached participants list with the one fetched from the server.
+     *
+     * @param conversationId Conversation unique id.
+     * @param profileIds     Profile ids of conversation participants.
+     * @return Copy of the new participants list.
+     */
+    private List<String> setRoster(String conversationId, List<String> profileIds) {
+        synchronized (rosters) {
+            Set<String> roster = new LinkedHashSet<>(profileIds);
+            rosters.put(conversationId, roster);
+            rosterFetchedOn.put(conversationId, System.currentTimeMillis());
+            return new ArrayList<>(roster);
+        }
+    }
+
+    /**
+     * Add or remove participant in a cached participants list. Ignored if participants of the conversation haven't been fetched yet.
+     *
+     * @param conversationId Conversation unique id.
+     * @param profileId      Profile id of a participant.
+     * @param isAdded        True if participant was added, false if removed.
+     * @return True if the cached list was changed.
+     */
+    private boolean updateRoster(String conversationId, String profileId, boolean isAdded) {
+        synchronized (rosters) {
+            Set<String> roster = rosters.get(conversationId);
+            if (roster == null) {
+                return false;
+            }
+            return isAdded ? roster.add(profileId) : roster.remove(profileId);
+        }
+    }
+
+    /**
+     * Notify UI listener about a participant added or removed if the conversation is displayed.
+     *
+     * @param conversationId Conversation unique id.
+     * @param profileId      Profile id of a participant.
+     * @param isAdded        True if participant was added, false if removed.
+     */
+    private void notifyParticipant(String conversationId, String profileId, boolean isAdded) {
+        ManageParticipantsActivity.UiParticipantsListener listener;
+        synchronized (rosters) {
+            listener = conversationId != null && conversationId.equals(participantsConversationId) ? uiParticipantsListener : null;
+        }
+        if (listener != null) {
+            if (isAdded) {
+                listener.add(profileId);
+            } else {
+                listener.remove(profileId);
+            }
+        }
     }
 
     // Class wrapping Comapi client APIs
     public class ServiceAPIWrapper {
 
         /**
-         * Send message to the conversation participants.
+         * Send message to the conversation participants. Message is queued and displayed straight away, it will be sent after the previous messages in the conversation.
          *
          * @param conversationId Conversation unique id.
          * @param message        Message body to send.
@@ -187,25 +460,69 @@ public class ServiceController {
         public void sendMessage(String conversationId, String message) {
 
             if (getClient() != null) {
+                Session session = getClient().getSession();
+                String localId = UUID.randomUUID().toString();
+                MessageOutbox o = outbox;
+                if (o != null) {
+                    try {
+                        // save the message before sending so it survives network loss and process death
+                        o.add(localId, conversationId, message);
+                    } catch (IOException e) {
+                        Log.e(Const.TAG, "Error saving message in the outbox: " + e.getLocalizedMessage());
+                    }
+                }
+                outboundPipeline.enqueue(localId, conversationId, message, session != null ? session.getProfileId() : null);
+            }
+        }
 
-                // Send message to a conversation participants
-                getClient().service().messaging().sendMessage(conversationId, message, new Callback<ChatResult>() {
+        /**
+         * Send message taken from the outbound queue. Local message id is added to the metadata so the message can be matched when it comes back from the server.
+         *
+         * @param message  Queued message.
+         * @param callback Callback to be notified when the call finishes.
+         */
+        void sendQueuedMessage(final OutboundMessagePipeline.PendingMessage message, final UICallback callback) {
 
-                    @Override
-                    public void success(ChatResult result) {
-                        if (result.isSuccessful()) {
-                            Log.i(Const.TAG, "Successfully sent message");
-                        } else {
-                            Log.e(Const.TAG, "Error sending message: ");
+            if (getClient() == null) {
+                callback.finished(false);
+                return;
+            }
+
+            final Part bodyPart = Part.builder()
+                    .setData(message.getBody())
+                    .setName("body")
+                    .setSize(message.getBody().length())
+                    .setType("text/plain")
+                    .build();
+
+            final Map<String, Object> metadata = new HashMap<>();
+            metadata.put(OutboundMessagePipeline.METADATA_LOCAL_ID, message.getLocalId());
+
+            // Send message to a conversation participants
+            scheduler.submit(RequestScheduler.Priority.SEND, ApiMetrics.OPERATION_SEND_MESSAGE, new Runnable() {
+                @Override
+                public void run() {
+                    getClient().service().messaging().sendMessage(message.getConversationId(), MessageToSend.builder().addPart(bodyPart).setMetadata(metadata).build(), metrics.wrap(ApiMetrics.OPERATION_SEND_MESSAGE, new Callback<ChatResult>() {
+
+                        @Override
+                        public void success(ChatResult result) {
+                            if (result.isSuccessful()) {
+                                acknowledgeOutbox(message.getLocalId());
+                                Log.i(Const.TAG, "Successfully sent message");
+                            } else {
+                                Log.e(Const.TAG, "Error sending message: ");
+                            }
+                            callback.finished(result.isSuccessful());
                         }
-                    }
 
-                    @Override
-                    public void error(Throwable t) {
-                        Log.e(Const.TAG, "Error sending message: " + t.getLocalizedMessage());
-                    }
-                });
-            }
+                        @Override
+                        public void error(Throwable t) {
+                            Log.e(Const.TAG, "Error sending message: " + t.getLocalizedMessage());
+                            callback.finished(false);
+                        }
+                    }));
+                }
+            });
         }
 
         /**
@@ -216,49 +533,107 @@ public class ServiceController {
          * @param participantId  Profile id of a new participant to add.
          */
         public void addParticipant(final Context context, final String conversationId, final String participantId) {
+            addParticipants(context, conversationId, Collections.singletonList(participantId));
+        }
 
-            final List<Participant> participants = new ArrayList<>();
-            participants.add(Participant.builder().setId(participantId).setIsParticipant().build());
+        /**
+         * Add many participants to a conversation. Profiles not found in the cache are checked in batched queries and all existing ones are added in a single call.
+         *
+         * @param context        Application context
+         * @param conversationId Conversation unique id.
+         * @param participantIds Profile ids of new participants to add.
+         */
+        public void addParticipants(final Context context, final String conversationId, final List<String> participantIds) {
 
-            // first check if user exist for registered ApiSpace
-            getClient().service().profile().queryProfiles(new QueryBuilder().addEqual("id", participantId).build(), new Callback<ComapiResult<List<Map<String, Object>>>>() {
+            // first check if users exist for registered ApiSpace
+            profileCache.check(participantIds, new ProfileCache.ProfileQuery() {
 
                 @Override
-                public void success(ComapiResult<List<Map<String, Object>>> result) {
-                    if (result.isSuccessful() && !result.getResult().isEmpty() && result.getResult() != null) {
-                        // user exists, we can add him to the conversation participants list
-                        getClient().service().messaging().addParticipants(conversationId, participants, null);
-                    } else {
-                        Toast.makeText(context.getApplicationContext(), "User doesn't exist.", Toast.LENGTH_SHORT).show();
-                    }
+                public void queryProfiles(final String query, final Callback<ComapiResult<List<Map<String, Object>>>> callback) {
+                    scheduler.submit(RequestScheduler.Priority.PROFILE, ApiMetrics.OPERATION_QUERY_PROFILES, new Runnable() {
+                        @Override
+                        public void run() {
+                            getClient().service().profile().queryProfiles(query, metrics.wrap(ApiMetrics.OPERATION_QUERY_PROFILES, callback));
+                        }
+                    });
                 }
+            }, new ProfileCache.CheckResult() {
 
                 @Override
-                public void error(Throwable t) {
-                    Log.e(Const.TAG, "Error querying participants: " + t.getLocalizedMessage());
+                public void onChecked(final List<String> existing, List<String> notFound, List<String> unchecked) {
+
+                    if (!notFound.isEmpty()) {
+                        Toast.makeText(context.getApplicationContext(), "Users don't exist: " + TextUtils.join(", ", notFound), Toast.LENGTH_SHORT).show();
+                    }
+                    if (!unchecked.isEmpty()) {
+                        Log.e(Const.TAG, "Error querying participants: " + TextUtils.join(", ", unchecked));
+                    }
+                    if (existing.isEmpty()) {
+                        return;
+                    }
+
+                    final List<Participant> participants = new ArrayList<>();
+                    for (String id : existing) {
+                        participants.add(Participant.builder().setId(id).setIsParticipant().build());
+                    }
+
+                    // users exist, we can add them to the conversation participants list in one call
+                    scheduler.submit(RequestScheduler.Priority.PROFILE, ApiMetrics.OPERATION_ADD_PARTICIPANTS, new Runnable() {
+                        @Override
+                        public void run() {
+                            getClient().service().messaging().addParticipants(conversationId, participants, metrics.wrap(ApiMetrics.OPERATION_ADD_PARTICIPANTS, new Callback<ChatResult>() {
+
+                                @Override
+                                public void success(ChatResult result) {
+                                    if (!result.isSuccessful()) {
+                                        Toast.makeText(context.getApplicationContext(), "Failed to add: " + TextUtils.join(", ", existing), Toast.LENGTH_SHORT).show();
+                                    }
+                                }
+
+                                @Override
+                                public void error(Throwable t) {
+                                    Log.e(Const.TAG, "Error adding participants: " + t.getLocalizedMessage());
+                                    Toast.makeText(context.getApplicationContext(), "Failed to add: " + TextUtils.join(", ", existing), Toast.LENGTH_SHORT).show();
+                                }
+                            }));
+                        }
+                    });
                 }
             });
         }
 
         /**
-         * Query conversation participants and notify UI listener.
+         * Query conversation participants, save them in the cache and notify UI listener.
          */
         private void checkParticipants(final String conversationId) {
             // query conversation participants
-            client.service().messaging().getParticipants(conversationId, new Callback<List<ChatParticipant>>() {
+            scheduler.submit(RequestScheduler.Priority.PROFILE, ApiMetrics.OPERATION_GET_PARTICIPANTS, new Runnable() {
                 @Override
-                public void success(List<ChatParticipant> participantList) {
-                    if (uiParticipantsListener != null) {
-                        for (ChatParticipant p : participantList) {
-                            // notify UI about found participant
-                            uiParticipantsListener.add(p.getParticipantId());
+                public void run() {
+                    client.service().messaging().getParticipants(conversationId, metrics.wrap(ApiMetrics.OPERATION_GET_PARTICIPANTS, new Callback<List<ChatParticipant>>() {
+                        @Override
+                        public void success(List<ChatParticipant> participantList) {
+                            List<String> profileIds = new ArrayList<>();
+                            for (ChatParticipant p : participantList) {
+                                profileIds.add(p.getParticipantId());
+                            }
+                            List<String> roster = setRoster(conversationId, profileIds);
+
+                            ManageParticipantsActivity.UiParticipantsListener listener;
+                            synchronized (rosters) {
+                                listener = conversationId.equals(participantsConversationId) ? uiParticipantsListener : null;
+                            }
+                            if (listener != null) {
+                                // notify UI about found participants
+                                listener.set(roster);
+                            }
                         }
-                    }
-                }
 
-                @Override
-                public void error(Throwable t) {
-                    // Error occurred
+                        @Override
+                        public void error(Throwable t) {
+                            // Error occurred
+                        }
+                    }));
                 }
             });
         }
@@ -269,10 +644,15 @@ public class ServiceController {
          * @param conversationId Conversation unique id.
          * @param participantId  Profile id of a participant to remove.
          */
-        public void removeParticipant(String conversationId, String participantId) {
-            List<String> participants = new ArrayList<>();
+        public void removeParticipant(final String conversationId, String participantId) {
+            final List<String> participants = new ArrayList<>();
             participants.add(participantId);
-            getClient().service().messaging().removeParticipants(conversationId, participants, null);
+            scheduler.submit(RequestScheduler.Priority.PROFILE, ApiMetrics.OPERATION_REMOVE_PARTICIPANTS, new Runnable() {
+                @Override
+                public void run() {
+                    getClient().service().messaging().removeParticipants(conversationId, participants, metrics.<ChatResult>wrap(ApiMetrics.OPERATION_REMOVE_PARTICIPANTS, null));
+                }
+            });
         }
 
         /**
@@ -281,7 +661,7 @@ public class ServiceController {
          * @param name Public name of a new conversation.
          */
         public void createConversation(String name) {
-            getClient().service().messaging().createConversation(createConversationRequest(name), null);
+            getClient().service().messaging().createConversation(createConversationRequest(name), metrics.<ChatResult>wrap(ApiMetrics.OPERATION_CREATE_CONVERSATION, null));
         }
 
         /**
@@ -290,7 +670,9 @@ public class ServiceController {
          * @param callback Callback with the call result.
          */
         public void startSession(Callback<Session> callback) {
-            getClient().service().session().startSession(callback);
+            // Participants lists cached for the previous session may belong to another user
+            clearRosters();
+            getClient().service().session().startSession(metrics.wrap(ApiMetrics.OPERATION_START_SESSION, callback));
         }
 
         /**
@@ -298,21 +680,36 @@ public class ServiceController {
          */
         public void synchronise() {
 
-            getClient().service().messaging().synchroniseStore(new Callback<ChatResult>() {
+            singleFlight.execute(SingleFlight.OPERATION_SYNCHRONISE, new SingleFlight.Call() {
 
                 @Override
-                public void success(ChatResult result) {
-                    // notify UI listener
-                    if (synchroniseCallback != null) {
-                        synchroniseCallback.finished(result.isSuccessful());
-                    }
+                public void execute(final UICallback callback) {
+
+                    scheduler.submit(RequestScheduler.Priority.PAGING, ApiMetrics.OPERATION_SYNCHRONISE, new Runnable() {
+                        @Override
+                        public void run() {
+                            getClient().service().messaging().synchroniseStore(metrics.wrap(ApiMetrics.OPERATION_SYNCHRONISE, new Callback<ChatResult>() {
+
+                                @Override
+                                public void success(ChatResult result) {
+                                    callback.finished(result.isSuccessful());
+                                }
+
+                                @Override
+                                public void error(Throwable t) {
+                                    callback.finished(false);
+                                }
+                            }));
+                        }
+                    });
                 }
+            }, new UICallback() {
 
                 @Override
-                public void error(Throwable t) {
+                public void finished(boolean isSuccess) {
                     // notify UI listener
                     if (synchroniseCallback != null) {
-                        synchroniseCallback.finished(false);
+                        synchroniseCallback.finished(isSuccess);
                     }
                 }
             });
@@ -325,25 +722,52 @@ public class ServiceController {
          */
         public void getNextPage(String conversationId) {
 
-            getClient().service().messaging().getPreviousMessages(conversationId, new Callback<ChatResult>() {
+            getPreviousMessages(conversationId, new UICallback() {
 
                 @Override
-                public void success(ChatResult result) {
-
+                public void finished(boolean isSuccess) {
                     // notify UI listener
                     if (pagingCallback != null) {
-                        pagingCallback.finished(result.isSuccessful());
+                        pagingCallback.finished(isSuccess);
                     }
                 }
+            });
+        }
+
+        /**
+         * Get message page preceding the oldest message saved in the store.
+         *
+         * @param conversationId Conversation unique id.
+         * @param callback       Callback to be notified when the call finishes.
+         */
+        void getPreviousMessages(final String conversationId, UICallback callback) {
+
+            // Swipe to refresh and prefetcher share the same request if both ask for the page at the same time
+            singleFlight.execute(SingleFlight.key(SingleFlight.OPERATION_PREVIOUS_MESSAGES, conversationId), new SingleFlight.Call() {
 
                 @Override
-                public void error(Throwable t) {
-                    // notify UI listener
-                    if (pagingCallback != null) {
-                        pagingCallback.finished(false);
-                    }
+                public void execute(final UICallback callback) {
+
+                    scheduler.submit(RequestScheduler.Priority.PAGING, ApiMetrics.OPERATION_PREVIOUS_MESSAGES, new Runnable() {
+                        @Override
+                        public void run() {
+                            getClient().service().messaging().getPreviousMessages(conversationId, metrics.wrap(ApiMetrics.OPERATION_PREVIOUS_MESSAGES, new Callback<ChatResult>() {
+
+                                @Override
+                                public void success(ChatResult result) {
+                                    callback.finished(result.isSuccessful());
+                                }
+
+                                @Override
+                                public void error(Throwable t) {
+                                    Log.e(Const.TAG, "Error getting previous messages: " + t.getLocalizedMessage());
+                                    callback.finished(false);
+                                }
+                            }));
+                        }
+                    });
                 }
-            });
+            }, callback);
         }
 
         /**
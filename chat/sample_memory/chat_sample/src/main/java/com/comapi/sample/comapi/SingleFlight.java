@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import android.util.Log;
+
+import com.comapi.sample.Const;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Deduplicates concurrent calls to the same Comapi API. The first caller for a given key executes the call, callers arriving while it is still running
+ * are attached to it and notified with the same result. Used to stop repeated swipes and screen resumes from stacking identical synchronisation and paging requests.
+ */
+public class SingleFlight {
+
+    /**
+     * Key for the store synchronisation call.
+     */
+    public static final String OPERATION_SYNCHRONISE = "synchronise";
+
+    /**
+     * Key prefix for the previous messages page call.
+     */
+    public static final String OPERATION_PREVIOUS_MESSAGES = "previousMessages";
+
+    /**
+     * Call to be executed once for all concurrent callers.
+     */
+    public interface Call {
+
+        /**
+         * Execute the call.
+         *
+         * @param callback Callback to be notified when the call finishes.
+         */
+        void execute(ServiceController.UICallback callback);
+    }
+
+    /**
+     * Callbacks waiting for the result of a running call by the call key.
+     */
+    private final Map<String, List<ServiceController.UICallback>> inFlight;
+
+    /**
+     * Number of calls executed.
+     */
+    private long executed;
+
+    /**
+     * Number of calls that were attached to a running call instead of being executed.
+     */
+    private long saved;
+
+    /**
+     * Recommended constructor.
+     */
+    public SingleFlight() {
+        inFlight = new HashMap<>();
+    }
+
+    /**
+     * Create a key for an operation on a conversation.
+     *
+     * @param operation      Operation name.
+     * @param conversationId Conversation unique id.
+     * @return Key for the call.
+     */
+    public static String key(String operation, String conversationId) {
+        return operation + ":" + conversationId;
+    }
+
+    /**
+     * Execute the call or attach the callback to the same call that is already running.
+     *
+     * @param key      Key identifying the call e.g. operation name and conversation id.
+     * @param call     Call to execute.
+     * @param callback Callback to be notified when the call finishes. Can be null.
+     */
+    public void execute(final String key, Call call, ServiceController.UICallback callback) {
+
+        synchronized (this) {
+            List<ServiceController.UICallback> waiting = inFlight.get(key);
+            if (waiting != null) {
+                // Same call already running, wait for its result
+                waiting.add(callback);
+                saved++;
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlight.put(key, waiting);
+            executed++;
+        }
+
+        try {
+            call.execute(new ServiceController.UICallback() {
+                @Override
+                public void finished(boolean isSuccess) {
+                    complete(key, isSuccess);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Call failed before it started, release the key so the next caller can try again
+            Log.e(Const.TAG, "Error executing " + key + ": " + e.getLocalizedMessage(), e);
+            complete(key, false);
+        }
+    }
+
+    /**
+     * Remove the call from running calls and notify all callers waiting for its result.
+     *
+     * @param key       Key identifying the call.
+     * @param isSuccess True if the call was successful.
+     */
+    private void complete(String key, boolean isSuccess) {
+        List<ServiceController.UICallback> waiting;
+        synchronized (this) {
+            waiting = inFlight.remove(key);
+        }
+        if (waiting != null) {
+            for (ServiceController.UICallback c : waiting) {
+                if (c != null) {
+                    c.finished(isSuccess);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get number of calls executed.
+     *
+     * @return Number of calls executed.
+     */
+    public synchronized long getExecuted() {
+        return executed;
+    }
+
+    /**
+     * Get number of calls that were attached to a running call instead of being executed.
+     *
+     * @return Number of calls saved.
+     */
+    public synchronized long getSaved() {
+        return saved;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "Single flight executed=%d saved=%d running=%d", executed, saved, inFlight.size());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Token provider giving up on requests not answered within a timeout. Each callback is called exactly once, either with
+ * the result of the wrapped provider or with a {@link TimeoutException}, whichever comes first.
+ */
+public class TimedTokenProvider implements TokenProvider {
+
+    private final TokenProvider provider;
+
+    private final long timeout;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param provider Provider issuing the tokens.
+     * @param timeout  Time in milliseconds after which a token request fails.
+     */
+    public TimedTokenProvider(TokenProvider provider, long timeout) {
+        this.provider = provider;
+        this.timeout = timeout;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "token-timeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void prefetch(String profileId) {
+        provider.prefetch(profileId);
+    }
+
+    @Override
+    public void requestToken(String profileId, String nonce, final Callback callback) {
+
+        final AtomicBoolean answered = new AtomicBoolean();
+
+        final ScheduledFuture<?> expiry = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (answered.compareAndSet(false, true)) {
+                    callback.onError(new TimeoutException("No token within " + timeout + " ms"));
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        provider.requestToken(profileId, nonce, new Callback() {
+            @Override
+            public void onToken(String token) {
+                if (answered.compareAndSet(false, true)) {
+                    expiry.cancel(false);
+                    callback.onToken(token);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (answered.compareAndSet(false, true)) {
+                    expiry.cancel(false);
+                    callback.onError(t);
+                }
+            }
+        });
+    }
+}
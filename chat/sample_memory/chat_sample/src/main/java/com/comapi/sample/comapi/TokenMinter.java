@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+/**
+ * Mints HS256 JWT tokens answering authentication challenges. The signing key and the header and constant claims are
+ * prepared once, so each challenge only adds the nonce, subject and timestamps before signing.
+ */
+public class TokenMinter {
+
+    /**
+     * Validity period of minted tokens.
+     */
+    private static final long TOKEN_VALIDITY = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * Key signing tokens, derived from the shared secret once.
+     */
+    private final SecretKeySpec signingKey;
+
+    /**
+     * Header parameters shared by every token.
+     */
+    private final Map<String, Object> headerTemplate;
+
+    /**
+     * Claims shared by every token, as defined in ApiSpace configuration.
+     */
+    private final Map<String, Object> claimsTemplate;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param secret   Raw bytes of the secret shared with the ApiSpace.
+     * @param audience Audience claim as defined in ApiSpace configuration.
+     * @param issuer   Issuer claim as defined in ApiSpace configuration.
+     */
+    public TokenMinter(byte[] secret, String audience, String issuer) {
+
+        signingKey = new SecretKeySpec(secret, SignatureAlgorithm.HS256.getJcaName());
+
+        Map<String, Object> header = new HashMap<>();
+        header.put("typ", "JWT");
+        headerTemplate = Collections.unmodifiableMap(header);
+
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("aud", audience);
+        claims.put("iss", issuer);
+        claimsTemplate = Collections.unmodifiableMap(claims);
+    }
+
+    /**
+     * Mint a token for a profile answering an authentication challenge.
+     *
+     * @param profileId Profile id to put in the subject claim.
+     * @param nonce     Nonce from the authentication challenge.
+     * @return Signed JWT token.
+     */
+    public String mint(String profileId, String nonce) {
+
+        // The builder keeps the claims map it is given, so each token gets its own copy of the template.
+        Map<String, Object> claims = new HashMap<>(claimsTemplate);
+        long now = System.currentTimeMillis();
+        claims.put("nonce", nonce);
+        claims.put("sub", profileId);
+        claims.put("iat", now);
+        claims.put("exp", now + TOKEN_VALIDITY);
+
+        return Jwts.builder()
+                .setHeaderParams(headerTemplate)
+                .setClaims(claims)
+                .signWith(SignatureAlgorithm.HS256, signingKey)
+                .compact();
+    }
+}
@@ -6,10 +6,13 @@ import com.comapi.chat.model.ChatConversation;
 import com.comapi.chat.model.ChatConversationBase;
 import com.comapi.chat.model.ChatMessage;
 import com.comapi.chat.model.ChatMessageStatus;
+import com.comapi.sample.comapi.OutboundMessagePipeline;
+import com.comapi.sample.ui.model.MessagePart;
 import com.comapi.sample.ui.model.UIMessageItem;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
@@ -37,12 +40,91 @@ public class ChatStoreData {
      */
     private final Map<String /*conversationId*/, Map<String /*messageId*/, UIMessageItem>> messageData;
 
+    /**
+     * Messages queued locally and not yet confirmed by the server by conversation id and local message id.
+     */
+    private final Map<String /*conversationId*/, Map<String /*localId*/, UIMessageItem>> pendingData;
+
+    /**
+     * Ids of messages sent from this app instance by local message id. Used to ignore a message sent twice, e.g. replayed from the outbox after the app was killed before the server response arrived.
+     */
+    private final Map<String /*localId*/, String /*messageId*/> echoedMessageIds;
+
+    /**
+     * Listener for messages sent from this app instance coming back from the server.
+     */
+    private EchoListener echoListener;
+
+    /**
+     * Listener for messages sent from this app instance coming back from the server.
+     */
+    public interface EchoListener {
+
+        /**
+         * Message with a local id in its metadata was saved in the store.
+         *
+         * @param conversationId Conversation unique id.
+         * @param localId        Local message id.
+         */
+        void onEcho(String conversationId, String localId);
+    }
+
+    /**
+     * Listener for the store being cleared.
+     */
+    private ClearListener clearListener;
+
+    /**
+     * Listener for the store being cleared, e.g. when another user logs in.
+     */
+    public interface ClearListener {
+
+        /**
+         * All conversations and messages have been removed from the store.
+         */
+        void onCleared();
+    }
+
+    /**
+     * Store for data of large message parts, null if all parts are kept in memory.
+     */
+    private PartStore partStore;
+
     /**
      * Recommended constructor.
      */
     public ChatStoreData() {
         conversationData = new HashMap<>();
         messageData = new HashMap<>();
+        pendingData = new HashMap<>();
+        echoedMessageIds = new HashMap<>();
+    }
+
+    /**
+     * Sets store for data of large message parts.
+     *
+     * @param partStore Store for data of large message parts.
+     */
+    public void setPartStore(PartStore partStore) {
+        this.partStore = partStore;
+    }
+
+    /**
+     * Sets listener for messages sent from this app instance coming back from the server.
+     *
+     * @param echoListener Listener for messages sent from this app instance coming back from the server.
+     */
+    public void setEchoListener(EchoListener echoListener) {
+        this.echoListener = echoListener;
+    }
+
+    /**
+     * Sets listener for the store being cleared.
+     *
+     * @param clearListener Listener for the store being cleared.
+     */
+    public void setClearListener(ClearListener clearListener) {
+        this.clearListener = clearListener;
     }
 
     /**
@@ -122,6 +204,16 @@ public class ChatStoreData {
      */
     public void upsert(ChatMessage message) {
 
+        // ignore second copy of a message sent from this app instance
+        Object localId = message.getMetadata() != null ? message.getMetadata().get(OutboundMessagePipeline.METADATA_LOCAL_ID) : null;
+        if (localId != null) {
+            String echoedMessageId = echoedMessageIds.get(localId.toString());
+            if (echoedMessageId != null && !echoedMessageId.equals(message.getMessageId())) {
+                return;
+            }
+            echoedMessageIds.put(localId.toString(), message.getMessageId());
+        }
+
         // create map entry for a conversation if doesn't exist
         Map<String, UIMessageItem> perConversation = messageData.get(message.getConversationId());
         if (perConversation == null) {
@@ -137,7 +229,50 @@ public class ChatStoreData {
         }
 
         // Update app message data with received Comapi Chat message
-        perMessage.setMessage(message, message.getFromWhom().getId().equals(userProfileId));
+        perMessage.setMessage(message, message.getFromWhom().getId().equals(userProfileId), MessagePart.adapt(message.getMessageId(), message.getParts(), partStore));
+
+        // Replace local copy of a message sent from this app instance
+        if (localId != null) {
+            deletePending(message.getConversationId(), localId.toString());
+            if (echoListener != null) {
+                echoListener.onEcho(message.getConversationId(), localId.toString());
+            }
+        }
+    }
+
+    /**
+     * Insert or update message queued locally and not yet confirmed by the server.
+     *
+     * @param message Queued message.
+     */
+    public synchronized void upsertPending(OutboundMessagePipeline.PendingMessage message) {
+
+        Map<String, UIMessageItem> perConversation = pendingData.get(message.getConversationId());
+        if (perConversation == null) {
+            perConversation = new LinkedHashMap<>();
+            pendingData.put(message.getConversationId(), perConversation);
+        }
+
+        UIMessageItem perMessage = perConversation.get(message.getLocalId());
+        if (perMessage == null) {
+            perMessage = new UIMessageItem();
+            perConversation.put(message.getLocalId(), perMessage);
+        }
+
+        perMessage.setPendingMessage(message.getSequence(), message.getFrom(), message.getBody(), message.getQueuedOn(), message.getStatus().name());
+    }
+
+    /**
+     * Delete message queued locally.
+     *
+     * @param conversationId Conversation unique id.
+     * @param localId        Local message id.
+     */
+    public synchronized void deletePending(String conversationId, String localId) {
+        final Map<String, UIMessageItem> map = pendingData.get(conversationId);
+        if (map != null) {
+            map.remove(localId);
+        }
     }
 
     /**
@@ -167,9 +302,17 @@ public class ChatStoreData {
     /**
      * Clear all content in persistance store.
      */
-    public void clearDatabase() {
+    public synchronized void clearDatabase() {
         conversationData.clear();
         messageData.clear();
+        pendingData.clear();
+        echoedMessageIds.clear();
+        if (partStore != null) {
+            partStore.clear();
+        }
+        if (clearListener != null) {
+            clearListener.onCleared();
+        }
     }
 
     /**
@@ -178,7 +321,12 @@ public class ChatStoreData {
      * @param conversationId Conversation unique id.
      */
     public void deleteAllMessages(String conversationId) {
-        messageData.remove(conversationId);
+        Map<String, UIMessageItem> map = messageData.remove(conversationId);
+        if (map != null && partStore != null) {
+            for (String messageId : map.keySet()) {
+                partStore.delete(messageId);
+            }
+        }
     }
 
     /**
@@ -192,6 +340,9 @@ public class ChatStoreData {
         if (map != null) {
             map.remove(messageId);
         }
+        if (partStore != null) {
+            partStore.delete(messageId);
+        }
     }
 
     /**
@@ -207,10 +358,17 @@ public class ChatStoreData {
      * Get list of messages in conversation for ui. Messages will be sorted based on compareTo method implementation in UIMessageItem (according to sentEventId and sentOn values in Comapi ChatMessage)
      * The Class {@link ChatMessage} implements {@link ChatMessage#compareTo(ChatMessage)} method so sorted collection like TreeSet will order messages form oldest to the most recent.
      *
+     * Messages queued locally are placed after the confirmed ones.
+     *
      * @return List of sorted messages for ui.
      */
-    public TreeSet<UIMessageItem> getSortedMessages(String conversationId) {
+    public synchronized TreeSet<UIMessageItem> getSortedMessages(String conversationId) {
         Map<String, UIMessageItem> msgList = messageData.get(conversationId);
-        return new TreeSet<>(msgList != null ? msgList.values() : new TreeSet<UIMessageItem>());
+        TreeSet<UIMessageItem> sorted = new TreeSet<>(msgList != null ? msgList.values() : new TreeSet<UIMessageItem>());
+        Map<String, UIMessageItem> pendingList = pendingData.get(conversationId);
+        if (pendingList != null) {
+            sorted.addAll(pendingList.values());
+        }
+        return sorted;
     }
 }
\ No newline at end of file
@@ -158,8 +158,10 @@ public class ChatStoreImplementation extends ChatStore {
 
     @Override
     public void endTransaction() {
-        // Executes pending operations on underlying data.
-        this.transaction.execute(data);
+        // Executes pending operations on underlying data. Locked because the outbound message pipeline modifies local messages from other threads.
+        synchronized (data) {
+            this.transaction.execute(data);
+        }
         // Informs conversation screen that the data may have changed.
         if (conversationListener != null) {
             conversationListener.setData(data.getConversationsUI());
@@ -43,19 +43,22 @@ import android.widget.TextView;
 import com.comapi.chat.model.ChatConversation;
 import com.comapi.sample.Const;
 import com.comapi.sample.R;
+import com.comapi.sample.StartupTrace;
 import com.comapi.sample.comapi.MainController;
 import com.comapi.sample.comapi.ServiceController;
 import com.comapi.sample.events.InitialisationEvent;
 import com.comapi.sample.events.LoginEvent;
 import com.comapi.sample.store.UIListener;
 import com.comapi.sample.ui.holders.ConversationViewHolder;
+import com.comapi.sample.ui.model.ConversationListModel;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Activity displaying all conversations in which registered user participates. Allows to send new message to a conversation.
@@ -75,9 +78,19 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
     private MainController mainController;
 
     /**
-     * Conversations data.
+     * Conversations ordered by last update, no duplicates.
      */
-    private ArrayList<ChatConversation> data;
+    private ConversationListModel<ChatConversation> conversations;
+
+    /**
+     * True if conversations were inserted, removed or moved since the list view was last refreshed.
+     */
+    private boolean structureChanged;
+
+    /**
+     * Conversations list view.
+     */
+    private ListView listView;
 
     /**
      * Adapter for conversations list view.
@@ -206,9 +219,36 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
      */
     private void initAdapter() {
 
-        data = new ArrayList<>();
+        conversations = new ConversationListModel<>(new ConversationListModel.Listener() {
+            @Override
+            public void onInserted(int position) {
+                structureChanged = true;
+            }
+
+            @Override
+            public void onRemoved(int position) {
+                structureChanged = true;
+            }
+
+            @Override
+            public void onMoved(int from, int to) {
+                structureChanged = true;
+            }
+
+            @Override
+            public void onChanged(int position) {
+                if (!structureChanged) {
+                    rebindRow(position);
+                }
+            }
 
-        adapter = new ArrayAdapter<ChatConversation>(this, 0, data) {
+            @Override
+            public void onCleared() {
+                structureChanged = true;
+            }
+        });
+
+        adapter = new ArrayAdapter<ChatConversation>(this, 0, conversations.getItems()) {
             @NonNull
             @Override
             public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
@@ -241,19 +281,31 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
         };
 
         // Bind adapter with list view
-        ListView listview = (ListView) findViewById(R.id.list_view_conversations);
-        listview.setAdapter(adapter);
+        listView = (ListView) findViewById(R.id.list_view_conversations);
+        listView.setAdapter(adapter);
 
         // Set action when list element will be clicked. Open chat for a given conversation.
-        listview.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                ChatConversation item = data.get(position);
+                ChatConversation item = conversations.getItems().get(position);
                 openChat(item.getConversationId(), item.getName());
             }
         });
     }
 
+    /**
+     * Bind data to a single row if it's visible, other rows are left untouched.
+     *
+     * @param position Position of the changed conversation.
+     */
+    private void rebindRow(int position) {
+        View row = listView.getChildAt(position - listView.getFirstVisiblePosition());
+        if (row != null) {
+            adapter.getView(position, row, listView);
+        }
+    }
+
     /**
      * Open Activity with list of messages in a given conversation.
      */
@@ -277,6 +329,9 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
          SDK finished initialising.
          */
 
+        // The app start is complete when the conversation list is drawn with the SDK ready
+        StartupTrace.finishOnNextDraw(findViewById(R.id.list_view_conversations), "conversation_list");
+
         // Get Controller for Comapi calls
         mainController = event.getController();
         // Get profile id for which Comapi SDK was authenticating session.
@@ -355,9 +410,7 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
             @Override
             public void run() {
                 if (conversations != null) {
-                    data.clear();
-                    data.addAll(conversations);
-                    adapter.notifyDataSetChanged();
+                    update(conversations);
                 }
                 // Hide progress bar
                 overlay.setVisibility(View.GONE);
@@ -365,6 +418,31 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
         });
     }
 
+    /**
+     * Apply changes in the conversations to the list. Unchanged conversations are skipped and the list view is refreshed at most once.
+     *
+     * @param update All conversations from the store.
+     */
+    private void update(Collection<ChatConversation> update) {
+        Set<String> ids = new HashSet<>(update.size());
+        for (ChatConversation conversation : update) {
+            ids.add(conversation.getConversationId());
+            Long updatedOn = conversation.getUpdatedOn();
+            long activity = updatedOn != null ? updatedOn : 0;
+            ChatConversation current = conversations.get(conversation.getConversationId());
+            if (current != null && TextUtils.equals(current.getETag(), conversation.getETag()) && TextUtils.equals(current.getName(), conversation.getName())) {
+                conversations.touch(conversation.getConversationId(), activity);
+            } else {
+                conversations.put(conversation.getConversationId(), conversation, activity);
+            }
+        }
+        conversations.retain(ids);
+        if (structureChanged) {
+            structureChanged = false;
+            adapter.notifyDataSetChanged();
+        }
+    }
+
     @Override
     public String getMetadata() {
         return null;
@@ -39,12 +39,14 @@ import com.comapi.sample.R;
 import com.comapi.sample.comapi.MainController;
 import com.comapi.sample.events.InitialisationEvent;
 import com.comapi.sample.ui.holders.ParticipantViewHolder;
+import com.comapi.sample.ui.model.ParticipantList;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * Activity displaying participants for a conversation. Allows to add and remove participants.
@@ -56,7 +58,7 @@ public class ManageParticipantsActivity extends AppCompatActivity {
     /**
      * Participants ids passed to adapter.
      */
-    private ArrayList<String> data;
+    private ParticipantList data;
 
     /**
      * Adapter for participants list view
@@ -87,6 +89,13 @@ public class ManageParticipantsActivity extends AppCompatActivity {
 
     // Interface for listener inforing UI that a participant of a conversation was added or removed
     public interface UiParticipantsListener {
+        /**
+         * Full list of conversation participants
+         *
+         * @param profileIds Profile ids of the conversation participants
+         */
+        void set(Collection<String> profileIds);
+
         /**
          * New participant added to the conversation
          *
@@ -152,10 +161,10 @@ public class ManageParticipantsActivity extends AppCompatActivity {
         addButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                String participantId = participantEditText.getText().toString();
-                if (!TextUtils.isEmpty(participantId)) {
-                    // Send request to add participant to this conversation.
-                    mainController.getComapiService().getService().addParticipant(ManageParticipantsActivity.this.getApplicationContext(), conversationId, participantId);
+                String participantIds = participantEditText.getText().toString().trim();
+                if (!TextUtils.isEmpty(participantIds)) {
+                    // Send request to add participants to this conversation. Many profile ids can be separated with commas or spaces.
+                    mainController.getComapiService().getService().addParticipants(ManageParticipantsActivity.this.getApplicationContext(), conversationId, Arrays.asList(participantIds.split("[,\\s]+")));
                     participantEditText.setText("");
                 }
             }
@@ -179,7 +188,7 @@ public class ManageParticipantsActivity extends AppCompatActivity {
         ListView listView = (ListView) findViewById(R.id.list_of_participants);
         listView.setEmptyView(findViewById(android.R.id.empty));
 
-        data = new ArrayList<>();
+        data = new ParticipantList();
         //adapter = new ArrayAdapter<>(this,  android.R.layout.simple_list_item_1, data);
         adapter = new ArrayAdapter<String>(this, 0, data) {
             @NonNull
@@ -241,14 +250,27 @@ public class ManageParticipantsActivity extends AppCompatActivity {
             if (participantListener == null) {
                 participantListener = new UiParticipantsListener() {
 
+                    @Override
+                    public void set(final Collection<String> profileIds) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                data.setAll(profileIds);
+                                adapter.notifyDataSetChanged();
+                                // Hide progress bar
+                                overlay.setVisibility(View.GONE);
+                            }
+                        });
+                    }
 
                     @Override
                     public void add(final String profileId) {
                         runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
-                                data.add(profileId);
-                                adapter.notifyDataSetChanged();
+                                if (data.addParticipant(profileId)) {
+                                    adapter.notifyDataSetChanged();
+                                }
                                 // Hide progress bar
                                 overlay.setVisibility(View.GONE);
                             }
@@ -260,8 +282,9 @@ public class ManageParticipantsActivity extends AppCompatActivity {
                         runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
-                                data.remove(profileId);
-                                adapter.notifyDataSetChanged();
+                                if (data.removeParticipant(profileId)) {
+                                    adapter.notifyDataSetChanged();
+                                }
                                 // Hide progress bar
                                 overlay.setVisibility(View.GONE);
                             }
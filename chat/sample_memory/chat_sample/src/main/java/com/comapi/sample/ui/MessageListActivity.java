@@ -29,19 +29,23 @@ import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import com.comapi.sample.Const;
 import com.comapi.sample.R;
 import com.comapi.sample.comapi.MainController;
+import com.comapi.sample.comapi.PagePrefetcher;
 import com.comapi.sample.comapi.ServiceController;
 import com.comapi.sample.events.InitialisationEvent;
 import com.comapi.sample.store.UIListener;
@@ -179,6 +183,14 @@ public class MessageListActivity extends AppCompatActivity implements UIListener
             mainController.removeMessageListener();
 
             mainController.getComapiService().removePagingCallback();
+
+            // Forget paging position for this conversation, the list will be rebuilt when the screen is back
+            PagePrefetcher prefetcher = mainController.getComapiService().getPagePrefetcher();
+            prefetcher.clear(conversationId);
+            Log.d(Const.TAG, prefetcher.toString());
+            Log.d(Const.TAG, mainController.getComapiService().getOutboundPipeline().toString());
+            Log.d(Const.TAG, mainController.getComapiService().getRequestScheduler().toString());
+            mainController.getComapiService().getApiMetrics().export();
         }
     }
 
@@ -322,6 +334,22 @@ public class MessageListActivity extends AppCompatActivity implements UIListener
         ListView listview = (ListView) findViewById(R.id.list_view_messages);
         listview.setAdapter(adapter);
 
+        // Request older messages before the user scrolls to the oldest one.
+        listview.setOnScrollListener(new AbsListView.OnScrollListener() {
+
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // not used
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (mainController != null) {
+                    mainController.getComapiService().getPagePrefetcher().onVisibleRangeChanged(conversationId, firstVisibleItem, totalItemCount);
+                }
+            }
+        });
+
     }
 
     @Override
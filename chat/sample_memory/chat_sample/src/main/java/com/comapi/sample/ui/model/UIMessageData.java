@@ -2,9 +2,13 @@ package com.comapi.sample.ui.model;
 
 import com.comapi.chat.model.ChatMessage;
 import com.comapi.chat.model.ChatMessageStatus;
+import com.comapi.sample.store.PartStore;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
 
@@ -22,10 +26,15 @@ class UIMessageData {
     private String sender;
 
     /**
-     * Message body
+     * Message preview, at most {@link PartStore#PREVIEW_LENGTH} characters
      */
     private String body;
 
+    /**
+     * Message parts, large parts are kept in files
+     */
+    private List<MessagePart> parts = Collections.emptyList();
+
     /**
      * Message sent time
      */
@@ -46,24 +55,43 @@ class UIMessageData {
      *
      * @param message     Message saved in ChatStoreData
      * @param isMyMessage True if the message is sent by the user registered in this app instance
+     * @param parts       Message parts adapted with {@link MessagePart#adapt}
      */
-    public void setMessage(ChatMessage message, boolean isMyMessage) {
+    public void setMessage(ChatMessage message, boolean isMyMessage, List<MessagePart> parts) {
         sender = message.getFromWhom().getId();
-        body = message.getParts().get(0).getData();
+        body = PartStore.preview(message.getParts());
+        this.parts = parts;
         time = getDateString(message.getSentOn());
         this.isMyMessage = isMyMessage;
-        buildStatusDescription(message);
+        buildStatusDescription(message.getStatusUpdates());
+    }
+
+    /**
+     * Sets the ListView row data for a message queued locally and not yet confirmed by the server.
+     *
+     * @param sender            Profile id of the user registered in this app instance
+     * @param body              Message body
+     * @param queuedOn          Unix UTC time when the message was queued
+     * @param statusDescription Local message status
+     */
+    void setPendingMessage(String sender, String body, long queuedOn, String statusDescription) {
+        this.sender = sender;
+        this.body = body;
+        this.parts = Collections.emptyList();
+        this.time = getDateString(queuedOn);
+        this.isMyMessage = true;
+        this.statusDescription = statusDescription;
     }
 
     /**
      * Build a string from a collection of status updates.
      *
-     * @param message Message saved in ChatStoreData
+     * @param statusUpdates Status updates of a message saved in ChatStoreData
      */
-    void buildStatusDescription(ChatMessage message) {
+    void buildStatusDescription(Collection<ChatMessageStatus> statusUpdates) {
 
         StringBuilder sb = new StringBuilder();
-        for (ChatMessageStatus s : message.getStatusUpdates()) {
+        for (ChatMessageStatus s : statusUpdates) {
             sb.append(s.getProfileId());
             sb.append(" : ");
             sb.append(s.getMessageStatus());
@@ -82,14 +110,23 @@ class UIMessageData {
     }
 
     /**
-     * Get message body.
+     * Get message preview for a list row.
      *
-     * @return message body.
+     * @return message preview.
      */
     public String getBody() {
         return body;
     }
 
+    /**
+     * Get message parts. Data of large parts is read from files when requested.
+     *
+     * @return message parts.
+     */
+    public List<MessagePart> getParts() {
+        return parts;
+    }
+
     /**
      * Get time when message was sent.
      *
@@ -25,6 +25,9 @@ import android.support.annotation.NonNull;
 import com.comapi.chat.model.ChatMessage;
 import com.comapi.chat.model.ChatMessageStatus;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Comparable message object for the UI.
  *
@@ -32,22 +35,93 @@ import com.comapi.chat.model.ChatMessageStatus;
  */
 public class UIMessageItem extends UIMessageData implements Comparable<UIMessageItem> {
 
-    private ChatMessage message;
+    /**
+     * Message id, null if the message is queued locally and not yet confirmed by the server. The SDK message object isn't kept to avoid
+     * holding the data of all its parts.
+     */
+    private String messageId;
+
+    /**
+     * Conversation event id of the message, used for ordering.
+     */
+    private Long sentEventId;
+
+    /**
+     * Unix UTC time when the message was sent, used for ordering.
+     */
+    private Long sentOn;
+
+    /**
+     * Status updates of the message.
+     */
+    private final List<ChatMessageStatus> statusUpdates = new ArrayList<>();
+
+    /**
+     * Order in which a local message was queued. Used only when the message has not been confirmed by the server yet.
+     */
+    private long pendingSequence;
 
     /**
      * Sets message data for the UI
      *
      * @param message     Message saved in ChatStoreData
      * @param isMyMessage True if the message is sent by the user registered in this app instance
+     * @param parts       Message parts adapted with {@link MessagePart#adapt}
      */
-    public void setMessage(@NonNull ChatMessage message, boolean isMyMessage) {
-        super.setMessage(message, isMyMessage);
-        this.message = message;
+    public void setMessage(@NonNull ChatMessage message, boolean isMyMessage, List<MessagePart> parts) {
+        super.setMessage(message, isMyMessage, parts);
+        this.messageId = message.getMessageId();
+        this.sentEventId = message.getSentEventId();
+        this.sentOn = message.getSentOn();
+        this.statusUpdates.clear();
+        if (message.getStatusUpdates() != null) {
+            this.statusUpdates.addAll(message.getStatusUpdates());
+        }
+    }
+
+    /**
+     * Sets data for a message queued locally and not yet confirmed by the server.
+     *
+     * @param sequence          Order in which the message was queued
+     * @param sender            Profile id of the user registered in this app instance
+     * @param body              Message body
+     * @param queuedOn          Unix UTC time when the message was queued
+     * @param statusDescription Local message status
+     */
+    public void setPendingMessage(long sequence, String sender, String body, long queuedOn, String statusDescription) {
+        super.setPendingMessage(sender, body, queuedOn, statusDescription);
+        this.messageId = null;
+        this.statusUpdates.clear();
+        this.pendingSequence = sequence;
+    }
+
+    /**
+     * Check if the message is queued locally and not yet confirmed by the server.
+     *
+     * @return True if the message is queued locally.
+     */
+    public boolean isPending() {
+        return messageId == null;
     }
 
     @Override
     public int compareTo(@NonNull UIMessageItem UIMessageItem) {
-        return UIMessageItem.message.compareTo(message);
+        if (messageId != null && UIMessageItem.messageId != null) {
+            // Oldest first, by conversation event id, then by sent time
+            int result = compare(sentEventId, UIMessageItem.sentEventId);
+            if (result == 0) {
+                result = compare(sentOn, UIMessageItem.sentOn);
+            }
+            return result != 0 ? result : messageId.compareTo(UIMessageItem.messageId);
+        }
+        // Local messages are displayed after all confirmed messages in the order they were queued
+        if (messageId != null) {
+            return -1;
+        }
+        if (UIMessageItem.messageId != null) {
+            return 1;
+        }
+        return pendingSequence < UIMessageItem.pendingSequence ? -1 : (pendingSequence == UIMessageItem.pendingSequence ? 0 : 1);
     }
 
     /**
@@ -56,7 +130,24 @@ public class UIMessageItem extends UIMessageData implements Comparable<UIMessage
      * @param status
      */
     public void updateStatus(ChatMessageStatus status) {
-        message.addStatusUpdate(status);
-        super.buildStatusDescription(message);
+        if (messageId == null) {
+            return;
+        }
+        statusUpdates.add(status);
+        super.buildStatusDescription(statusUpdates);
+    }
+
+    /**
+     * Compare nullable ordering keys, missing keys go first.
+     *
+     * @param lhs First key.
+     * @param rhs Second key.
+     * @return Comparison result.
+     */
+    private static int compare(Long lhs, Long rhs) {
+        if (lhs == null || rhs == null) {
+            return lhs == null ? (rhs == null ? 0 : -1) : 1;
+        }
+        return lhs.compareTo(rhs);
     }
 }
\ No newline at end of file
@@ -0,0 +1,250 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link OutboundMessagePipeline} with a fake scheduler, sends are finished by the test and delayed tasks run when the test moves the time forward.
+ */
+public class OutboundMessagePipelineTest {
+
+    private FakeScheduler scheduler;
+
+    private OutboundMessagePipeline pipeline;
+
+    private List<String> sent;
+
+    private List<ServiceController.UICallback> sending;
+
+    private List<String> removed;
+
+    /**
+     * Scheduler keeping delayed tasks until the test moves the time forward.
+     */
+    private static class FakeScheduler extends ScheduledThreadPoolExecutor {
+
+        private final List<Task> tasks = new ArrayList<>();
+
+        private long now;
+
+        private static class Task {
+
+            final long runAt;
+            final Runnable command;
+
+            Task(long runAt, Runnable command) {
+                this.runAt = runAt;
+                this.command = command;
+            }
+        }
+
+        FakeScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(new Task(now + unit.toMillis(delay), command));
+            return null;
+        }
+
+        void advance(long millis) {
+            now += millis;
+            List<Task> due = new ArrayList<>();
+            Iterator<Task> iterator = tasks.iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (task.runAt <= now) {
+                    due.add(task);
+                    iterator.remove();
+                }
+            }
+            for (Task task : due) {
+                task.command.run();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        sent = new ArrayList<>();
+        sending = new ArrayList<>();
+        removed = new ArrayList<>();
+        pipeline = create(2, 3);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void messagesInConversation_areSentOneByOneInOrder() {
+
+        pipeline.enqueue("a1", "A", "first", "me");
+        pipeline.enqueue("a2", "A", "second", "me");
+        pipeline.enqueue("a3", "A", "third", "me");
+
+        assertEquals(Arrays.asList("a1"), sent);
+        assertEquals(3, pipeline.getQueueDepth());
+
+        finish(0, true);
+        assertEquals(Arrays.asList("a1", "a2"), sent);
+
+        finish(1, true);
+        assertEquals(Arrays.asList("a1", "a2", "a3"), sent);
+    }
+
+    @Test
+    public void conversations_areSentInParallel_upToInFlightLimit() {
+
+        pipeline.enqueue("a1", "A", "a", "me");
+        pipeline.enqueue("b1", "B", "b", "me");
+        pipeline.enqueue("c1", "C", "c", "me");
+
+        assertEquals(Arrays.asList("a1", "b1"), sent);
+        assertEquals(2, pipeline.getInFlight());
+
+        finish(0, true);
+        assertEquals(Arrays.asList("a1", "b1", "c1"), sent);
+        assertEquals(2, pipeline.getInFlight());
+    }
+
+    @Test
+    public void failedSend_isRetriedWithBackoff_beforeNextMessage() {
+
+        pipeline.enqueue("a1", "A", "first", "me");
+        pipeline.enqueue("a2", "A", "second", "me");
+
+        finish(0, false);
+        assertEquals(0, pipeline.getInFlight());
+
+        // first retry after the base delay
+        scheduler.advance(999);
+        assertEquals(Arrays.asList("a1"), sent);
+        scheduler.advance(1);
+        assertEquals(Arrays.asList("a1", "a1"), sent);
+
+        // delay doubles with the next attempt
+        finish(1, false);
+        scheduler.advance(1999);
+        assertEquals(Arrays.asList("a1", "a1"), sent);
+        scheduler.advance(1);
+        assertEquals(Arrays.asList("a1", "a1", "a1"), sent);
+
+        finish(2, true);
+        assertEquals(Arrays.asList("a1", "a1", "a1", "a2"), sent);
+    }
+
+    @Test
+    public void retryingConversation_doesNotBlockOtherConversations() {
+
+        pipeline = create(1, 3);
+        pipeline.enqueue("a1", "A", "a", "me");
+        pipeline.enqueue("b1", "B", "b", "me");
+
+        finish(0, false);
+
+        assertEquals(Arrays.asList("a1", "b1"), sent);
+    }
+
+    @Test
+    public void messageOutOfAttempts_isFailedAndRemovedAfterTimeout() {
+
+        OutboundMessagePipeline.PendingMessage message = pipeline.enqueue("a1", "A", "first", "me");
+        pipeline.enqueue("a2", "A", "second", "me");
+
+        finish(0, false);
+        scheduler.advance(1000);
+        finish(1, false);
+        scheduler.advance(2000);
+        finish(2, false);
+
+        assertEquals(OutboundMessagePipeline.Status.failed, message.getStatus());
+        assertEquals(Arrays.asList("a1", "a1", "a1", "a2"), sent);
+        assertTrue(removed.isEmpty());
+
+        scheduler.advance(60000);
+        assertEquals(Arrays.asList("a1"), removed);
+    }
+
+    @Test
+    public void sentMessage_isRemovedOnEcho_orAfterTimeout() {
+
+        OutboundMessagePipeline.PendingMessage echoed = pipeline.enqueue("a1", "A", "a", "me");
+        OutboundMessagePipeline.PendingMessage lost = pipeline.enqueue("b1", "B", "b", "me");
+        finish(0, true);
+        finish(1, true);
+        assertEquals(OutboundMessagePipeline.Status.sent, echoed.getStatus());
+
+        pipeline.onEcho("a1");
+        assertTrue(echoed.isEchoed());
+        assertEquals(Arrays.asList("a1"), removed);
+
+        scheduler.advance(60000);
+        assertEquals(Arrays.asList("a1", "b1"), removed);
+        assertTrue(!lost.isEchoed());
+    }
+
+    private OutboundMessagePipeline create(int maxInFlight, int maxAttempts) {
+        OutboundMessagePipeline p = new OutboundMessagePipeline(new OutboundMessagePipeline.Sender() {
+            @Override
+            public void send(OutboundMessagePipeline.PendingMessage message, ServiceController.UICallback callback) {
+                sent.add(message.getLocalId());
+                sending.add(callback);
+            }
+        }, scheduler, maxInFlight, maxAttempts, 1000);
+        p.setListener(new OutboundMessagePipeline.Listener() {
+            @Override
+            public void onQueued(OutboundMessagePipeline.PendingMessage message) {
+            }
+
+            @Override
+            public void onStatusChanged(OutboundMessagePipeline.PendingMessage message) {
+            }
+
+            @Override
+            public void onRemoved(OutboundMessagePipeline.PendingMessage message) {
+                removed.add(message.getLocalId());
+            }
+        });
+        return p;
+    }
+
+    private void finish(int send, boolean isSuccess) {
+        sending.get(send).finished(isSuccess);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link PagePrefetcher} with a fake page source completing requests on demand.
+ */
+public class PagePrefetcherTest {
+
+    private static final String CONVERSATION = "c1";
+
+    private FakeSource source;
+
+    private PagePrefetcher prefetcher;
+
+    /**
+     * Fake page source keeping requests open until the test completes them.
+     */
+    private static class FakeSource implements PagePrefetcher.PageSource {
+
+        final List<String> requested = new ArrayList<>();
+        final List<ServiceController.UICallback> pending = new ArrayList<>();
+
+        @Override
+        public void loadPreviousPage(String conversationId, ServiceController.UICallback callback) {
+            requested.add(conversationId);
+            pending.add(callback);
+        }
+
+        void complete(boolean isSuccess) {
+            pending.remove(0).finished(isSuccess);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        source = new FakeSource();
+        prefetcher = new PagePrefetcher(source, 10, 1);
+    }
+
+    @Test
+    public void pageIsRequested_onlyWithinLookAhead() {
+
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 30, 50);
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 11, 50);
+        assertEquals(0, source.requested.size());
+
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 10, 50);
+        assertEquals(1, source.requested.size());
+
+        // page arrives before the user reaches the oldest loaded message
+        source.complete(true);
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 30, 70);
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 0, 70);
+        assertEquals(1, prefetcher.getHits());
+        assertEquals(1, prefetcher.getMisses());
+        assertEquals(2, source.requested.size());
+    }
+
+    @Test
+    public void scrollingWhileInFlight_requestsPageOnce() {
+
+        for (int first = 10; first > 0; first--) {
+            prefetcher.onVisibleRangeChanged(CONVERSATION, first, 50);
+        }
+        // other conversation waits for the in-flight cap
+        prefetcher.onVisibleRangeChanged("c2", 5, 50);
+        assertEquals(1, source.requested.size());
+        assertEquals(1, prefetcher.getInFlight());
+
+        // reaching the oldest message while the page loads counts as a miss and doesn't issue another request
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 0, 50);
+        assertEquals(1, source.requested.size());
+        assertEquals(1, prefetcher.getMisses());
+
+        source.complete(true);
+        assertEquals(0, prefetcher.getInFlight());
+        assertEquals(0, prefetcher.getHits());
+    }
+
+    @Test
+    public void endOfHistory_stopsRequests() {
+
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 5, 20);
+        // no older messages, the list doesn't grow
+        source.complete(true);
+
+        for (int first = 5; first >= 0; first--) {
+            prefetcher.onVisibleRangeChanged(CONVERSATION, first, 20);
+        }
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 0, 20);
+
+        assertEquals(1, source.requested.size());
+        assertEquals(1, prefetcher.getIssued());
+    }
+
+    @Test
+    public void failedPage_isRequestedAgain() {
+
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 5, 20);
+        source.complete(false);
+        assertEquals(1, prefetcher.getFailures());
+
+        prefetcher.onVisibleRangeChanged(CONVERSATION, 4, 20);
+        assertEquals(2, source.requested.size());
+    }
+}
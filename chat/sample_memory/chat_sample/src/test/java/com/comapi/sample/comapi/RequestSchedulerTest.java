@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link RequestScheduler} with a fake clock, queue is served by calling {@link RequestScheduler#drain()}.
+ */
+public class RequestSchedulerTest {
+
+    private FakeClock clock;
+
+    private RequestScheduler scheduler;
+
+    private List<String> executed;
+
+    /**
+     * Clock moved forward by the test.
+     */
+    private static class FakeClock implements RequestScheduler.Clock {
+
+        long now = 1000;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        executed = new ArrayList<>();
+        scheduler = new RequestScheduler(clock, null, 4, 2)
+                .setBudget(RequestScheduler.Priority.SEND, 4, 2)
+                .setBudget(RequestScheduler.Priority.PAGING, 2, 1)
+                .setBudget(RequestScheduler.Priority.PROFILE, 4, 2);
+    }
+
+    @Test
+    public void burst_isLimitedByGlobalCapacity() {
+
+        for (int i = 0; i < 6; i++) {
+            submit(RequestScheduler.Priority.SEND, "send" + i);
+        }
+
+        assertEquals(Arrays.asList("send0", "send1", "send2", "send3"), executed);
+        assertEquals(2, scheduler.getQueueSize(RequestScheduler.Priority.SEND));
+    }
+
+    @Test
+    public void burst_isLimitedByPriorityBudget() {
+
+        for (int i = 0; i < 3; i++) {
+            submit(RequestScheduler.Priority.PAGING, "page" + i);
+        }
+
+        assertEquals(Arrays.asList("page0", "page1"), executed);
+        assertEquals(1, scheduler.getQueueSize(RequestScheduler.Priority.PAGING));
+    }
+
+    @Test
+    public void queuedRequest_runsWhenTokenIsRefilled() {
+
+        for (int i = 0; i < 5; i++) {
+            submit(RequestScheduler.Priority.SEND, "send" + i);
+        }
+        assertEquals(4, executed.size());
+
+        // 2 tokens per second, a token is back after 500ms
+        clock.now += 499;
+        scheduler.drain();
+        assertEquals(4, executed.size());
+
+        clock.now += 1;
+        scheduler.drain();
+        assertEquals(5, executed.size());
+        assertEquals(0, scheduler.getQueueSize(RequestScheduler.Priority.SEND));
+    }
+
+    @Test
+    public void refill_isCappedAtCapacity() {
+
+        for (int i = 0; i < 4; i++) {
+            submit(RequestScheduler.Priority.SEND, "send" + i);
+        }
+
+        clock.now += 60000;
+        for (int i = 4; i < 10; i++) {
+            submit(RequestScheduler.Priority.SEND, "send" + i);
+        }
+
+        assertEquals(8, executed.size());
+        assertEquals(2, scheduler.getQueueSize(RequestScheduler.Priority.SEND));
+    }
+
+    @Test
+    public void queuedRequests_runInPriorityOrder() {
+
+        for (int i = 0; i < 4; i++) {
+            submit(RequestScheduler.Priority.PROFILE, "fill" + i);
+        }
+        submit(RequestScheduler.Priority.PROFILE, "profile");
+        submit(RequestScheduler.Priority.PAGING, "page");
+        submit(RequestScheduler.Priority.SEND, "send");
+        assertEquals(Arrays.asList("send", "page", "profile"), scheduler.getQueuedOperations());
+
+        // one global token at a time
+        for (int i = 0; i < 3; i++) {
+            clock.now += 500;
+            scheduler.drain();
+        }
+
+        assertEquals(Arrays.asList("send", "page", "profile"), executed.subList(4, 7));
+    }
+
+    @Test
+    public void lowerPriority_doesNotTakeGlobalTokens_whileHigherPriorityWaitsForBudget() {
+
+        scheduler.setBudget(RequestScheduler.Priority.SEND, 1, 1);
+
+        submit(RequestScheduler.Priority.SEND, "send0");
+        submit(RequestScheduler.Priority.SEND, "send1");
+        submit(RequestScheduler.Priority.PROFILE, "profile0");
+        submit(RequestScheduler.Priority.PROFILE, "profile1");
+
+        // global bucket still has tokens but the queued send must go first
+        assertEquals(Arrays.asList("send0"), executed);
+        assertEquals(Arrays.asList("send1", "profile0", "profile1"), scheduler.getQueuedOperations());
+
+        clock.now += 1000;
+        scheduler.drain();
+
+        assertEquals(Arrays.asList("send0", "send1", "profile0", "profile1"), executed);
+    }
+
+    private void submit(RequestScheduler.Priority priority, final String operation) {
+        scheduler.submit(priority, operation, new Runnable() {
+            @Override
+            public void run() {
+                executed.add(operation);
+            }
+        });
+    }
+}
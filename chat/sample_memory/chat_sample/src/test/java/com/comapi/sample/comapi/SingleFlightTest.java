@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SingleFlight}, calls are finished by the test through the callback they were given.
+ */
+public class SingleFlightTest {
+
+    private SingleFlight singleFlight;
+
+    private List<String> executed;
+
+    private List<ServiceController.UICallback> running;
+
+    /**
+     * Callback recording the results it was notified with.
+     */
+    private static class Result implements ServiceController.UICallback {
+
+        final List<Boolean> results = new ArrayList<>();
+
+        @Override
+        public void finished(boolean isSuccess) {
+            results.add(isSuccess);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        singleFlight = new SingleFlight();
+        executed = new ArrayList<>();
+        running = new ArrayList<>();
+    }
+
+    @Test
+    public void concurrentCalls_shareResult() {
+
+        Result first = new Result();
+        Result second = new Result();
+        execute(SingleFlight.OPERATION_SYNCHRONISE, "first", first);
+        execute(SingleFlight.OPERATION_SYNCHRONISE, "second", second);
+
+        assertEquals(Arrays.asList("first"), executed);
+        assertTrue(first.results.isEmpty());
+        assertTrue(second.results.isEmpty());
+
+        running.get(0).finished(true);
+
+        assertEquals(Arrays.asList(true), first.results);
+        assertEquals(Arrays.asList(true), second.results);
+        assertEquals(1, singleFlight.getExecuted());
+        assertEquals(1, singleFlight.getSaved());
+    }
+
+    @Test
+    public void failedCall_isSharedWithAllCallers() {
+
+        Result first = new Result();
+        Result second = new Result();
+        execute(SingleFlight.OPERATION_SYNCHRONISE, "first", first);
+        execute(SingleFlight.OPERATION_SYNCHRONISE, "second", second);
+
+        running.get(0).finished(false);
+
+        assertEquals(Arrays.asList(false), first.results);
+        assertEquals(Arrays.asList(false), second.results);
+    }
+
+    @Test
+    public void differentKeys_areExecutedSeparately() {
+
+        execute(SingleFlight.key(SingleFlight.OPERATION_PREVIOUS_MESSAGES, "conversation1"), "page1", new Result());
+        execute(SingleFlight.key(SingleFlight.OPERATION_PREVIOUS_MESSAGES, "conversation2"), "page2", new Result());
+
+        assertEquals(Arrays.asList("page1", "page2"), executed);
+        assertEquals(2, singleFlight.getExecuted());
+        assertEquals(0, singleFlight.getSaved());
+    }
+
+    @Test
+    public void finishedCall_releasesKey() {
+
+        execute(SingleFlight.OPERATION_SYNCHRONISE, "first", new Result());
+        running.get(0).finished(true);
+
+        execute(SingleFlight.OPERATION_SYNCHRONISE, "second", new Result());
+        execute(SingleFlight.OPERATION_SYNCHRONISE, "third", null);
+
+        assertEquals(Arrays.asList("first", "second"), executed);
+        assertEquals(2, singleFlight.getExecuted());
+        assertEquals(1, singleFlight.getSaved());
+
+        // a null callback attached to the running call is skipped when it finishes
+        running.get(1).finished(true);
+        assertEquals(2, singleFlight.getExecuted());
+    }
+
+    private void execute(String key, final String call, ServiceController.UICallback callback) {
+        singleFlight.execute(key, new SingleFlight.Call() {
+            @Override
+            public void execute(ServiceController.UICallback callback) {
+                executed.add(call);
+                running.add(callback);
+            }
+        }, callback);
+    }
+}
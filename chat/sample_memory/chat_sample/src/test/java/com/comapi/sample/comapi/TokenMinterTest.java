@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link TokenMinter}, tokens have to verify with the Base64 encoded key AuthChallengeHandler signed them with before the minter.
+ * java.util.Base64 stands in for android.util.Base64.
+ */
+public class TokenMinterTest {
+
+    private static final byte[] SECRET = "secret".getBytes(Charset.forName("UTF-8"));
+
+    private static final String BASE64_SECRET = Base64.getEncoder().encodeToString(SECRET);
+
+    @Test
+    public void mintedToken_verifiesWithOriginalBase64Key() {
+        TokenMinter minter = new TokenMinter(SECRET, "local", "local");
+
+        String token = minter.mint("profile", "nonce-1");
+        Jws<Claims> jws = Jwts.parser().setSigningKey(BASE64_SECRET).parseClaimsJws(token);
+
+        assertEquals("JWT", jws.getHeader().getType());
+        assertEquals("profile", jws.getBody().getSubject());
+        assertEquals("nonce-1", jws.getBody().get("nonce"));
+        assertEquals("local", jws.getBody().getAudience());
+        assertEquals("local", jws.getBody().getIssuer());
+    }
+
+    @Test
+    public void originalToken_verifiesWithMinterKey() {
+        Map<String, Object> header = new HashMap<>();
+        header.put("typ", "JWT");
+
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("nonce", "nonce-1");
+        claims.put("sub", "profile");
+        claims.put("aud", "local");
+        claims.put("iss", "local");
+
+        // signed as AuthChallengeHandler did it before the minter
+        String token = Jwts.builder()
+                .setHeader(header)
+                .setClaims(claims)
+                .signWith(SignatureAlgorithm.HS256, BASE64_SECRET)
+                .compact();
+
+        assertEquals("profile", Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token).getBody().getSubject());
+    }
+
+    @Test
+    public void mintedTokens_doNotShareClaims() {
+        TokenMinter minter = new TokenMinter(SECRET, "local", "local");
+
+        String first = minter.mint("profile-1", "nonce-1");
+        String second = minter.mint("profile-2", "nonce-2");
+
+        assertEquals("profile-1", Jwts.parser().setSigningKey(BASE64_SECRET).parseClaimsJws(first).getBody().getSubject());
+        assertEquals("nonce-2", Jwts.parser().setSigningKey(BASE64_SECRET).parseClaimsJws(second).getBody().get("nonce"));
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records named spans of the application start measured from the process start, until the first conversation list has been drawn after the SDK initialised.
+ * The finished trace is printed to the log and appended to a tab separated file in the app files directory so the start of different builds can be compared.
+ */
+public class StartupTrace {
+
+    /**
+     * Log tag of the printed trace.
+     */
+    public static final String TAG = "StartupTrace";
+
+    /**
+     * Name of the file in the app files directory the traces are appended to.
+     */
+    public static final String FILE_NAME = "startup_trace.tsv";
+
+    /**
+     * Process start time in elapsed realtime. Before Android N the time this class has been loaded is used instead.
+     */
+    private static final long PROCESS_START = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? Process.getStartElapsedRealtime() : SystemClock.elapsedRealtime();
+
+    private static final List<Record> records = new ArrayList<>();
+
+    private static File output;
+
+    private static boolean finished;
+
+    /**
+     * Recorded span or milestone.
+     */
+    private static class Record {
+
+        final String name;
+
+        final String thread;
+
+        final long start;
+
+        long duration = -1;
+
+        Record(String name, long start) {
+            this.name = name;
+            this.thread = Thread.currentThread().getName();
+            this.start = start;
+        }
+    }
+
+    /**
+     * Running span, call {@link #end()} when the traced work finishes.
+     */
+    public static class Span {
+
+        private final Record record;
+
+        private Span(Record record) {
+            this.record = record;
+        }
+
+        /**
+         * Ends the span. Subsequent calls are ignored.
+         */
+        public void end() {
+            synchronized (records) {
+                if (record != null && record.duration == -1) {
+                    record.duration = SystemClock.elapsedRealtime() - record.start;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the file the finished trace will be appended to.
+     *
+     * @param file Trace file, usually {@link #FILE_NAME} in the app files directory.
+     */
+    public static void saveTo(File file) {
+        synchronized (records) {
+            output = file;
+        }
+    }
+
+    /**
+     * Starts a span. Spans started after the trace finished are not recorded.
+     *
+     * @param name Name of the traced work.
+     * @return Span to be ended when the work finishes.
+     */
+    public static Span begin(String name) {
+        synchronized (records) {
+            if (finished) {
+                return new Span(null);
+            }
+            Record record = new Record(name, SystemClock.elapsedRealtime());
+            records.add(record);
+            return new Span(record);
+        }
+    }
+
+    /**
+     * Records a point in time e.g. the first frame.
+     *
+     * @param name Name of the milestone.
+     */
+    public static void mark(String name) {
+        begin(name);
+    }
+
+    /**
+     * Records the final milestone, prints the trace and saves it to the file. Only the first call has an effect.
+     *
+     * @param milestone Name of the milestone the start is considered complete at.
+     */
+    public static void finish(String milestone) {
+        final String trace;
+        final File file;
+        synchronized (records) {
+            if (finished) {
+                return;
+            }
+            mark(milestone);
+            finished = true;
+            trace = dump();
+            file = output;
+        }
+        Log.i(TAG, trace);
+        if (file != null) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    append(file, trace);
+                }
+            }, TAG).start();
+        }
+    }
+
+    /**
+     * Finishes the trace when the view is drawn next time.
+     *
+     * @param view      View displaying the content the start is considered complete at.
+     * @param milestone Name of the milestone.
+     */
+    public static void finishOnNextDraw(View view, final String milestone) {
+        runAfterNextDraw(view, new Runnable() {
+            @Override
+            public void run() {
+                finish(milestone);
+            }
+        });
+    }
+
+    /**
+     * Runs the action after the view has been drawn next time. The view is invalidated to make sure a drawing pass happens, the action is posted from the pre-draw callback so it runs once the pass is complete.
+     *
+     * @param view   View to observe.
+     * @param action Action to run on the main thread.
+     */
+    private static void runAfterNextDraw(final View view, final Runnable action) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                view.post(action);
+                return true;
+            }
+        });
+        view.invalidate();
+    }
+
+    /**
+     * Gets the recorded trace as text, one tab separated line per span with the start offset from the process start and the duration in milliseconds.
+     * Spans that haven't ended and milestones have '-' as the duration.
+     *
+     * @return Recorded trace.
+     */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (records) {
+            sb.append(String.format(Locale.ENGLISH, "# %s %s (%d) %s\n", Build.MODEL, BuildConfig.VERSION_NAME, BuildConfig.VERSION_CODE, BuildConfig.BUILD_TYPE));
+            for (Record record : records) {
+                sb.append(record.name).append('\t')
+                        .append(record.start - PROCESS_START).append('\t')
+                        .append(record.duration == -1 ? "-" : String.valueOf(record.duration)).append('\t')
+                        .append(record.thread).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void append(File file, String trace) {
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            writer.write(trace);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving startup trace: " + e.getLocalizedMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
@@ -21,11 +21,13 @@
 package com.comapi.sample.comapi;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.comapi.Callback;
-import com.comapi.QueryBuilder;
 import com.comapi.Session;
 import com.comapi.chat.ChatResult;
 import com.comapi.chat.ComapiChatClient;
@@ -39,17 +41,26 @@ import com.comapi.internal.network.model.conversation.Roles;
 import com.comapi.internal.network.model.events.conversation.ParticipantAddedEvent;
 import com.comapi.internal.network.model.events.conversation.ParticipantRemovedEvent;
 import com.comapi.internal.network.model.events.conversation.ParticipantUpdatedEvent;
+import com.comapi.internal.network.model.messaging.MessageToSend;
+import com.comapi.internal.network.model.messaging.Part;
+import com.comapi.sample.BuildConfig;
 import com.comapi.sample.Const;
 import com.comapi.sample.ui.ManageParticipantsActivity;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
 
 import rx.Observable;
+import rx.exceptions.Exceptions;
+import rx.functions.Func1;
 
 /**
  * Controller class wrapping Comapi Client and holds UI listeners.
@@ -58,6 +69,16 @@ import rx.Observable;
  */
 public class ComapiController {
 
+    /**
+     * Delay before the outbox is sent again after the first failure, doubled after every next failure.
+     */
+    private static final long OUTBOX_RETRY_MIN_MILLIS = 2000;
+
+    /**
+     * Maximum delay before the outbox is sent again after a failure.
+     */
+    private static final long OUTBOX_RETRY_MAX_MILLIS = 60000;
+
     /**
      * Comapi Chat SDK client obtained from initialisation in SampleApplication#onCreate
      */
@@ -83,6 +104,90 @@ public class ComapiController {
      */
     private ParticipantsListener comapiParticipantsListener;
 
+    /**
+     * Deduplicates concurrent synchronisation and paging calls.
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * Limits the rate of SDK calls, sending messages first, then paging and then profile and participant calls.
+     */
+    private final RequestScheduler scheduler = new RequestScheduler(RequestScheduler.SYSTEM_CLOCK, Executors.newSingleThreadScheduledExecutor(), 10, 5)
+            .setBudget(RequestScheduler.Priority.SEND, 10, 4)
+            .setBudget(RequestScheduler.Priority.PAGING, 3, 1)
+            .setBudget(RequestScheduler.Priority.PROFILE, 5, 2);
+
+    /**
+     * Records latency and results of SDK calls. Disabled in release builds.
+     */
+    private final ApiMetrics metrics = BuildConfig.DEBUG ? new ApiMetrics(new ApiMetrics.LogExporter()) : ApiMetrics.DISABLED;
+
+    /**
+     * Profile ids known to exist, skips the profile query when adding participants.
+     */
+    private final ProfileCache profileCache = new ProfileCache(ProfileCache.DEFAULT_TTL_MILLIS, ProfileCache.DEFAULT_MAX_SIZE);
+
+    /**
+     * Name prefix of the temporary file SDK logs are copied to before being read.
+     */
+    private static final String LOG_FILE_NAME = "comapi_logs";
+
+    /**
+     * Reads copied SDK logs line by line.
+     */
+    private final LogReader logReader = new LogReader();
+
+    /**
+     * Durable outbox for messages not yet accepted by the server.
+     */
+    private MessageOutbox outbox;
+
+    /**
+     * Schedules sending the outbox again after a failure.
+     */
+    private final Handler outboxRetryHandler = new Handler(Looper.getMainLooper());
+
+    private long outboxRetryDelay = OUTBOX_RETRY_MIN_MILLIS;
+
+    private boolean isOutboxRetryScheduled;
+
+    /**
+     * Sends messages from the outbox.
+     */
+    private final MessageOutbox.Sender outboxSender = new MessageOutbox.Sender() {
+        @Override
+        public void send(final MessageOutbox.Entry entry, final MessageOutbox.Result result) {
+            scheduler.submit(RequestScheduler.Priority.SEND, ApiMetrics.OPERATION_SEND_MESSAGE, new Runnable() {
+                @Override
+                public void run() {
+                    getClient().service().messaging().sendMessage(entry.getConversationId(), createMessageToSend(entry), metrics.wrap(ApiMetrics.OPERATION_SEND_MESSAGE, new Callback<ChatResult>() {
+
+                        @Override
+                        public void success(ChatResult chatResult) {
+                            if (chatResult.isSuccessful()) {
+                                Log.i(Const.TAG, "Successfully sent message");
+                                resetOutboxRetry();
+                            } else {
+                                Log.e(Const.TAG, "Error sending message: ");
+                            }
+                            result.finished(chatResult.isSuccessful());
+                            if (!chatResult.isSuccessful()) {
+                                retryOutbox();
+                            }
+                        }
+
+                        @Override
+                        public void error(Throwable t) {
+                            Log.e(Const.TAG, "Error sending message: " + t.getLocalizedMessage());
+                            result.finished(false);
+                            retryOutbox();
+                        }
+                    }));
+                }
+            });
+        }
+    };
+
     /**
      * Creates an Comapi service API wrapper
      */
@@ -95,6 +200,8 @@ public class ComapiController {
      */
     void setClient(ComapiChatClient client) {
         this.client = client;
+        // send messages left in the outbox if the session from the previous run is still valid
+        replayOutbox();
     }
 
     /**
@@ -104,6 +211,114 @@ public class ComapiController {
         return client;
     }
 
+    /**
+     * Sets durable outbox for messages not yet accepted by the server and reads messages left from the previous run.
+     *
+     * @param file Outbox journal file.
+     */
+    public void initOutbox(File file) {
+        MessageOutbox messageOutbox = new MessageOutbox(file);
+        try {
+            messageOutbox.load();
+            outbox = messageOutbox;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(Const.TAG, "Error loading message outbox: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Gets durable outbox, used by the store to recognise messages sent twice.
+     *
+     * @return Outbox or null if it couldn't be loaded.
+     */
+    MessageOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Send messages waiting in the outbox in order if the session is active.
+     */
+    private void replayOutbox() {
+        if (outbox != null && client != null && client.getSession() != null && client.getSession().isSuccessfullyCreated()) {
+            outbox.replay(outboxSender);
+        }
+    }
+
+    /**
+     * Send the outbox again after a delay growing with every failure. Replay stops at the first failed message and would otherwise wait for the next message or session start.
+     */
+    private void retryOutbox() {
+        long delay;
+        synchronized (outboxRetryHandler) {
+            if (isOutboxRetryScheduled) {
+                return;
+            }
+            isOutboxRetryScheduled = true;
+            delay = outboxRetryDelay;
+            outboxRetryDelay = Math.min(outboxRetryDelay * 2, OUTBOX_RETRY_MAX_MILLIS);
+        }
+        outboxRetryHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (outboxRetryHandler) {
+                    isOutboxRetryScheduled = false;
+                }
+                replayOutbox();
+            }
+        }, delay);
+    }
+
+    /**
+     * Message from the outbox was sent, next failure is retried after the shortest delay.
+     */
+    private void resetOutboxRetry() {
+        synchronized (outboxRetryHandler) {
+            outboxRetryDelay = OUTBOX_RETRY_MIN_MILLIS;
+        }
+    }
+
+    /**
+     * Create message from the outbox with its outbox id in the metadata, so the echo from the server can be matched.
+     *
+     * @param entry Message from the outbox.
+     * @return New message object for Comapi Client APIs.
+     */
+    private MessageToSend createMessageToSend(MessageOutbox.Entry entry) {
+
+        Part bodyPart = Part.builder()
+                .setData(entry.getBody())
+                .setName("body")
+                .setSize(entry.getBody().length())
+                .setType("text/plain")
+                .build();
+
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(MessageOutbox.METADATA_OUTBOX_ID, entry.getId());
+
+        return MessageToSend.builder().addPart(bodyPart).setMetadata(metadata).build();
+    }
+
+    /**
+     * Gets rate limiter of SDK calls, e.g. to check queued requests.
+     */
+    public RequestScheduler getRequestScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Gets recorded latency and results of SDK calls.
+     */
+    public ApiMetrics getApiMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets deduplicating layer for synchronisation and paging calls.
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
     /**
      * Sets UI callback for comapiChatClient.messaging().previousMessages() call. Used to hide swipe to refresh widget when paging API finishes.
      */
@@ -183,29 +398,45 @@ public class ComapiController {
     public class ServiceAPIWrapper {
 
         /**
-         * Send message to the conversation participants.
+         * Send message to the conversation participants. The message is saved in the outbox first so it will be sent even if the network or the app goes down.
          *
          * @param conversationId Conversation unique id.
          * @param message        Message body to send.
          */
-        public void sendMessage(String conversationId, String message) {
+        public void sendMessage(final String conversationId, final String message) {
 
             if (getClient() != null) {
-                // Send message to a conversation participants
-                getClient().service().messaging().sendMessage(conversationId, message, new Callback<ChatResult>() {
 
-                    @Override
-                    public void success(ChatResult result) {
-                        if (result.isSuccessful()) {
-                            Log.i(Const.TAG, "Successfully sent message");
-                        } else {
-                            Log.e(Const.TAG, "Error sending message: ");
-                        }
+                if (outbox != null) {
+                    try {
+                        outbox.add(conversationId, message);
+                        replayOutbox();
+                        return;
+                    } catch (IOException e) {
+                        Log.e(Const.TAG, "Error saving message in the outbox: " + e.getLocalizedMessage());
                     }
+                }
 
+                // Send message to a conversation participants
+                scheduler.submit(RequestScheduler.Priority.SEND, ApiMetrics.OPERATION_SEND_MESSAGE, new Runnable() {
                     @Override
-                    public void error(Throwable t) {
-                        Log.e(Const.TAG, "Error sending message: " + t.getLocalizedMessage());
+                    public void run() {
+                        getClient().service().messaging().sendMessage(conversationId, message, metrics.wrap(ApiMetrics.OPERATION_SEND_MESSAGE, new Callback<ChatResult>() {
+
+                            @Override
+                            public void success(ChatResult result) {
+                                if (result.isSuccessful()) {
+                                    Log.i(Const.TAG, "Successfully sent message");
+                                } else {
+                                    Log.e(Const.TAG, "Error sending message: ");
+                                }
+                            }
+
+                            @Override
+                            public void error(Throwable t) {
+                                Log.e(Const.TAG, "Error sending message: " + t.getLocalizedMessage());
+                            }
+                        }));
                     }
                 });
             }
@@ -219,26 +450,71 @@ public class ComapiController {
          * @param participantId  Profile id of a new participant to add.
          */
         public void addParticipant(final Context context, final String conversationId, final String participantId) {
+            addParticipants(context, conversationId, Collections.singletonList(participantId));
+        }
 
-            final List<Participant> participants = new ArrayList<>();
-            participants.add(Participant.builder().setId(participantId).setIsParticipant().build());
+        /**
+         * Add many participants to a conversation. Profiles not found in the cache are checked in batched queries and all existing ones are added in a single call.
+         *
+         * @param context        Application context
+         * @param conversationId Conversation unique id.
+         * @param participantIds Profile ids of new participants to add.
+         */
+        public void addParticipants(final Context context, final String conversationId, final List<String> participantIds) {
 
-            // first check if user exist for registered ApiSpace
-            getClient().service().profile().queryProfiles(new QueryBuilder().addEqual("id", participantId).build(), new Callback<ComapiResult<List<Map<String, Object>>>>() {
+            // first check if users exist for registered ApiSpace
+            profileCache.check(participantIds, new ProfileCache.ProfileQuery() {
 
                 @Override
-                public void success(ComapiResult<List<Map<String, Object>>> result) {
-                    if (result.isSuccessful() && !result.getResult().isEmpty() && result.getResult() != null) {
-                        // user exists, we can add him to the conversation participants list
-                        getClient().service().messaging().addParticipants(conversationId, participants, null);
-                    } else {
-                        Toast.makeText(context.getApplicationContext(), "User doesn't exist.", Toast.LENGTH_SHORT).show();
-                    }
+                public void queryProfiles(final String query, final Callback<ComapiResult<List<Map<String, Object>>>> callback) {
+                    scheduler.submit(RequestScheduler.Priority.PROFILE, ApiMetrics.OPERATION_QUERY_PROFILES, new Runnable() {
+                        @Override
+                        public void run() {
+                            getClient().service().profile().queryProfiles(query, metrics.wrap(ApiMetrics.OPERATION_QUERY_PROFILES, callback));
+                        }
+                    });
                 }
+            }, new ProfileCache.CheckResult() {
 
                 @Override
-                public void error(Throwable t) {
-                    Log.e(Const.TAG, "Error querying participants: " + t.getLocalizedMessage());
+                public void onChecked(final List<String> existing, List<String> notFound, List<String> unchecked) {
+
+                    if (!notFound.isEmpty()) {
+                        Toast.makeText(context.getApplicationContext(), "Users don't exist: " + TextUtils.join(", ", notFound), Toast.LENGTH_SHORT).show();
+                    }
+                    if (!unchecked.isEmpty()) {
+                        Log.e(Const.TAG, "Error querying participants: " + TextUtils.join(", ", unchecked));
+                    }
+                    if (existing.isEmpty()) {
+                        return;
+                    }
+
+                    final List<Participant> participants = new ArrayList<>();
+                    for (String id : existing) {
+                        participants.add(Participant.builder().setId(id).setIsParticipant().build());
+                    }
+
+                    // users exist, we can add them to the conversation participants list in one call
+                    scheduler.submit(RequestScheduler.Priority.PROFILE, ApiMetrics.OPERATION_ADD_PARTICIPANTS, new Runnable() {
+                        @Override
+                        public void run() {
+                            getClient().service().messaging().addParticipants(conversationId, participants, metrics.wrap(ApiMetrics.OPERATION_ADD_PARTICIPANTS, new Callback<ChatResult>() {
+
+                                @Override
+                                public void success(ChatResult result) {
+                                    if (!result.isSuccessful()) {
+                                        Toast.makeText(context.getApplicationContext(), "Failed to add: " + TextUtils.join(", ", existing), Toast.LENGTH_SHORT).show();
+                                    }
+                                }
+
+                                @Override
+                                public void error(Throwable t) {
+                                    Log.e(Const.TAG, "Error adding participants: " + t.getLocalizedMessage());
+                                    Toast.makeText(context.getApplicationContext(), "Failed to add: " + TextUtils.join(", ", existing), Toast.LENGTH_SHORT).show();
+                                }
+                            }));
+                        }
+                    });
                 }
             });
         }
@@ -248,20 +524,25 @@ public class ComapiController {
          */
         private void checkParticipants(final String conversationId) {
             // query conversation participants
-            client.service().messaging().getParticipants(conversationId, new Callback<List<ChatParticipant>>() {
+            scheduler.submit(RequestScheduler.Priority.PROFILE, ApiMetrics.OPERATION_GET_PARTICIPANTS, new Runnable() {
                 @Override
-                public void success(List<ChatParticipant> participantList) {
-                    if (uiParticipantsListener != null) {
-                        for (ChatParticipant p : participantList) {
-                            // notify UI about found participant
-                            uiParticipantsListener.add(p.getParticipantId());
+                public void run() {
+                    client.service().messaging().getParticipants(conversationId, metrics.wrap(ApiMetrics.OPERATION_GET_PARTICIPANTS, new Callback<List<ChatParticipant>>() {
+                        @Override
+                        public void success(List<ChatParticipant> participantList) {
+                            if (uiParticipantsListener != null) {
+                                for (ChatParticipant p : participantList) {
+                                    // notify UI about found participant
+                                    uiParticipantsListener.add(p.getParticipantId());
+                                }
+                            }
                         }
-                    }
-                }
 
-                @Override
-                public void error(Throwable t) {
-                    // Error occurred
+                        @Override
+                        public void error(Throwable t) {
+                            // Error occurred
+                        }
+                    }));
                 }
             });
         }
@@ -272,10 +553,15 @@ public class ComapiController {
          * @param conversationId Conversation unique id.
          * @param participantId  Profile id of a participant to remove.
          */
-        public void removeParticipant(String conversationId, String participantId) {
-            List<String> participants = new ArrayList<>();
+        public void removeParticipant(final String conversationId, String participantId) {
+            final List<String> participants = new ArrayList<>();
             participants.add(participantId);
-            getClient().service().messaging().removeParticipants(conversationId, participants, null);
+            scheduler.submit(RequestScheduler.Priority.PROFILE, ApiMetrics.OPERATION_REMOVE_PARTICIPANTS, new Runnable() {
+                @Override
+                public void run() {
+                    getClient().service().messaging().removeParticipants(conversationId, participants, metrics.<ChatResult>wrap(ApiMetrics.OPERATION_REMOVE_PARTICIPANTS, null));
+                }
+            });
         }
 
         /**
@@ -284,7 +570,7 @@ public class ComapiController {
          * @param name Public name of a new conversation.
          */
         public void createConversation(String name) {
-            getClient().service().messaging().createConversation(createConversationRequest(name), null);
+            getClient().service().messaging().createConversation(createConversationRequest(name), metrics.<ChatResult>wrap(ApiMetrics.OPERATION_CREATE_CONVERSATION, null));
         }
 
         /**
@@ -292,8 +578,25 @@ public class ComapiController {
          *
          * @param callback Callback with the call result.
          */
-        public void startSession(Callback<Session> callback) {
-            getClient().service().session().startSession(callback);
+        public void startSession(final Callback<Session> callback) {
+            getClient().service().session().startSession(metrics.wrap(ApiMetrics.OPERATION_START_SESSION, new Callback<Session>() {
+
+                @Override
+                public void success(Session session) {
+                    // send messages waiting for the session
+                    replayOutbox();
+                    if (callback != null) {
+                        callback.success(session);
+                    }
+                }
+
+                @Override
+                public void error(Throwable t) {
+                    if (callback != null) {
+                        callback.error(t);
+                    }
+                }
+            }));
         }
 
         /**
@@ -301,26 +604,41 @@ public class ComapiController {
          */
         public void synchronise() {
 
-            getClient().service().messaging().synchroniseStore(new Callback<ChatResult>() {
+            singleFlight.execute(SingleFlight.OPERATION_SYNCHRONISE, new SingleFlight.Call() {
 
                 @Override
-                public void success(ChatResult result) {
-                    // notify UI listener
-                    if (synchroniseCallback != null) {
-                        synchroniseCallback.finished(result.isSuccessful());
-                    }
-                    Session s = client.getSession();
-                    if (!s.isSuccessfullyCreated()) {
-                        startSession(null);
-                    }
+                public void execute(final UICallback callback) {
+
+                    scheduler.submit(RequestScheduler.Priority.PAGING, ApiMetrics.OPERATION_SYNCHRONISE, new Runnable() {
+                        @Override
+                        public void run() {
+                            getClient().service().messaging().synchroniseStore(metrics.wrap(ApiMetrics.OPERATION_SYNCHRONISE, new Callback<ChatResult>() {
+
+                                @Override
+                                public void success(ChatResult result) {
+                                    callback.finished(result.isSuccessful());
+                                    Session s = client.getSession();
+                                    if (!s.isSuccessfullyCreated()) {
+                                        startSession(null);
+                                    }
+                                }
+
+                                @Override
+                                public void error(Throwable t) {
+                                    Log.e(Const.TAG, t.getLocalizedMessage());
+                                    callback.finished(false);
+                                }
+                            }));
+                        }
+                    });
                 }
+            }, new UICallback() {
 
                 @Override
-                public void error(Throwable t) {
+                public void finished(boolean isSuccess) {
                     // notify UI listener
-                    Log.e(Const.TAG, t.getLocalizedMessage());
                     if (synchroniseCallback != null) {
-                        synchroniseCallback.finished(false);
+                        synchroniseCallback.finished(isSuccess);
                     }
                 }
             });
@@ -331,24 +649,40 @@ public class ComapiController {
          *
          * @param conversationId Conversation unique id.
          */
-        public void getNextPage(String conversationId) {
+        public void getNextPage(final String conversationId) {
 
-            getClient().service().messaging().getPreviousMessages(conversationId, new Callback<ChatResult>() {
+            // Repeated swipes while the page is loading share the same request
+            singleFlight.execute(SingleFlight.key(SingleFlight.OPERATION_PREVIOUS_MESSAGES, conversationId), new SingleFlight.Call() {
 
                 @Override
-                public void success(ChatResult result) {
-                    // notify UI listener
-                    if (pagingCallback != null) {
-                        pagingCallback.finished(result.isSuccessful());
-                    }
+                public void execute(final UICallback callback) {
+
+                    scheduler.submit(RequestScheduler.Priority.PAGING, ApiMetrics.OPERATION_PREVIOUS_MESSAGES, new Runnable() {
+                        @Override
+                        public void run() {
+                            getClient().service().messaging().getPreviousMessages(conversationId, metrics.wrap(ApiMetrics.OPERATION_PREVIOUS_MESSAGES, new Callback<ChatResult>() {
+
+                                @Override
+                                public void success(ChatResult result) {
+                                    callback.finished(result.isSuccessful());
+                                }
+
+                                @Override
+                                public void error(Throwable t) {
+                                    Log.e(Const.TAG, t.getLocalizedMessage());
+                                    callback.finished(false);
+                                }
+                            }));
+                        }
+                    });
                 }
+            }, new UICallback() {
 
                 @Override
-                public void error(Throwable t) {
-                    Log.e(Const.TAG, t.getLocalizedMessage());
+                public void finished(boolean isSuccess) {
                     // notify UI listener
                     if (pagingCallback != null) {
-                        pagingCallback.finished(false);
+                        pagingCallback.finished(isSuccess);
                     }
                 }
             });
@@ -405,7 +739,54 @@ public class ComapiController {
         return client.copyLogs(file);
     }
 
+    /**
+     * Gets the whole SDK log as a single String.
+     *
+     * @return Observable emitting the whole log.
+     * @deprecated Holds the entire log in memory, use {@link #getLogLines(Context, LogReader.Filter)} or {@link #exportLogs(Context, LogReader.Filter, OutputStream)} instead.
+     */
+    @Deprecated
     public Observable<String> getLogs() {
         return client.getLogs();
     }
+
+    /**
+     * Emits SDK log lines matching the filter. The log is copied to a temporary file which is then read line by line and deleted when the Observable terminates or is unsubscribed.
+     *
+     * @param context Application context.
+     * @param filter  Criteria the log lines need to meet.
+     * @return Observable emitting matching log lines.
+     */
+    public Observable<String> getLogLines(Context context, final LogReader.Filter filter) {
+        return getLogs(context, LOG_FILE_NAME).flatMap(new Func1<File, Observable<String>>() {
+            @Override
+            public Observable<String> call(File file) {
+                return logReader.lines(file, filter, true);
+            }
+        });
+    }
+
+    /**
+     * Writes SDK log lines matching the filter gzipped into the destination stream, e.g. a file to be attached to a bug report.
+     *
+     * @param context     Application context.
+     * @param filter      Criteria the log lines need to meet.
+     * @param destination Stream to write compressed log into. Closed when finished.
+     * @return Observable emitting number of lines written.
+     */
+    public Observable<Long> exportLogs(Context context, final LogReader.Filter filter, final OutputStream destination) {
+        return getLogs(context, LOG_FILE_NAME).map(new Func1<File, Long>() {
+            @Override
+            public Long call(File file) {
+                try {
+                    return logReader.gzip(file, filter, destination);
+                } catch (IOException e) {
+                    throw Exceptions.propagate(e);
+                } finally {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        });
+    }
 }
\ No newline at end of file
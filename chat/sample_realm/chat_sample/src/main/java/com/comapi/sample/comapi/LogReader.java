@@ -0,0 +1,358 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPOutputStream;
+
+import rx.Observable;
+import rx.exceptions.Exceptions;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * Reads the SDK log file line by line instead of loading it into a single String. Lines are filtered by level, time range and substring while being read,
+ * so only the lines that are actually needed are ever kept in memory. Filtered lines can be emitted as an Observable or compressed straight into a stream.
+ */
+public class LogReader {
+
+    /**
+     * Pattern of the time stamp starting every log entry written by the SDK file logger.
+     */
+    public static final String DEFAULT_DATE_PATTERN = "dd-MM-yyyy HH:mm:ss.SSS";
+
+    /**
+     * Size of the read and write buffers.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Log levels in order of severity.
+     */
+    public enum Level {
+
+        VERBOSE, DEBUG, INFO, WARNING, ERROR;
+
+        /**
+         * Finds the level of a log line. The level name appearing first in the line wins, so message text mentioning e.g. an error doesn't change the level of a debug entry.
+         *
+         * @param line Log line.
+         * @return Level of the line or null if it can't be recognised.
+         */
+        static Level parse(String line) {
+            String upper = line.toUpperCase(Locale.ENGLISH);
+            Level found = null;
+            int foundAt = Integer.MAX_VALUE;
+            for (Level level : values()) {
+                int index = upper.indexOf(level == WARNING ? "WARN" : level.name());
+                if (index != -1 && index < foundAt) {
+                    found = level;
+                    foundAt = index;
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Criteria the log lines need to meet to be returned. An empty filter accepts every line.
+     */
+    public static class Filter {
+
+        private Level minLevel;
+
+        private long from = Long.MIN_VALUE;
+
+        private long to = Long.MAX_VALUE;
+
+        private String contains;
+
+        /**
+         * Accept only lines at or above given level. Lines with an unrecognised level inherit the level of the entry they continue (e.g. stack traces).
+         *
+         * @param minLevel Minimum level.
+         * @return This filter.
+         */
+        public Filter minLevel(Level minLevel) {
+            this.minLevel = minLevel;
+            return this;
+        }
+
+        /**
+         * Accept only lines logged within given time range.
+         *
+         * @param from Start of the range (inclusive) in milliseconds since epoch.
+         * @param to   End of the range (inclusive) in milliseconds since epoch.
+         * @return This filter.
+         */
+        public Filter between(long from, long to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        /**
+         * Accept only lines containing given text.
+         *
+         * @param text Text to look for, case sensitive.
+         * @return This filter.
+         */
+        public Filter contains(String text) {
+            this.contains = text;
+            return this;
+        }
+
+        boolean accept(String line, Level level, long time) {
+            if (minLevel != null && (level == null || level.compareTo(minLevel) < 0)) {
+                return false;
+            }
+            if ((from != Long.MIN_VALUE || to != Long.MAX_VALUE) && (time < from || time > to)) {
+                return false;
+            }
+            return contains == null || line.contains(contains);
+        }
+    }
+
+    /**
+     * Pattern of the time stamp starting every log entry. SimpleDateFormat isn't thread safe, so each {@link LineIterator} creates its own formatter.
+     */
+    private final String datePattern;
+
+    /**
+     * Recommended constructor. Expects log entries to start with {@link #DEFAULT_DATE_PATTERN}.
+     */
+    public LogReader() {
+        this(DEFAULT_DATE_PATTERN);
+    }
+
+    /**
+     * @param datePattern Pattern of the time stamp starting every log entry.
+     */
+    public LogReader(String datePattern) {
+        this.datePattern = datePattern;
+    }
+
+    /**
+     * Emits the lines of the log file matching the filter. The file is opened on subscription, read lazily as the lines are requested and closed
+     * when the Observable completes or is unsubscribed.
+     *
+     * @param file   Log file e.g. copied with ComapiChatClient#copyLogs.
+     * @param filter Criteria the lines need to meet.
+     * @return Observable emitting matching lines.
+     */
+    public Observable<String> lines(File file, Filter filter) {
+        return lines(file, filter, false);
+    }
+
+    /**
+     * Emits the lines of the log file matching the filter. The file is opened on subscription, read lazily as the lines are requested and closed
+     * when the Observable completes, fails or is unsubscribed.
+     *
+     * @param file       Log file e.g. copied with ComapiChatClient#copyLogs.
+     * @param filter     Criteria the lines need to meet.
+     * @param deleteFile True to delete the file once it has been closed, e.g. a temporary copy of the log.
+     * @return Observable emitting matching lines.
+     */
+    public Observable<String> lines(final File file, final Filter filter, final boolean deleteFile) {
+        return Observable.using(new Func0<LineIterator>() {
+            @Override
+            public LineIterator call() {
+                try {
+                    return open(file, filter);
+                } catch (IOException e) {
+                    if (deleteFile) {
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                    throw Exceptions.propagate(e);
+                }
+            }
+        }, new Func1<LineIterator, Observable<String>>() {
+            @Override
+            public Observable<String> call(final LineIterator iterator) {
+                return Observable.from(new Iterable<String>() {
+                    @Override
+                    public Iterator<String> iterator() {
+                        return iterator;
+                    }
+                });
+            }
+        }, new Action1<LineIterator>() {
+            @Override
+            public void call(LineIterator iterator) {
+                iterator.close();
+                if (deleteFile) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the lines of the log file matching the filter gzipped into the destination stream. Blocks until the whole file has been read,
+     * call it from a background thread. The destination stream is closed when finished.
+     *
+     * @param file        Log file e.g. copied with ComapiChatClient#copyLogs.
+     * @param filter      Criteria the lines need to meet.
+     * @param destination Stream to write compressed lines to.
+     * @return Number of lines written.
+     * @throws IOException When the log file can't be read or the destination can't be written to.
+     */
+    public long gzip(File file, Filter filter, OutputStream destination) throws IOException {
+        LineIterator iterator = open(file, filter);
+        Writer writer = null;
+        long count = 0;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(destination, BUFFER_SIZE), UTF_8), BUFFER_SIZE);
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+                writer.write('\n');
+                count++;
+            }
+        } finally {
+            iterator.close();
+            if (writer != null) {
+                writer.close();
+            } else {
+                destination.close();
+            }
+        }
+        return count;
+    }
+
+    private LineIterator open(File file, Filter filter) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8), BUFFER_SIZE);
+        return new LineIterator(reader, filter != null ? filter : new Filter());
+    }
+
+    /**
+     * Reads ahead to the next matching line. Lines without a time stamp are treated as a continuation of the previous entry and inherit its level and time.
+     */
+    private class LineIterator implements Iterator<String>, Closeable {
+
+        private final BufferedReader reader;
+
+        private final Filter filter;
+
+        private final SimpleDateFormat dateFormat;
+
+        private String next;
+
+        private Level level;
+
+        private long time = -1;
+
+        private boolean closed;
+
+        LineIterator(BufferedReader reader, Filter filter) {
+            this.reader = reader;
+            this.filter = filter;
+            this.dateFormat = new SimpleDateFormat(datePattern, Locale.ENGLISH);
+        }
+
+        /**
+         * Parses the time stamp at the beginning of a log line.
+         *
+         * @param line Log line.
+         * @return Time in milliseconds since epoch or -1 if the line doesn't start with a time stamp (continuation of previous entry).
+         */
+        private long parseTime(String line) {
+            Date date = dateFormat.parse(line, new ParsePosition(0));
+            return date != null ? date.getTime() : -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    long lineTime = parseTime(line);
+                    if (lineTime != -1) {
+                        time = lineTime;
+                        level = Level.parse(line);
+                    }
+                    if (filter.accept(line, level, time)) {
+                        next = line;
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw Exceptions.propagate(e);
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = next;
+            next = null;
+            return line;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing to do, the file has been read.
+                }
+            }
+        }
+    }
+}
@@ -25,9 +25,12 @@ import com.comapi.Session;
 import com.comapi.chat.ComapiChatClient;
 import com.comapi.sample.events.LoginEvent;
 import com.comapi.sample.store.ChatStoreImplementation;
+import com.comapi.sample.store.PartStore;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.io.File;
+
 /**
  * Access to local persistence store and Comapi SDK interfaces.
  *
@@ -41,6 +44,11 @@ public class MainController {
      */
     private final ComapiController controller;
 
+    /**
+     * Store for data of large message parts, null if all parts are kept in the database.
+     */
+    private PartStore partStore;
+
     /**
      * Recommended constructor
      */
@@ -54,7 +62,16 @@ public class MainController {
      * @return ChatStore interface implementing a single transaction.
      */
     public ChatStoreImplementation getNewStoreTransaction() {
-        return new ChatStoreImplementation(getUserProfileId());
+        return new ChatStoreImplementation(getUserProfileId(), partStore, controller.getOutbox());
+    }
+
+    /**
+     * Sets directory for data of large message parts. Has to be called before the SDK starts saving messages.
+     *
+     * @param dir Directory for message part files.
+     */
+    public void initPartStore(File dir) {
+        partStore = new PartStore(dir);
     }
 
     /**
@@ -28,6 +28,7 @@ import com.comapi.chat.model.ChatMessage;
 import com.comapi.chat.model.ChatMessageStatus;
 import com.comapi.chat.model.ChatStore;
 import com.comapi.sample.Const;
+import com.comapi.sample.comapi.MessageOutbox;
 import com.comapi.sample.store.model.DBChatMessage;
 import com.comapi.sample.store.model.DBConversation;
 
@@ -57,16 +58,30 @@ public class ChatStoreImplementation extends ChatStore {
      */
     private final String forProfile;
 
+    /**
+     * Store for data of large message parts, null if all parts are kept in the database.
+     */
+    private final PartStore partStore;
+
+    /**
+     * Outbox of messages sent from this app instance, recognises a second copy of a message sent again. Can be null.
+     */
+    private final MessageOutbox outbox;
+
     /**
      * Recommended constructor.
      *
      * @param forProfile The logged in user profile id.
+     * @param partStore  Store for data of large message parts, null to keep all parts in the database.
+     * @param outbox     Outbox of messages sent from this app instance, null if messages aren't sent through the outbox.
      */
-    public ChatStoreImplementation(String forProfile) {
+    public ChatStoreImplementation(String forProfile, PartStore partStore, MessageOutbox outbox) {
         if (forProfile == null) {
             Log.e(Const.TAG, "Null profile id in Chat Store instance.");
         }
         this.forProfile = forProfile;
+        this.partStore = partStore;
+        this.outbox = outbox;
     }
 
     /*
@@ -180,8 +195,18 @@ public class ChatStoreImplementation extends ChatStore {
     public boolean upsert(ChatMessage message) {
         try {
             checkState();
+            // Ignore second copy of a message sent again from the outbox after the send response was lost
+            Object outboxId = message.getMetadata() != null ? message.getMetadata().get(MessageOutbox.METADATA_OUTBOX_ID) : null;
+            if (outboxId != null && outbox != null && !outbox.onEcho(outboxId.toString(), message.getMessageId())) {
+                return true;
+            }
+            // Parts of the previous version have no primary key and would be left orphaned by the update
+            DBChatMessage saved = realm.where(DBChatMessage.class).equalTo(DBChatMessage.MESSAGE_ID, message.getMessageId()).findFirst();
+            if (saved != null && saved.getParts() != null) {
+                saved.getParts().deleteAllFromRealm();
+            }
             // Adapt for Realm model
-            DBChatMessage dbMessage = DBChatMessage.adapt(message, forProfile);
+            DBChatMessage dbMessage = DBChatMessage.adapt(message, forProfile, partStore);
             realm.copyToRealmOrUpdate(dbMessage);
             return true;
         } catch (IllegalStateException e) {
@@ -221,6 +246,9 @@ public class ChatStoreImplementation extends ChatStore {
             checkState();
             // Delete all db content
             realm.deleteAll();
+            if (partStore != null) {
+                partStore.clear();
+            }
             return true;
         } catch (IllegalStateException e) {
             Log.e(Const.TAG,e.getLocalizedMessage());
@@ -238,6 +266,9 @@ public class ChatStoreImplementation extends ChatStore {
             checkState();
             // Find all messages for a given conversation
             RealmResults<DBChatMessage> dbSavedTempMessages = realm.where(DBChatMessage.class).equalTo(DBChatMessage.CONVERSATION_ID, conversationId).findAll();
+            for (DBChatMessage saved : dbSavedTempMessages) {
+                deleteParts(saved);
+            }
             dbSavedTempMessages.deleteAllFromRealm();
             return true;
         } catch (IllegalStateException e) {
@@ -257,6 +288,7 @@ public class ChatStoreImplementation extends ChatStore {
             // Find message with a given messageId
             DBChatMessage saved = realm.where(DBChatMessage.class).equalTo(DBChatMessage.MESSAGE_ID, messageId).findFirst();
             if (saved != null) {
+                deleteParts(saved);
                 saved.deleteFromRealm();
             }
             return true;
@@ -270,6 +302,20 @@ public class ChatStoreImplementation extends ChatStore {
         return false;
     }
 
+    /**
+     * Delete part rows and files of a message.
+     *
+     * @param message Message to be deleted.
+     */
+    private void deleteParts(DBChatMessage message) {
+        if (partStore != null) {
+            partStore.delete(message.getMessageId());
+        }
+        if (message.getParts() != null) {
+            message.getParts().deleteAllFromRealm();
+        }
+    }
+
     @Override
     public void beginTransaction() {
         // check state
@@ -20,12 +20,10 @@
 
 package com.comapi.sample.store.model;
 
-import android.text.TextUtils;
-
 import com.comapi.chat.model.ChatMessage;
 import com.comapi.chat.model.ChatMessageStatus;
 import com.comapi.chat.model.LocalMessageStatus;
-import com.comapi.internal.network.model.messaging.Part;
+import com.comapi.sample.store.PartStore;
 
 import java.util.List;
 
@@ -58,6 +56,7 @@ public class DBChatMessage extends RealmObject {
     private String conversationId;
 
     private String body;
+    private RealmList<DBMessagePart> parts;
     private boolean isMyOwn;
     private String sender;
     private Long timestamp;
@@ -76,6 +75,15 @@ public class DBChatMessage extends RealmObject {
         return this;
     }
 
+    /**
+     * Get message unique identifier.
+     *
+     * @return Message unique identifier.
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
     /**
      * Set unique conversation id.
      *
@@ -88,18 +96,27 @@ public class DBChatMessage extends RealmObject {
     }
 
     /**
-     * Get message text body.
+     * Get message preview for a list row, at most {@link PartStore#PREVIEW_LENGTH} characters.
      *
-     * @return Message text body.
+     * @return Message preview.
      */
     public String getBody() {
         return body;
     }
 
     /**
-     * Set message text body.
+     * Get message parts. Data of large parts is read from files when requested.
+     *
+     * @return Message parts.
+     */
+    public RealmList<DBMessagePart> getParts() {
+        return parts;
+    }
+
+    /**
+     * Set message preview.
      *
-     * @param body Message text body.
+     * @param body Message preview.
      * @return Chat message instance with the value being set.
      */
     public DBChatMessage setBody(String body) {
@@ -183,24 +200,18 @@ public class DBChatMessage extends RealmObject {
      *
      * @param m             Comapi Chat SDK message object.
      * @param userProfileId Logged in user profile id.
+     * @param partStore     Store for data of large message parts, null to keep all parts in the database.
      * @return Chat message instance with the value being set.
      */
-    public static DBChatMessage adapt(ChatMessage m, String userProfileId) {
+    public static DBChatMessage adapt(ChatMessage m, String userProfileId, PartStore partStore) {
 
-        // Get the text message body from the first Part. The SDK by default is putting the text body into part with name "body" and type "text/plain".
-        String body = null;
-        if (m.getParts() != null && !m.getParts().isEmpty()) {
-            for (Part p : m.getParts()) {
-                if (TextUtils.equals("body", p.getName())) {
-                    body = m.getParts().get(0).getData();
-                    break;
-                }
-            }
-        }
+        // Only a bounded preview of the text part is kept in the row displayed by the list. The SDK by default is putting the text body into part with name "body" and type "text/plain".
+        String body = PartStore.preview(m.getParts());
 
         // Check if message was sent from logged in user.
         boolean isMyOwn = m.getFromWhom().getId().equals(userProfileId);
         DBChatMessage message = new DBChatMessage();
+        message.parts = DBMessagePart.adapt(m.getMessageId(), m.getParts(), partStore);
 
         if (isMyOwn) {
             message.statuses = new RealmList<>();
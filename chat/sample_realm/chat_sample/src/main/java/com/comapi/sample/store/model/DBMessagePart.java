@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.store.model;
+
+import com.comapi.internal.network.model.messaging.Part;
+import com.comapi.sample.store.PartStore;
+
+import java.io.File;
+import java.util.List;
+
+import io.realm.RealmList;
+import io.realm.RealmObject;
+
+/**
+ * Realm database object describing a message part. Data up to {@link PartStore#INLINE_LIMIT} characters is stored in the row, larger
+ * data is written to a file and only its path is stored. The file is read when {@link #getData()} is called.
+ */
+public class DBMessagePart extends RealmObject {
+
+    private String name;
+
+    private String type;
+
+    private Integer size;
+
+    /**
+     * Inline data, null if the data is in a file.
+     */
+    private String data;
+
+    /**
+     * Path of the file with the data, null if the data is inline.
+     */
+    private String file;
+
+    /**
+     * Get part name.
+     *
+     * @return Part name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get part MIME type.
+     *
+     * @return Part MIME type.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Get part size declared by the sender.
+     *
+     * @return Part size, can be null.
+     */
+    public Integer getSize() {
+        return size;
+    }
+
+    /**
+     * Check if the data is stored in the database row.
+     *
+     * @return True if the data is inline, false if it's read from a file.
+     */
+    public boolean isInline() {
+        return file == null;
+    }
+
+    /**
+     * Get part data. Reads the file for large parts, don't call from list rows.
+     *
+     * @return Part data or null if the file can't be read.
+     */
+    public String getData() {
+        return file != null ? PartStore.read(new File(file)) : data;
+    }
+
+    /**
+     * Adapt message parts received from the SDK to Realm objects. Large parts are written to files if the part store is available.
+     *
+     * @param messageId Message unique id.
+     * @param parts     Message parts received from the SDK.
+     * @param store     Store for large parts, null to keep all parts in the database.
+     * @return Realm message parts.
+     */
+    static RealmList<DBMessagePart> adapt(String messageId, List<Part> parts, PartStore store) {
+        RealmList<DBMessagePart> result = new RealmList<>();
+        if (parts == null) {
+            return result;
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            Part part = parts.get(i);
+            DBMessagePart dbPart = new DBMessagePart();
+            dbPart.name = part.getName();
+            dbPart.type = part.getType();
+            dbPart.size = part.getSize();
+            File file = null;
+            if (store != null && messageId != null && PartStore.isLarge(part.getData())) {
+                file = store.write(messageId, i, part.getData());
+            }
+            if (file != null) {
+                dbPart.file = file.getAbsolutePath();
+            } else {
+                dbPart.data = part.getData();
+            }
+            result.add(dbPart);
+        }
+        return result;
+    }
+}
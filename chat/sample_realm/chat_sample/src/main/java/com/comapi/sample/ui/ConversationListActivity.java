@@ -42,6 +42,7 @@ import android.widget.ListView;
 
 import com.comapi.sample.Const;
 import com.comapi.sample.R;
+import com.comapi.sample.StartupTrace;
 import com.comapi.sample.comapi.ComapiController;
 import com.comapi.sample.comapi.MainController;
 import com.comapi.sample.events.InitialisationEvent;
@@ -241,6 +242,9 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
          SDK finished initialising.
          */
 
+        // The app start is complete when the conversation list is drawn with the SDK ready
+        StartupTrace.finishOnNextDraw(findViewById(R.id.list_view_conversations), "conversation_list");
+
         // Get Controller for Comapi calls
         mainController = event.getController();
         // Get profile id for which Comapi SDK was authenticating session.
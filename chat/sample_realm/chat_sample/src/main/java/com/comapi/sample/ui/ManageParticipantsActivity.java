@@ -38,13 +38,14 @@ import android.widget.TextView;
 import com.comapi.sample.R;
 import com.comapi.sample.comapi.MainController;
 import com.comapi.sample.events.InitialisationEvent;
+import com.comapi.sample.ui.adapters.ParticipantList;
 import com.comapi.sample.ui.holders.ParticipantViewHolder;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Activity displaying participants for a conversation. Allows to add and remove participants.
@@ -56,7 +57,7 @@ public class ManageParticipantsActivity extends AppCompatActivity {
     /**
      * Participants ids passed to adapter.
      */
-    private ArrayList<String> data;
+    private ParticipantList data;
 
     /**
      * Adapter for participants list view
@@ -153,10 +154,10 @@ public class ManageParticipantsActivity extends AppCompatActivity {
         addButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                String participantId = participantEditText.getText().toString();
-                if (!TextUtils.isEmpty(participantId)) {
-                    // Send request to add participant to this conversation.
-                    mainController.getComapiController().getService().addParticipant(ManageParticipantsActivity.this.getApplicationContext(), conversationId, participantId);
+                String participantIds = participantEditText.getText().toString().trim();
+                if (!TextUtils.isEmpty(participantIds)) {
+                    // Send request to add participants to this conversation. Many profile ids can be separated with commas or spaces.
+                    mainController.getComapiController().getService().addParticipants(ManageParticipantsActivity.this.getApplicationContext(), conversationId, Arrays.asList(participantIds.split("[,\\s]+")));
                     participantEditText.setText("");
                 }
             }
@@ -180,7 +181,7 @@ public class ManageParticipantsActivity extends AppCompatActivity {
         ListView listView = (ListView) findViewById(R.id.list_of_participants);
         listView.setEmptyView(findViewById(android.R.id.empty));
 
-        data = new ArrayList<>();
+        data = new ParticipantList();
         //adapter = new ArrayAdapter<>(this,  android.R.layout.simple_list_item_1, data);
         adapter = new ArrayAdapter<String>(this, 0, data) {
             @NonNull
@@ -248,8 +249,9 @@ public class ManageParticipantsActivity extends AppCompatActivity {
                         runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
-                                data.add(profileId);
-                                adapter.notifyDataSetChanged();
+                                if (data.addParticipant(profileId)) {
+                                    adapter.notifyDataSetChanged();
+                                }
                                 // Hide progress bar
                                 overlay.setVisibility(View.GONE);
                             }
@@ -261,8 +263,9 @@ public class ManageParticipantsActivity extends AppCompatActivity {
                         runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
-                                data.remove(profileId);
-                                adapter.notifyDataSetChanged();
+                                if (data.removeParticipant(profileId)) {
+                                    adapter.notifyDataSetChanged();
+                                }
                                 // Hide progress bar
                                 overlay.setVisibility(View.GONE);
                             }
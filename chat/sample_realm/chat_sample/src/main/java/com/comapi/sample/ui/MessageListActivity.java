@@ -27,6 +27,7 @@ import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -34,6 +35,7 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
 
+import com.comapi.sample.Const;
 import com.comapi.sample.R;
 import com.comapi.sample.comapi.ComapiController;
 import com.comapi.sample.comapi.MainController;
@@ -159,6 +161,8 @@ public class MessageListActivity extends AppCompatActivity implements ComapiCont
         EventBus.getDefault().unregister(this);
         if (mainController != null) {
             mainController.getComapiController().removePagingCallback();
+            Log.d(Const.TAG, mainController.getComapiController().getRequestScheduler().toString());
+            mainController.getComapiController().getApiMetrics().export();
         }
     }
 
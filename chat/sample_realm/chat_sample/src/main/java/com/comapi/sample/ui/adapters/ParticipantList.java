@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.ui.adapters;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Participant profile ids in the order they were added, without duplicates. Adding, removing and checking a participant takes constant time,
+ * the positional view used by the list adapter is rebuilt once after a change, when the list view asks for the rows again.
+ * Read-only for the adapter, change the content with {@link #setAll}, {@link #addParticipant} and {@link #removeParticipant}.
+ */
+public class ParticipantList extends AbstractList<String> {
+
+    /**
+     * Participant profile ids in the order they were added.
+     */
+    private final LinkedHashSet<String> ids = new LinkedHashSet<>();
+
+    /**
+     * Positional copy of the ids, null after a change until a row is requested.
+     */
+    private List<String> positions;
+
+    /**
+     * Replace all participants.
+     *
+     * @param profileIds Profile ids of conversation participants.
+     */
+    public void setAll(Collection<String> profileIds) {
+        ids.clear();
+        ids.addAll(profileIds);
+        positions = null;
+    }
+
+    /**
+     * Add a participant at the end of the list.
+     *
+     * @param profileId Profile id of a participant.
+     * @return True if the participant wasn't on the list.
+     */
+    public boolean addParticipant(String profileId) {
+        if (ids.add(profileId)) {
+            positions = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove a participant.
+     *
+     * @param profileId Profile id of a participant.
+     * @return True if the participant was on the list.
+     */
+    public boolean removeParticipant(String profileId) {
+        if (ids.remove(profileId)) {
+            positions = null;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return ids.contains(o);
+    }
+
+    @Override
+    public String get(int location) {
+        if (positions == null) {
+            positions = new ArrayList<>(ids);
+        }
+        return positions.get(location);
+    }
+
+    @Override
+    public int size() {
+        return ids.size();
+    }
+}
@@ -13,26 +13,59 @@ import com.comapi.ComapiClient;
 import com.comapi.ComapiConfig;
 import com.comapi.internal.log.LogConfig;
 import com.comapi.internal.log.LogLevel;
+import com.dotdigital.deeplinksample.api.DotdigitalSdkApi;
 import com.dotdigital.deeplinksample.constants.*;
 import com.dotdigital.deeplinksample.handlers.AuthChallengeHandler;
+import com.dotdigital.deeplinksample.handlers.LocalTokenProvider;
 import com.dotdigital.deeplinksample.handlers.PushHandler;
+import com.dotdigital.deeplinksample.handlers.TimedTokenProvider;
+import com.dotdigital.deeplinksample.handlers.TokenMinter;
+import com.dotdigital.deeplinksample.handlers.TokenProvider;
+import com.dotdigital.deeplinksample.startup.InitScheduler;
+import com.dotdigital.deeplinksample.startup.StartupTrace;
 import com.google.firebase.FirebaseApp;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
 public class DeepLinkSampleApplication extends Application implements Callback<ComapiClient> {
 
+    private static final long TOKEN_TIMEOUT = 10000;
+
+    private final InitScheduler initScheduler = new InitScheduler();
+
+    private StartupTrace.Span sdkInitSpan;
+
     @Override
     public void onCreate() {
         super.onCreate();
 
+        StartupTrace.Span span = StartupTrace.begin("application_create");
+        StartupTrace.saveTo(new File(getFilesDir(), StartupTrace.FILE_NAME));
+        initScheduler.start(this);
+
+        // Profile fields already sent to the server, the session start skips the profile update when they haven't changed
+        DotdigitalSdkApi.init(new File(getFilesDir(), "profile_cache.properties"));
+
         /*
             Remember to generate google-services.json file on https://console.firebase.google.com and put it in to the app folder for Firebase push messaging to work
         */
 
         //Initialise Firebase (you will need this if using foundation push functionality)
-        FirebaseApp.initializeApp(this);
+        //FirebaseInitProvider added by the google-services plugin already initialises the default app before onCreate, so this is only a fallback run after the first frame
+        initScheduler.defer("firebase", new Runnable() {
+            @Override
+            public void run() {
+                if (FirebaseApp.getApps(DeepLinkSampleApplication.this).isEmpty()) {
+                    FirebaseApp.initializeApp(DeepLinkSampleApplication.this);
+                }
+            }
+        });
 
         // Initialise Foundation SDK
         initDotdigitalFoundationSDK();
+
+        span.end();
     }
 
     private void initDotdigitalFoundationSDK() {
@@ -52,13 +85,22 @@ public class DeepLinkSampleApplication extends Application implements Callback<C
             return;
         }
 
+        // Tokens are minted locally on a background thread, in realistic scenario they would be obtained from some auth provider service
+        TokenProvider tokenProvider = new TimedTokenProvider(new LocalTokenProvider(new TokenMinter(
+                DotdigitalConstants.SECRET.getBytes(StandardCharsets.UTF_8),
+                DotdigitalConstants.AUDIENCE,
+                DotdigitalConstants.ISSUER)), TOKEN_TIMEOUT);
+        // Get ready for the authentication challenge while the SDK initialises
+        tokenProvider.prefetch(DotdigitalConstants.PROFILE_ID);
+
         // Asynchronously initialise Foundation SDK client (retrieve it in callback)
+        sdkInitSpan = StartupTrace.begin("comapi_init");
         Comapi.initialiseShared(
                 this, new ComapiConfig()
                         // Set the id of the app space, the device belongs to
                         .apiSpaceId(DotdigitalConstants.API_SPACE_ID)
                         // Sets handler for authentication challenges (SDK asking for JWT token)
-                        .authenticator(new AuthChallengeHandler())
+                        .authenticator(new AuthChallengeHandler(tokenProvider))
                         // Display all available logs to the console, don't log to the file
                         .logConfig(new LogConfig().setFileLevel(LogLevel.OFF).setConsoleLevel(LogLevel.DEBUG).setNetworkLevel(LogLevel.DEBUG))
                         // If FCM has been set up you can intercept the push messages here. You will need to put google-services.json file obtained on https://console.firebase.google.com/ into this project for FCM to work.
@@ -68,6 +110,8 @@ public class DeepLinkSampleApplication extends Application implements Callback<C
     }
 
     private void notifyActivitySdkInitialised() {
+        sdkInitSpan.end();
+        StartupTrace.finish("initialised");
         Intent intent = new Intent(AppConstants.INITIALISED);
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
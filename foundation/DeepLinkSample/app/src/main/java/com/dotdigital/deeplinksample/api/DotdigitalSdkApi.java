@@ -1,15 +1,27 @@
 package com.dotdigital.deeplinksample.api;
 
+import android.os.SystemClock;
+import android.util.Log;
+
 import com.comapi.Callback;
 import com.comapi.Comapi;
 import com.comapi.Session;
 import com.comapi.internal.network.ComapiResult;
+import com.dotdigital.deeplinksample.constants.AppConstants;
 
+import java.io.File;
+import java.net.HttpURLConnection;
 import java.util.HashMap;
 import java.util.Map;
 
 public class DotdigitalSdkApi {
 
+    private static ProfileCache profileCache;
+
+    static public void init(File profileCacheFile) {
+        profileCache = new ProfileCache(profileCacheFile);
+    }
+
     static public void endSession(SimpleCallback callback) {
         Comapi.getShared().service().session().endSession(new Callback<ComapiResult<Void>>() {
             @Override
@@ -29,11 +41,20 @@ public class DotdigitalSdkApi {
     }
 
     static public void startSession(SimpleCallback callback) {
+        final long start = SystemClock.elapsedRealtime();
         Comapi.getShared().service().session().startSession(new Callback<Session>() {
             @Override
             public void success(Session session) {
                 if (session != null && session.isSuccessfullyCreated()) {
-                    updateProfileWithEmail(session.getProfileId()+"@email.com", callback);
+                    long sessionTime = SystemClock.elapsedRealtime() - start;
+                    Map<String, Object> fields = new HashMap<>();
+                    fields.put("email", session.getProfileId() + "@email.com");
+                    if (profileCache != null && profileCache.diff(session.getProfileId(), fields).isEmpty()) {
+                        Log.i(AppConstants.APP_TAG, "Session ready in " + sessionTime + " ms, profile unchanged, update skipped.");
+                        callback.success();
+                    } else {
+                        updateProfile(session.getProfileId(), fields, start, sessionTime, true, callback);
+                    }
                 } else {
                     callback.error("Error when logging in.");
                 }
@@ -46,12 +67,21 @@ public class DotdigitalSdkApi {
         });
     }
 
-    static private void updateProfileWithEmail(String email, SimpleCallback callback) {
-        Map<String, Object> update = new HashMap<>();
-        update.put("email", email);
-        Comapi.getShared().service().profile().updateProfile(update, null, new Callback<ComapiResult<Map<String, Object>>>() {
+    // updateProfile replaces the whole profile, so all fields the app manages are sent once any of them changed.
+    static private void updateProfile(String profileId, Map<String, Object> fields, long start, long sessionTime, boolean useETag, SimpleCallback callback) {
+        String eTag = useETag && profileCache != null ? profileCache.getETag(profileId) : null;
+        Comapi.getShared().service().profile().updateProfile(fields, eTag, new Callback<ComapiResult<Map<String, Object>>>() {
             @Override
-            public void success(ComapiResult<Map<String, Object>> session) {
+            public void success(ComapiResult<Map<String, Object>> result) {
+                if (result != null && result.getCode() == HttpURLConnection.HTTP_PRECON_FAILED && eTag != null) {
+                    // Profile has been changed elsewhere since it was cached, overwrite it as before the cache existed.
+                    updateProfile(profileId, fields, start, sessionTime, false, callback);
+                    return;
+                }
+                if (result != null && result.isSuccessful() && profileCache != null) {
+                    profileCache.update(profileId, fields, result.getETag());
+                }
+                Log.i(AppConstants.APP_TAG, "Session ready in " + (SystemClock.elapsedRealtime() - start) + " ms, " + sessionTime + " ms without the profile update.");
                 callback.success();
             }
 
@@ -0,0 +1,109 @@
+package com.dotdigital.deeplinksample.api;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+    Last known profile fields written by the app and the ETag the server returned for them, kept in a small properties file so they survive restarts. Values are compared as strings. Read lazily on first use.
+*/
+public class ProfileCache {
+
+    private static final String KEY_PROFILE_ID = "profileId";
+    private static final String KEY_ETAG = "eTag";
+    private static final String FIELD_PREFIX = "field.";
+
+    private final File file;
+    private Properties properties;
+
+    public ProfileCache(File file) {
+        this.file = file;
+    }
+
+    public synchronized Map<String, Object> diff(String profileId, Map<String, Object> fields) {
+        Properties cached = load();
+        Map<String, Object> changed = new HashMap<>();
+        boolean sameProfile = profileId.equals(cached.getProperty(KEY_PROFILE_ID));
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            String value = entry.getValue() != null ? String.valueOf(entry.getValue()) : null;
+            if (!sameProfile || value == null || !value.equals(cached.getProperty(FIELD_PREFIX + entry.getKey()))) {
+                changed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return changed;
+    }
+
+    public synchronized String getETag(String profileId) {
+        Properties cached = load();
+        return profileId.equals(cached.getProperty(KEY_PROFILE_ID)) ? cached.getProperty(KEY_ETAG) : null;
+    }
+
+    public synchronized void update(String profileId, Map<String, Object> fields, String eTag) {
+        Properties cached = load();
+        if (!profileId.equals(cached.getProperty(KEY_PROFILE_ID))) {
+            cached.clear();
+            cached.setProperty(KEY_PROFILE_ID, profileId);
+        }
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            if (entry.getValue() != null) {
+                cached.setProperty(FIELD_PREFIX + entry.getKey(), String.valueOf(entry.getValue()));
+            } else {
+                cached.remove(FIELD_PREFIX + entry.getKey());
+            }
+        }
+        if (eTag != null) {
+            cached.setProperty(KEY_ETAG, eTag);
+        } else {
+            cached.remove(KEY_ETAG);
+        }
+        save(cached);
+    }
+
+    private Properties load() {
+        if (properties == null) {
+            properties = new Properties();
+            if (file.exists()) {
+                InputStream in = null;
+                try {
+                    in = new FileInputStream(file);
+                    properties.load(in);
+                } catch (IOException e) {
+                    // Unreadable cache only costs one profile update.
+                    properties.clear();
+                } finally {
+                    close(in);
+                }
+            }
+        }
+        return properties;
+    }
+
+    private void save(Properties cached) {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            cached.store(out, null);
+        } catch (IOException e) {
+            // Next session will update the profile again.
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
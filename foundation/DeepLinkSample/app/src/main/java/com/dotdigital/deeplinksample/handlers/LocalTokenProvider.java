@@ -0,0 +1,43 @@
+package com.dotdigital.deeplinksample.handlers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class LocalTokenProvider implements TokenProvider {
+
+    private final TokenMinter minter;
+    private final ExecutorService executor;
+
+    public LocalTokenProvider(TokenMinter minter) {
+        this.minter = minter;
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public void prefetch(final String profileId) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Minting a throwaway token loads the JWT and crypto classes, the first challenge doesn't pay for it.
+                minter.mint(profileId, "prefetch");
+            }
+        });
+    }
+
+    @Override
+    public void requestToken(final String profileId, final String nonce, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String token;
+                try {
+                    token = minter.mint(profileId, nonce);
+                } catch (RuntimeException e) {
+                    callback.onError(e);
+                    return;
+                }
+                callback.onToken(token);
+            }
+        });
+    }
+}
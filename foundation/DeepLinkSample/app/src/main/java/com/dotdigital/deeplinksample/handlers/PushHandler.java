@@ -6,20 +6,44 @@ import com.comapi.ComapiClient;
 import com.comapi.PushDetails;
 import com.comapi.internal.push.PushMessageListener;
 import com.dotdigital.deeplinksample.constants.AppConstants;
+import com.dotdigital.deeplinksample.push.PushPipeline;
 import com.google.firebase.messaging.RemoteMessage;
 
-import org.json.JSONException;
+import java.util.concurrent.TimeUnit;
 
 public class PushHandler implements PushMessageListener {
 
+    // FCM may deliver the same message again, e.g. after a reconnect, repeats within this window are ignored.
+    private static final long DUPLICATE_WINDOW = TimeUnit.MINUTES.toMillis(10);
+    private static final int DUPLICATE_CAPACITY = 1000;
+
+    private final PushPipeline<RemoteMessage, PushDetails> pipeline = new PushPipeline<>(
+            new PushPipeline.Parser<RemoteMessage, PushDetails>() {
+                @Override
+                public String getId(RemoteMessage message) {
+                    return message.getMessageId();
+                }
+
+                @Override
+                public PushDetails parse(RemoteMessage message) throws Exception {
+                    return ComapiClient.parsePushMessage(message);
+                }
+            },
+            new PushPipeline.Listener<RemoteMessage, PushDetails>() {
+                @Override
+                public void onPush(PushDetails result) {
+                    Log.i(AppConstants.APP_TAG, "Received push message with data = " + (result.getData() != null ? result.getData().toString() : "null") + " and deep link = " + result.getUrl());
+                }
+
+                @Override
+                public void onError(RemoteMessage message, Exception e) {
+                    Log.e(AppConstants.APP_TAG, "Error parsing push message " + message.getMessageId(), e);
+                }
+            },
+            DUPLICATE_WINDOW, DUPLICATE_CAPACITY);
+
     @Override
     public void onMessageReceived(RemoteMessage message) {
-
-        try {
-            PushDetails result = ComapiClient.parsePushMessage(message);
-            Log.i(AppConstants.APP_TAG, "Received push message with data = " + (result.getData() != null ? result.getData().toString() : "null") + " and deep link = " + result.getUrl());
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
+        pipeline.submit(message);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package com.dotdigital.deeplinksample.handlers;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TimedTokenProvider implements TokenProvider {
+
+    private final TokenProvider provider;
+    private final long timeout;
+    private final ScheduledExecutorService scheduler;
+
+    public TimedTokenProvider(TokenProvider provider, long timeout) {
+        this.provider = provider;
+        this.timeout = timeout;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "token-timeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void prefetch(String profileId) {
+        provider.prefetch(profileId);
+    }
+
+    @Override
+    public void requestToken(String profileId, String nonce, final Callback callback) {
+
+        final AtomicBoolean answered = new AtomicBoolean();
+
+        final ScheduledFuture<?> expiry = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (answered.compareAndSet(false, true)) {
+                    callback.onError(new TimeoutException("No token within " + timeout + " ms"));
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        provider.requestToken(profileId, nonce, new Callback() {
+            @Override
+            public void onToken(String token) {
+                if (answered.compareAndSet(false, true)) {
+                    expiry.cancel(false);
+                    callback.onToken(token);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (answered.compareAndSet(false, true)) {
+                    expiry.cancel(false);
+                    callback.onError(t);
+                }
+            }
+        });
+    }
+}
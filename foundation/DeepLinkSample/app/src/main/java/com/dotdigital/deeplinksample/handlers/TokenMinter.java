@@ -0,0 +1,52 @@
+package com.dotdigital.deeplinksample.handlers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+public class TokenMinter {
+
+    private static final long TOKEN_VALIDITY = TimeUnit.DAYS.toMillis(30);
+
+    private final SecretKeySpec signingKey;
+    private final Map<String, Object> headerTemplate;
+    private final Map<String, Object> claimsTemplate;
+
+    public TokenMinter(byte[] secret, String audience, String issuer) {
+
+        signingKey = new SecretKeySpec(secret, SignatureAlgorithm.HS256.getJcaName());
+
+        Map<String, Object> header = new HashMap<>();
+        header.put("typ", "JWT");
+        headerTemplate = Collections.unmodifiableMap(header);
+
+        // Claims as defined in ApiSpace configuration.
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("aud", audience);
+        claims.put("iss", issuer);
+        claimsTemplate = Collections.unmodifiableMap(claims);
+    }
+
+    public String mint(String profileId, String nonce) {
+
+        // The builder keeps the claims map it is given, so each token gets its own copy of the template.
+        Map<String, Object> claims = new HashMap<>(claimsTemplate);
+        long now = System.currentTimeMillis();
+        claims.put("nonce", nonce);
+        claims.put("sub", profileId);
+        claims.put("iat", now);
+        claims.put("exp", now + TOKEN_VALIDITY);
+
+        return Jwts.builder()
+                .setHeaderParams(headerTemplate)
+                .setClaims(claims)
+                .signWith(SignatureAlgorithm.HS256, signingKey)
+                .compact();
+    }
+}
@@ -0,0 +1,15 @@
+package com.dotdigital.deeplinksample.handlers;
+
+public interface TokenProvider {
+
+    interface Callback {
+
+        void onToken(String token);
+
+        void onError(Throwable t);
+    }
+
+    void prefetch(String profileId);
+
+    void requestToken(String profileId, String nonce, Callback callback);
+}
@@ -0,0 +1,109 @@
+package com.dotdigital.deeplinksample.push;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Takes push messages off the delivery thread. Messages with an id already seen within the de-duplication window are dropped before parsing, at most capacity most recent ids are remembered, the rest are parsed and handed to the listener in arrival order on a single background thread.
+*/
+public class PushPipeline<M, P> {
+
+    public interface Parser<M, P> {
+
+        String getId(M message);
+
+        P parse(M message) throws Exception;
+    }
+
+    public interface Listener<M, P> {
+
+        void onPush(P push);
+
+        void onError(M message, Exception e);
+    }
+
+    private final Parser<M, P> parser;
+    private final Listener<M, P> listener;
+    private final long window;
+    private final int capacity;
+    private final ExecutorService executor;
+
+    // Insertion ordered, so the oldest ids are always at the head.
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public PushPipeline(Parser<M, P> parser, Listener<M, P> listener, long window, int capacity) {
+        this.parser = parser;
+        this.listener = listener;
+        this.window = window;
+        this.capacity = capacity;
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    public void submit(final M message) {
+        received.incrementAndGet();
+        String id = parser.getId(message);
+        if (id != null && !firstDelivery(id)) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                P push;
+                try {
+                    push = parser.parse(message);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    listener.onError(message, e);
+                    return;
+                }
+                processed.incrementAndGet();
+                listener.onPush(push);
+            }
+        });
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    private boolean firstDelivery(String id) {
+        long now = System.nanoTime() / 1000000;
+        synchronized (seen) {
+            Iterator<Map.Entry<String, Long>> iterator = seen.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (now - entry.getValue() < window && seen.size() < capacity) {
+                    break;
+                }
+                iterator.remove();
+            }
+            if (seen.containsKey(id)) {
+                return false;
+            }
+            seen.put(id, now);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.dotdigital.deeplinksample.startup;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+/*
+    Runs initialisation work that isn't needed to display the first screen after the first activity frame has been drawn. Deferred tasks run on the main thread one per idle pass of the main looper, so they don't delay frames or input handling. All methods should be called on the main thread.
+*/
+public class InitScheduler {
+
+    private static class Task {
+
+        final String name;
+
+        final Runnable runnable;
+
+        Task(String name, Runnable runnable) {
+            this.name = name;
+            this.runnable = runnable;
+        }
+    }
+
+    private final Queue<Task> tasks = new LinkedList<>();
+
+    private boolean firstFrameDrawn;
+
+    private boolean idleHandlerAdded;
+
+    private final MessageQueue.IdleHandler idleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            Task task = tasks.poll();
+            if (task != null) {
+                StartupTrace.Span span = StartupTrace.begin(task.name);
+                task.runnable.run();
+                span.end();
+            }
+            idleHandlerAdded = !tasks.isEmpty();
+            return idleHandlerAdded;
+        }
+    };
+
+    public void start(final Application application) {
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+                application.unregisterActivityLifecycleCallbacks(this);
+                runAfterNextDraw(activity.getWindow().getDecorView(), new Runnable() {
+                    @Override
+                    public void run() {
+                        StartupTrace.mark("first_frame");
+                        firstFrameDrawn = true;
+                        scheduleIdle();
+                    }
+                });
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    public void defer(String name, Runnable runnable) {
+        tasks.add(new Task(name, runnable));
+        if (firstFrameDrawn) {
+            scheduleIdle();
+        }
+    }
+
+    private void scheduleIdle() {
+        if (!idleHandlerAdded && !tasks.isEmpty()) {
+            idleHandlerAdded = true;
+            Looper.myQueue().addIdleHandler(idleHandler);
+        }
+    }
+
+    static void runAfterNextDraw(final View view, final Runnable action) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                view.post(action);
+                return true;
+            }
+        });
+        view.invalidate();
+    }
+}
@@ -0,0 +1,156 @@
+package com.dotdigital.deeplinksample.startup;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import com.dotdigital.deeplinksample.BuildConfig;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Records named spans of the application start measured from the process start, until the SDK INITIALISED broadcast. The finished trace is printed to the log and appended to a tab separated file in the app files directory so the start of different builds can be compared.
+*/
+public class StartupTrace {
+
+    public static final String TAG = "StartupTrace";
+
+    public static final String FILE_NAME = "startup_trace.tsv";
+
+    private static final long PROCESS_START = Process.getStartElapsedRealtime();
+
+    private static final List<Record> records = new ArrayList<>();
+
+    private static File output;
+
+    private static boolean finished;
+
+    private static class Record {
+
+        final String name;
+
+        final String thread;
+
+        final long start;
+
+        long duration = -1;
+
+        Record(String name, long start) {
+            this.name = name;
+            this.thread = Thread.currentThread().getName();
+            this.start = start;
+        }
+    }
+
+    public static class Span {
+
+        private final Record record;
+
+        private Span(Record record) {
+            this.record = record;
+        }
+
+        public void end() {
+            synchronized (records) {
+                if (record != null && record.duration == -1) {
+                    record.duration = SystemClock.elapsedRealtime() - record.start;
+                }
+            }
+        }
+    }
+
+    public static void saveTo(File file) {
+        synchronized (records) {
+            output = file;
+        }
+    }
+
+    public static Span begin(String name) {
+        synchronized (records) {
+            if (finished) {
+                return new Span(null);
+            }
+            Record record = new Record(name, SystemClock.elapsedRealtime());
+            records.add(record);
+            return new Span(record);
+        }
+    }
+
+    public static void mark(String name) {
+        begin(name);
+    }
+
+    public static void finish(String milestone) {
+        final String trace;
+        final File file;
+        synchronized (records) {
+            if (finished) {
+                return;
+            }
+            mark(milestone);
+            finished = true;
+            trace = dump();
+            file = output;
+        }
+        Log.i(TAG, trace);
+        if (file != null) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    append(file, trace);
+                }
+            }, TAG).start();
+        }
+    }
+
+    public static void finishOnNextDraw(View view, final String milestone) {
+        InitScheduler.runAfterNextDraw(view, new Runnable() {
+            @Override
+            public void run() {
+                finish(milestone);
+            }
+        });
+    }
+
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (records) {
+            sb.append(String.format(Locale.ENGLISH, "# %s %s (%d) %s\n", Build.MODEL, BuildConfig.VERSION_NAME, BuildConfig.VERSION_CODE, BuildConfig.BUILD_TYPE));
+            for (Record record : records) {
+                sb.append(record.name).append('\t')
+                        .append(record.start - PROCESS_START).append('\t')
+                        .append(record.duration == -1 ? "-" : String.valueOf(record.duration)).append('\t')
+                        .append(record.thread).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void append(File file, String trace) {
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            writer.write(trace);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving startup trace: " + e.getLocalizedMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
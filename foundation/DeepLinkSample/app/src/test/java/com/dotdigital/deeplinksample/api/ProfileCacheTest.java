@@ -0,0 +1,67 @@
+package com.dotdigital.deeplinksample.api;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ProfileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "profile_cache.properties");
+    }
+
+    @Test
+    public void emptyCache_reportsAllFields() {
+        ProfileCache cache = new ProfileCache(file);
+
+        Map<String, Object> diff = cache.diff("profile", Collections.<String, Object>singletonMap("email", "a@email.com"));
+
+        assertEquals(Collections.<String, Object>singletonMap("email", "a@email.com"), diff);
+        assertNull(cache.getETag("profile"));
+    }
+
+    @Test
+    public void unchangedFields_survivingRestart_reportNoDiff() {
+        new ProfileCache(file).update("profile", Collections.<String, Object>singletonMap("email", "a@email.com"), "etag-1");
+
+        ProfileCache cache = new ProfileCache(file);
+
+        assertTrue(cache.diff("profile", Collections.<String, Object>singletonMap("email", "a@email.com")).isEmpty());
+        assertEquals("etag-1", cache.getETag("profile"));
+    }
+
+    @Test
+    public void changedField_isReported() {
+        ProfileCache cache = new ProfileCache(file);
+        cache.update("profile", Collections.<String, Object>singletonMap("email", "a@email.com"), "etag-1");
+
+        Map<String, Object> diff = cache.diff("profile", Collections.<String, Object>singletonMap("email", "b@email.com"));
+
+        assertEquals(Collections.<String, Object>singletonMap("email", "b@email.com"), diff);
+    }
+
+    @Test
+    public void otherProfile_doesNotUseCachedFields() {
+        ProfileCache cache = new ProfileCache(file);
+        cache.update("profile", Collections.<String, Object>singletonMap("email", "a@email.com"), "etag-1");
+
+        assertFalse(cache.diff("other", Collections.<String, Object>singletonMap("email", "a@email.com")).isEmpty());
+        assertNull(cache.getETag("other"));
+
+        cache.update("other", Collections.<String, Object>singletonMap("email", "a@email.com"), null);
+        assertFalse(cache.diff("profile", Collections.<String, Object>singletonMap("email", "a@email.com")).isEmpty());
+    }
+}
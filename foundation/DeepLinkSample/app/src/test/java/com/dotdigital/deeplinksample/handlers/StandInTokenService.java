@@ -0,0 +1,98 @@
+package com.dotdigital.deeplinksample.handlers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    In-process stand-in for an auth provider service. Every request waits for the injected latency, the first request for a profile not prefetched additionally waits for the cold start latency.
+    When a gate is set, requests count down its arrivals and are held until it is released.
+*/
+class StandInTokenService implements TokenProvider {
+
+    static final byte[] SECRET = "stand-in-secret".getBytes(StandardCharsets.UTF_8);
+
+    private final TokenMinter minter = new TokenMinter(SECRET, "local", "local");
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Set<String> warm = Collections.synchronizedSet(new HashSet<String>());
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger coldRequests = new AtomicInteger();
+    private final Semaphore prefetched = new Semaphore(0);
+
+    volatile long latency;
+    volatile long coldLatency;
+    volatile boolean failing;
+    volatile CountDownLatch arrivals;
+    volatile CountDownLatch release;
+
+    @Override
+    public void prefetch(final String profileId) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sleep(coldLatency);
+                warm.add(profileId);
+                prefetched.release();
+            }
+        });
+    }
+
+    @Override
+    public void requestToken(final String profileId, final String nonce, final Callback callback) {
+        requests.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (arrivals != null) {
+                    arrivals.countDown();
+                    await(release);
+                }
+                sleep(latency);
+                if (warm.add(profileId)) {
+                    coldRequests.incrementAndGet();
+                    sleep(coldLatency);
+                }
+                if (failing) {
+                    callback.onError(new IllegalStateException("Auth service unavailable"));
+                } else {
+                    callback.onToken(minter.mint(profileId, nonce));
+                }
+            }
+        });
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    int getColdRequests() {
+        return coldRequests.get();
+    }
+
+    boolean awaitPrefetch() throws InterruptedException {
+        return prefetched.tryAcquire(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.dotdigital.deeplinksample.handlers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.jsonwebtoken.Jwts;
+
+import static org.junit.Assert.*;
+
+public class TimedTokenProviderTest {
+
+    private static final long TIMEOUT = 500;
+
+    private StandInTokenService service;
+    private TimedTokenProvider provider;
+
+    private static class Result implements TokenProvider.Callback {
+
+        final CountDownLatch answered = new CountDownLatch(1);
+        final List<Object> answers = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onToken(String token) {
+            answers.add(token);
+            answered.countDown();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            answers.add(t);
+            answered.countDown();
+        }
+
+        Object await() throws InterruptedException {
+            assertTrue(answered.await(5, TimeUnit.SECONDS));
+            return answers.get(0);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        service = new StandInTokenService();
+        provider = new TimedTokenProvider(service, TIMEOUT);
+    }
+
+    @Test
+    public void tokenWithinTimeout_isDelivered() throws InterruptedException {
+        service.latency = 50;
+
+        Result result = new Result();
+        provider.requestToken("profile", "nonce-1", result);
+
+        Object answer = result.await();
+        assertTrue(answer instanceof String);
+        assertEquals("nonce-1", Jwts.parser().setSigningKey(StandInTokenService.SECRET).parseClaimsJws((String) answer).getBody().get("nonce"));
+    }
+
+    @Test
+    public void slowService_timesOutOnce() throws InterruptedException {
+        service.latency = TIMEOUT * 2;
+
+        Result result = new Result();
+        provider.requestToken("profile", "nonce-1", result);
+
+        assertTrue(result.await() instanceof TimeoutException);
+        // The late token must not reach the SDK after it has been told that authentication failed.
+        Thread.sleep(TIMEOUT * 2);
+        assertEquals(1, result.answers.size());
+    }
+
+    @Test
+    public void serviceError_isDelivered() throws InterruptedException {
+        service.failing = true;
+
+        Result result = new Result();
+        provider.requestToken("profile", "nonce-1", result);
+
+        assertTrue(result.await() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void prefetch_takesColdStartOffTheChallenge() throws InterruptedException {
+        service.coldLatency = 50;
+
+        provider.prefetch("profile");
+        assertTrue(service.awaitPrefetch());
+
+        Result result = new Result();
+        provider.requestToken("profile", "nonce-1", result);
+        assertTrue(result.await() instanceof String);
+
+        assertEquals(0, service.getColdRequests());
+    }
+
+    @Test
+    public void challengeWithoutPrefetch_paysColdStart() throws InterruptedException {
+        service.coldLatency = 50;
+
+        Result result = new Result();
+        provider.requestToken("profile", "nonce-1", result);
+        assertTrue(result.await() instanceof String);
+
+        assertEquals(1, service.getColdRequests());
+    }
+
+    @Test
+    public void concurrentChallenges_areNotSerialised() throws InterruptedException {
+        Result[] results = new Result[5];
+        service.arrivals = new CountDownLatch(results.length);
+        service.release = new CountDownLatch(1);
+
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new Result();
+            provider.requestToken("profile-" + i, "nonce-" + i, results[i]);
+        }
+
+        // Every challenge reaches the service while none of them has been answered yet.
+        assertTrue(service.arrivals.await(5, TimeUnit.SECONDS));
+        for (Result result : results) {
+            assertTrue(result.answers.isEmpty());
+        }
+
+        service.release.countDown();
+        for (Result result : results) {
+            assertTrue(result.await() instanceof String);
+        }
+        assertEquals(results.length, service.getRequests());
+    }
+}
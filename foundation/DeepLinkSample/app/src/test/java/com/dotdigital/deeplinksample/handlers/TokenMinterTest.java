@@ -0,0 +1,125 @@
+package com.dotdigital.deeplinksample.handlers;
+
+import com.dotdigital.deeplinksample.constants.DotdigitalConstants;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import static org.junit.Assert.*;
+
+public class TokenMinterTest {
+
+    private static final byte[] SECRET = DotdigitalConstants.SECRET.getBytes(StandardCharsets.UTF_8);
+    private static final int WARM_UP = 2000;
+    private static final int ITERATIONS = 20000;
+
+    @Test
+    public void mintedToken_verifiesWithSharedSecret() {
+        TokenMinter minter = new TokenMinter(SECRET, DotdigitalConstants.AUDIENCE, DotdigitalConstants.ISSUER);
+
+        String token = minter.mint("profile", "nonce-1");
+        Claims claims = Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token).getBody();
+
+        assertEquals("profile", claims.getSubject());
+        assertEquals("nonce-1", claims.get("nonce"));
+        assertEquals(DotdigitalConstants.AUDIENCE, claims.getAudience());
+        assertEquals(DotdigitalConstants.ISSUER, claims.getIssuer());
+        assertEquals("JWT", Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token).getHeader().getType());
+    }
+
+    @Test
+    public void mintedTokens_doNotShareClaims() {
+        TokenMinter minter = new TokenMinter(SECRET, DotdigitalConstants.AUDIENCE, DotdigitalConstants.ISSUER);
+
+        String first = minter.mint("profile-1", "nonce-1");
+        String second = minter.mint("profile-2", "nonce-2");
+
+        assertEquals("profile-1", Jwts.parser().setSigningKey(SECRET).parseClaimsJws(first).getBody().getSubject());
+        assertEquals("nonce-2", Jwts.parser().setSigningKey(SECRET).parseClaimsJws(second).getBody().get("nonce"));
+    }
+
+    @Test
+    public void mintedToken_verifiesWithLegacyBase64Key() {
+        TokenMinter minter = new TokenMinter(SECRET, DotdigitalConstants.AUDIENCE, DotdigitalConstants.ISSUER);
+        String base64Secret = Base64.getEncoder().encodeToString(SECRET);
+
+        String token = minter.mint("profile", "nonce-1");
+        Claims claims = Jwts.parser().setSigningKey(base64Secret).parseClaimsJws(token).getBody();
+
+        assertEquals("profile", claims.getSubject());
+        assertEquals("nonce-1", claims.get("nonce"));
+    }
+
+    @Test
+    public void legacyToken_verifiesWithSameKey() {
+        String token = mintLegacy("profile", "nonce-1");
+
+        Claims claims = Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token).getBody();
+
+        assertEquals("profile", claims.getSubject());
+    }
+
+    /*
+     Challenge-to-token latency of the per-challenge key and map setup versus the prepared minter. Only prints timings, so it is ignored in regular runs.
+     Remove @Ignore and run with ./gradlew :app:testDebugUnitTest --tests "*TokenMinterTest*" -i to see the report.
+     */
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void challengeToTokenLatency() {
+        TokenMinter minter = new TokenMinter(SECRET, DotdigitalConstants.AUDIENCE, DotdigitalConstants.ISSUER);
+
+        for (int i = 0; i < WARM_UP; i++) {
+            mintLegacy("profile", "nonce-" + i);
+            minter.mint("profile", "nonce-" + i);
+        }
+
+        long legacy = 0;
+        long minted = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            String a = mintLegacy("profile", "nonce-" + i);
+            long middle = System.nanoTime();
+            String b = minter.mint("profile", "nonce-" + i);
+            long end = System.nanoTime();
+            legacy += middle - start;
+            minted += end - middle;
+            assertNotNull(a);
+            assertNotNull(b);
+        }
+
+        System.out.println(String.format("challenge-to-token: legacy %.2f us/op, minter %.2f us/op (%d iterations)",
+                legacy / 1000.0 / ITERATIONS, minted / 1000.0 / ITERATIONS, ITERATIONS));
+    }
+
+    // Token creation as AuthChallengeHandler did it before the minter, with java.util.Base64 standing in for android.util.Base64.
+    private static String mintLegacy(String profileId, String nonce) {
+        String base64Secret = Base64.getEncoder().encodeToString(DotdigitalConstants.SECRET.getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> header = new HashMap<>();
+        header.put("typ", "JWT");
+
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("nonce", nonce);
+        claims.put("sub", profileId);
+        claims.put("aud", DotdigitalConstants.AUDIENCE);
+        claims.put("iss", DotdigitalConstants.ISSUER);
+        claims.put("iat", System.currentTimeMillis());
+        claims.put("exp", System.currentTimeMillis() + TimeUnit.DAYS.toMillis(30));
+
+        return Jwts.builder()
+                .setHeader(header)
+                .setClaims(claims)
+                .signWith(SignatureAlgorithm.HS256, base64Secret)
+                .compact();
+    }
+}
@@ -0,0 +1,117 @@
+package com.dotdigital.deeplinksample.push;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/*
+    Floods the pipeline with synthetic pushes from several delivery threads. Every message is delivered twice, so half of the submissions are duplicates.
+*/
+public class PushPipelineLoadTest {
+
+    private static final int THREADS = 4;
+    private static final int MESSAGES_PER_THREAD = 25000;
+    private static final int UNIQUE = THREADS * MESSAGES_PER_THREAD;
+
+    // Synthetic payload in the shape of an FCM data message: id|deep link|data.
+    private static final PushPipeline.Parser<String, String[]> PARSER = new PushPipeline.Parser<String, String[]>() {
+        @Override
+        public String getId(String message) {
+            return message.substring(0, message.indexOf('|'));
+        }
+
+        @Override
+        public String[] parse(String message) {
+            return message.split("\\|");
+        }
+    };
+
+    @Test
+    public void flood_isDeduplicated() throws InterruptedException {
+
+        final Map<String, Integer> handled = new ConcurrentHashMap<>();
+        final AtomicInteger handledAgain = new AtomicInteger();
+        final CountDownLatch allHandled = new CountDownLatch(UNIQUE);
+
+        // Producers interleave freely, so the id set holds every message, a smaller one could forget a message before its second delivery arrives.
+        final PushPipeline<String, String[]> pipeline = new PushPipeline<>(PARSER, new PushPipeline.Listener<String, String[]>() {
+            @Override
+            public void onPush(String[] push) {
+                if (handled.put(push[0], 1) != null) {
+                    handledAgain.incrementAndGet();
+                }
+                allHandled.countDown();
+            }
+
+            @Override
+            public void onError(String message, Exception e) {
+            }
+        }, TimeUnit.MINUTES.toMillis(10), UNIQUE);
+
+        Thread[] producers = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                        String message = "m-" + thread + "-" + i + "|app://deeplink/" + i + "|{\"n\":" + i + "}";
+                        pipeline.submit(message);
+                        pipeline.submit(message);
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long submitted = System.nanoTime() - start;
+
+        assertTrue(allHandled.await(60, TimeUnit.SECONDS));
+        long total = System.nanoTime() - start;
+
+        assertEquals(UNIQUE * 2, pipeline.getReceived());
+        assertEquals(UNIQUE, pipeline.getDuplicates());
+        assertEquals(UNIQUE, pipeline.getProcessed());
+        assertEquals(0, pipeline.getFailed());
+        assertEquals(UNIQUE, handled.size());
+        assertEquals(0, handledAgain.get());
+
+        System.out.println(String.format("push pipeline: %d deliveries from %d threads, submit %.0f/s (%.2f us/delivery on the delivery thread), end to end %.0f unique pushes/s",
+                UNIQUE * 2, THREADS,
+                UNIQUE * 2 / (submitted / 1e9), submitted / 1000.0 / (UNIQUE * 2),
+                UNIQUE / (total / 1e9)));
+    }
+
+    @Test
+    public void redeliveryAfterWindow_isProcessedAgain() throws InterruptedException {
+
+        final CountDownLatch processed = new CountDownLatch(2);
+        PushPipeline<String, String[]> pipeline = new PushPipeline<>(PARSER, new PushPipeline.Listener<String, String[]>() {
+            @Override
+            public void onPush(String[] push) {
+                processed.countDown();
+            }
+
+            @Override
+            public void onError(String message, Exception e) {
+            }
+        }, 50, 100);
+
+        pipeline.submit("m-1|url|data");
+        pipeline.submit("m-1|url|data");
+        Thread.sleep(100);
+        pipeline.submit("m-1|url|data");
+
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, pipeline.getDuplicates());
+    }
+}
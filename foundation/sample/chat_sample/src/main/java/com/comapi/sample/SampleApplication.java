@@ -33,12 +33,18 @@ import com.comapi.internal.log.LogLevel;
 import com.comapi.sample.comapi.AuthChallengeHandler;
 import com.comapi.sample.comapi.ComapiController;
 import com.comapi.sample.comapi.EventsHandler;
+import com.comapi.sample.comapi.LocalTokenProvider;
 import com.comapi.sample.comapi.PushHandler;
+import com.comapi.sample.comapi.TimedTokenProvider;
+import com.comapi.sample.comapi.TokenMinter;
 import com.comapi.sample.events.Initialisation;
 import com.google.firebase.FirebaseApp;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.io.File;
+import java.nio.charset.Charset;
+
 /**
  * Application class, Comapi SDK initialisation should be called in {@link SampleApplication#onCreate} method
  *
@@ -46,23 +52,64 @@ import org.greenrobot.eventbus.EventBus;
  */
 public class SampleApplication extends MultiDexApplication implements Callback<ComapiClient> {
 
+    /**
+     * Time in milliseconds after which an authentication challenge fails if no token has been issued.
+     */
+    private static final long TOKEN_TIMEOUT = 10000;
+
     private ComapiController comapiController;
 
+    /**
+     * Runs initialisation not needed for the first screen after the first frame.
+     */
+    private final InitScheduler initScheduler = new InitScheduler();
+
+    /**
+     * Measures Comapi SDK initialisation, ends in {@link #success} or {@link #error}.
+     */
+    private StartupTrace.Span sdkInitSpan;
+
     @Override
     public void onCreate() {
         super.onCreate();
 
-        //Initialise Firebase (you will need this if using foundation push functionality)
-        FirebaseApp.initializeApp(this);
+        StartupTrace.Span span = StartupTrace.begin("application_create");
+        StartupTrace.saveTo(new File(getFilesDir(), StartupTrace.FILE_NAME));
+        initScheduler.start(this);
+
+        // Use the subscriber index generated at compile time (see build.gradle) instead of looking up @Subscribe methods with reflection
+        EventBus.builder().addIndex(new SampleEventBusIndex()).installDefaultEventBus();
+
+        //Initialise Firebase (you will need this if using foundation push functionality).
+        //The google-services plugin adds FirebaseInitProvider which already initialises the default app from google-services.json before onCreate,
+        //so this call is only a fallback and doesn't have to block the first frame.
+        initScheduler.defer("firebase", new Runnable() {
+            @Override
+            public void run() {
+                if (FirebaseApp.getApps(SampleApplication.this).isEmpty()) {
+                    FirebaseApp.initializeApp(SampleApplication.this);
+                }
+            }
+        });
 
         // Initialise Comapi
         initComapi();
+
+        span.end();
     }
 
     private void initComapi() {
 
         //Create class to encapsulate all calls to Comapi APIs
         comapiController = new ComapiController();
+        // Messages not accepted by the server are kept in the outbox file until they can be sent. Has to be read before the session starts.
+        StartupTrace.Span outboxSpan = StartupTrace.begin("outbox_load");
+        comapiController.initOutbox(new File(getFilesDir(), "outbox"));
+        outboxSpan.end();
+        // Conversations and recent messages are displayed from the cache before network queries finish
+        comapiController.initCache(new File(getCacheDir(), "conversations"));
+        // Data of large message parts is kept in files, messages in memory hold only previews
+        comapiController.initPartStore(new File(getCacheDir(), "message_parts"));
 
         // PUT YOUR API KEY HERE
         final String apiSpaceId = "PUT_YOUR_API_SPACE_ID_HERE";
@@ -72,13 +119,20 @@ public class SampleApplication extends MultiDexApplication implements Callback<C
             return;
         }
 
+        // Tokens are minted locally on a background thread, in realistic scenario they would be obtained from some auth provider service
+        AuthChallengeHandler authenticator = new AuthChallengeHandler(getSharedPreferences(Const.PREFS_NAME, MODE_PRIVATE),
+                new TimedTokenProvider(new LocalTokenProvider(new TokenMinter("secret".getBytes(Charset.forName("UTF-8")), "local", "local")), TOKEN_TIMEOUT));
+        // Get ready for the challenge of a returning user while the SDK initialises
+        authenticator.prefetch();
+
         // Asynchronously initialise Comapi SDK client (retrieve it in callback)
+        sdkInitSpan = StartupTrace.begin("comapi_init");
         Comapi.initialise(
                 this, new ComapiConfig()
                         // Set the id of the app space, the device belongs to
                         .apiSpaceId(apiSpaceId)
                         // Sets handler for authentication challenges (SDK asking for JWT token)
-                        .authenticator(new AuthChallengeHandler(getSharedPreferences(Const.PREFS_NAME, MODE_PRIVATE)))
+                        .authenticator(authenticator)
                         // Display all available logs to the console, don't log to the file
                         .logConfig(new LogConfig().setFileLevel(LogLevel.OFF).setConsoleLevel(LogLevel.DEBUG).setNetworkLevel(LogLevel.DEBUG))
                         // If FCM has been set up you can intercept the push messages here. You will need to put google-services.json file obtained on https://console.firebase.google.com/ into this project for FCM to work.
@@ -93,6 +147,7 @@ public class SampleApplication extends MultiDexApplication implements Callback<C
     @Override
     public void success(ComapiClient client) {
         Log.i(Const.TAG, "Comapi Foundation initialised successfully.");
+        sdkInitSpan.end();
         // We will call Comapi client method only through our Comapi Controller
         comapiController.setClient(client);
         // Post global sticky event to pass Comapi Controller instance to Activities after SDK finishes initialising.
@@ -102,6 +157,7 @@ public class SampleApplication extends MultiDexApplication implements Callback<C
     @Override
     public void error(Throwable t) {
         Log.e(Const.TAG, "Comapi Foundation initialised with error.", t);
+        sdkInitSpan.end();
         // Post global sticky event to tell Activities that the Comapi client is unavailable due to initialisation error.
         EventBus.getDefault().postSticky(new Initialisation(null));
     }
@@ -0,0 +1,401 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import android.util.Log;
+
+import com.comapi.Callback;
+import com.comapi.internal.network.ComapiResult;
+import com.comapi.sample.Const;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latency, success and error counts and number of calls in flight for every Comapi SDK operation called by the controller.
+ * Use {@link #DISABLED} to turn the recording off, the SDK callbacks are then passed through unchanged.
+ */
+public class ApiMetrics {
+
+    /**
+     * Sending a message to a conversation.
+     */
+    public static final String OPERATION_SEND_MESSAGE = "sendMessage";
+
+    /**
+     * Querying a page of messages in a conversation.
+     */
+    public static final String OPERATION_QUERY_MESSAGES = "queryMessages";
+
+    /**
+     * Loading the list of conversations.
+     */
+    public static final String OPERATION_GET_CONVERSATIONS = "getConversations";
+
+    /**
+     * Loading details of a single conversation.
+     */
+    public static final String OPERATION_GET_CONVERSATION = "getConversation";
+
+    /**
+     * Querying user profiles.
+     */
+    public static final String OPERATION_QUERY_PROFILES = "queryProfiles";
+
+    /**
+     * Starting an authenticated session.
+     */
+    public static final String OPERATION_START_SESSION = "startSession";
+
+    /**
+     * Loading participants of a conversation.
+     */
+    public static final String OPERATION_GET_PARTICIPANTS = "getParticipants";
+
+    /**
+     * Adding participants to a conversation.
+     */
+    public static final String OPERATION_ADD_PARTICIPANTS = "addParticipants";
+
+    /**
+     * Removing participants from a conversation.
+     */
+    public static final String OPERATION_REMOVE_PARTICIPANTS = "removeParticipants";
+
+    /**
+     * Creating a new conversation.
+     */
+    public static final String OPERATION_CREATE_CONVERSATION = "createConversation";
+
+    /**
+     * Upper bounds of latency histogram buckets in milliseconds. Last bucket collects all slower calls.
+     */
+    private static final long[] BUCKETS = {50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    /**
+     * Instance that doesn't record anything.
+     */
+    public static final ApiMetrics DISABLED = new ApiMetrics(null, false);
+
+    /**
+     * Receives recorded statistics, e.g. to log them or send them to an analytics service.
+     */
+    public interface Exporter {
+
+        /**
+         * Export statistics.
+         *
+         * @param stats Statistics for every operation called so far.
+         */
+        void export(Collection<OperationStats> stats);
+    }
+
+    /**
+     * Writes statistics to logcat.
+     */
+    public static class LogExporter implements Exporter {
+
+        @Override
+        public void export(Collection<OperationStats> stats) {
+            for (OperationStats s : stats) {
+                Log.d(Const.TAG, s.toString());
+            }
+        }
+    }
+
+    /**
+     * Single call of an SDK operation.
+     */
+    public interface Call {
+
+        /**
+         * Call has finished.
+         *
+         * @param isSuccess True if the call was successful.
+         */
+        void finished(boolean isSuccess);
+    }
+
+    /**
+     * Call that doesn't record anything.
+     */
+    private static final Call NOOP_CALL = new Call() {
+        @Override
+        public void finished(boolean isSuccess) {
+        }
+    };
+
+    /**
+     * Statistics of a single SDK operation.
+     */
+    public static class OperationStats {
+
+        private final String operation;
+        private final AtomicLong successCount = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+
+        OperationStats(String operation) {
+            this.operation = operation;
+        }
+
+        void record(long latency, boolean isSuccess) {
+            inFlight.decrementAndGet();
+            (isSuccess ? successCount : errorCount).incrementAndGet();
+            totalLatency.addAndGet(latency);
+            long max;
+            while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+                // retry
+            }
+            int bucket = 0;
+            while (bucket < BUCKETS.length && latency > BUCKETS[bucket]) {
+                bucket++;
+            }
+            histogram.incrementAndGet(bucket);
+        }
+
+        /**
+         * Get operation name.
+         *
+         * @return Operation name.
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * Get number of successful calls.
+         *
+         * @return Number of successful calls.
+         */
+        public long getSuccessCount() {
+            return successCount.get();
+        }
+
+        /**
+         * Get number of failed calls.
+         *
+         * @return Number of failed calls.
+         */
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        /**
+         * Get number of calls waiting for the response.
+         *
+         * @return Number of calls in flight.
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * Get maximum latency.
+         *
+         * @return Maximum latency in milliseconds.
+         */
+        public long getMaxLatency() {
+            return maxLatency.get();
+        }
+
+        /**
+         * Get average latency.
+         *
+         * @return Average latency in milliseconds.
+         */
+        public long getAverageLatency() {
+            long count = successCount.get() + errorCount.get();
+            return count > 0 ? totalLatency.get() / count : 0;
+        }
+
+        /**
+         * Get number of calls in each latency bucket. Bucket upper bounds are 50, 100, 250, 500, 1000, 2500, 5000 and 10000 milliseconds, the last bucket counts all slower calls.
+         *
+         * @return Number of calls in each latency bucket.
+         */
+        public long[] getHistogram() {
+            long[] counts = new long[histogram.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * Get upper bound of the latency bucket containing given percentile of calls.
+         *
+         * @param percentile Percentile between 0 and 100.
+         * @return Latency upper bound in milliseconds, or maximum latency for the last bucket.
+         */
+        public long getPercentile(int percentile) {
+            long[] counts = getHistogram();
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long threshold = (long) Math.ceil(total * percentile / 100d);
+            long sum = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                sum += counts[i];
+                if (sum >= threshold) {
+                    return BUCKETS[i];
+                }
+            }
+            return getMaxLatency();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%s ok=%d error=%d inFlight=%d avg=%dms p50<=%dms p95<=%dms max=%dms",
+                    operation, getSuccessCount(), getErrorCount(), getInFlight(), getAverageLatency(), getPercentile(50), getPercentile(95), getMaxLatency());
+        }
+    }
+
+    private final Exporter exporter;
+
+    private final boolean isEnabled;
+
+    private final ConcurrentMap<String, OperationStats> stats;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param exporter Receives recorded statistics.
+     */
+    public ApiMetrics(Exporter exporter) {
+        this(exporter, true);
+    }
+
+    private ApiMetrics(Exporter exporter, boolean isEnabled) {
+        this.exporter = exporter;
+        this.isEnabled = isEnabled;
+        this.stats = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Start recording a call of an SDK operation.
+     *
+     * @param operation Operation name.
+     * @return Call to be finished when the SDK responds.
+     */
+    public Call start(String operation) {
+
+        if (!isEnabled) {
+            return NOOP_CALL;
+        }
+
+        OperationStats s = stats.get(operation);
+        if (s == null) {
+            stats.putIfAbsent(operation, new OperationStats(operation));
+            s = stats.get(operation);
+        }
+        final OperationStats operationStats = s;
+        final long startedOn = System.currentTimeMillis();
+        operationStats.inFlight.incrementAndGet();
+
+        return new Call() {
+            @Override
+            public void finished(boolean isSuccess) {
+                operationStats.record(System.currentTimeMillis() - startedOn, isSuccess);
+            }
+        };
+    }
+
+    /**
+     * Wrap SDK callback to record the call of an SDK operation. Result objects reporting unsuccessful response are counted as errors.
+     *
+     * @param operation Operation name.
+     * @param callback  SDK callback to wrap, can be null.
+     * @return Callback to pass to the SDK, the callback itself if recording is disabled.
+     */
+    public <T> Callback<T> wrap(String operation, final Callback<T> callback) {
+
+        if (!isEnabled) {
+            return callback;
+        }
+
+        final Call call = start(operation);
+
+        return new Callback<T>() {
+
+            @Override
+            public void success(T result) {
+                call.finished(isSuccessful(result));
+                if (callback != null) {
+                    callback.success(result);
+                }
+            }
+
+            @Override
+            public void error(Throwable t) {
+                call.finished(false);
+                if (callback != null) {
+                    callback.error(t);
+                }
+            }
+        };
+    }
+
+    /**
+     * Check if SDK result reports a successful response.
+     *
+     * @param result SDK call result.
+     * @return False if the result reports unsuccessful response.
+     */
+    private static boolean isSuccessful(Object result) {
+        if (result instanceof ComapiResult) {
+            return ((ComapiResult) result).isSuccessful();
+        }
+        return true;
+    }
+
+    /**
+     * Get statistics for every operation called so far.
+     *
+     * @return Statistics for every operation.
+     */
+    public List<OperationStats> getStats() {
+        return new ArrayList<>(stats.values());
+    }
+
+    /**
+     * Pass statistics to the exporter.
+     */
+    public void export() {
+        if (isEnabled && exporter != null) {
+            exporter.export(getStats());
+        }
+    }
+}
@@ -22,19 +22,12 @@ package com.comapi.sample.comapi;
 
 import android.content.SharedPreferences;
 import android.text.TextUtils;
-import android.util.Base64;
+import android.util.Log;
 
 import com.comapi.ComapiAuthenticator;
 import com.comapi.internal.network.AuthClient;
 import com.comapi.internal.network.ChallengeOptions;
-
-import java.io.UnsupportedEncodingException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
+import com.comapi.sample.Const;
 
 /**
  * Provides JWT token for Comapi SDK.
@@ -48,17 +41,34 @@ public class AuthChallengeHandler extends ComapiAuthenticator {
      */
     private SharedPreferences settings;
 
+    /**
+     * Issues tokens asynchronously, the challenge doesn't block the SDK thread.
+     */
+    private final TokenProvider tokenProvider;
+
     /**
      * Recommended constructor.
      *
-     * @param settings Shared preferences storing profile id for which app generates JWT token.
+     * @param settings      Shared preferences storing profile id for which app generates JWT token.
+     * @param tokenProvider Issues tokens for authentication challenges.
      */
-    public AuthChallengeHandler(SharedPreferences settings) {
+    public AuthChallengeHandler(SharedPreferences settings, TokenProvider tokenProvider) {
         this.settings = settings;
+        this.tokenProvider = tokenProvider;
+    }
+
+    /**
+     * Let the token provider prepare for the challenge of the saved profile before the session starts.
+     */
+    public void prefetch() {
+        String profileId = settings.getString("profileId", null);
+        if (!TextUtils.isEmpty(profileId)) {
+            tokenProvider.prefetch(profileId);
+        }
     }
 
     @Override
-    public void onAuthenticationChallenge(AuthClient authClient, ChallengeOptions challengeOptions) {
+    public void onAuthenticationChallenge(final AuthClient authClient, ChallengeOptions challengeOptions) {
 
         // Get profile id for which app generates JWT token.
         String profileId = settings.getString("profileId", null);
@@ -66,43 +76,25 @@ public class AuthChallengeHandler extends ComapiAuthenticator {
         if (!TextUtils.isEmpty(profileId)) {
 
             /*
-             This implementation creates the JWT token for profileId and given nonce locally. In realistic scenario this would be obtained from some auth provider service.
+             The token for profileId and given nonce is obtained from the token provider, in realistic scenario a client of some auth provider service.
              The claims definitions must match configuration of the ApiSpace.
              */
 
-            try {
-
-                byte[] data;
-                data = "secret".getBytes("UTF-8");
-
-                String base64Secret = Base64.encodeToString(data, Base64.DEFAULT);
-
-                Map<String, Object> header = new HashMap<>();
-                header.put("typ", "JWT");
-
-                // Claims as defined in ApiSpace configuration.
-                Map<String, Object> claims = new HashMap<>();
-                claims.put("nonce", challengeOptions.getNonce());
-                claims.put("sub", profileId);
-                claims.put("aud", "local");
-                claims.put("iss", "local");
-                claims.put("iat", System.currentTimeMillis());
-                claims.put("exp", System.currentTimeMillis() + TimeUnit.DAYS.toMillis(30));
-
-                final String token = Jwts.builder()
-                        .setHeader(header)
-                        .setClaims(claims)
-                        .signWith(SignatureAlgorithm.HS256, base64Secret)
-                        .compact();
-
-                // Provide auth token to the Comapi SDK.
-                authClient.authenticateWithToken(token);
-
-            } catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
-                // Tell SDK to continue, auth failed.
-                authClient.authenticateWithToken(null);
-            }
+            tokenProvider.requestToken(profileId, challengeOptions.getNonce(), new TokenProvider.Callback() {
+
+                @Override
+                public void onToken(String token) {
+                    // Provide auth token to the Comapi SDK.
+                    authClient.authenticateWithToken(token);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    Log.e(Const.TAG, "Error obtaining auth token.", t);
+                    // Tell SDK to continue, auth failed.
+                    authClient.authenticateWithToken(null);
+                }
+            });
 
         } else {
             // Tell SDK to continue, auth failed.
@@ -21,12 +21,15 @@
 package com.comapi.sample.comapi;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.comapi.Callback;
 import com.comapi.ComapiClient;
-import com.comapi.QueryBuilder;
 import com.comapi.Session;
 import com.comapi.internal.network.ComapiResult;
 import com.comapi.internal.network.model.conversation.ConversationCreate;
@@ -40,19 +43,32 @@ import com.comapi.internal.network.model.messaging.MessageSentResponse;
 import com.comapi.internal.network.model.messaging.MessageToSend;
 import com.comapi.internal.network.model.messaging.MessagesQueryResponse;
 import com.comapi.internal.network.model.messaging.Part;
+import com.comapi.sample.BuildConfig;
 import com.comapi.sample.Const;
 import com.comapi.sample.events.LoginEvent;
 import com.comapi.sample.ui.listeners.ConversationListener;
 import com.comapi.sample.ui.listeners.MessageListener;
 import com.comapi.sample.ui.listeners.ParticipantsListener;
+import com.comapi.sample.ui.model.ConversationItem;
+import com.comapi.sample.ui.model.MessageItem;
+import com.comapi.sample.ui.model.MessagePart;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Controller wrapping Comapi Client.
@@ -61,6 +77,16 @@ import java.util.UUID;
  */
 public class ComapiController {
 
+    /**
+     * Delay before the outbox is sent again after the first failure, doubled after every next failure.
+     */
+    private static final long OUTBOX_RETRY_MIN_MILLIS = 2000;
+
+    /**
+     * Maximum delay before the outbox is sent again after a failure.
+     */
+    private static final long OUTBOX_RETRY_MAX_MILLIS = 60000;
+
     /**
      * Comapi Client instance, contains public interfaces of Comapi Foundation APIs.
      */
@@ -70,26 +96,198 @@ public class ComapiController {
      * Listeners to changes in the list of participants.
      * The key in the map is a conversation id.
      */
-    private Map<String, ParticipantsListener> participantsListenerMap;
+    private final Map<String, ParticipantsListener> participantsListenerMap;
 
     /**
-     * Listeners for new conversations.
+     * Records latency and results of SDK calls. Disabled in release builds.
      */
-    private List<ConversationListener> conversationListeners;
+    private final ApiMetrics metrics = BuildConfig.DEBUG ? new ApiMetrics(new ApiMetrics.LogExporter()) : ApiMetrics.DISABLED;
+
+    /**
+     * Profile ids known to exist, skips the profile query when adding participants.
+     */
+    private final ProfileCache profileCache = new ProfileCache(ProfileCache.DEFAULT_TTL_MILLIS, ProfileCache.DEFAULT_MAX_SIZE);
+
+    /**
+     * Listeners for new conversations. Copied on write so SDK threads can iterate while activities register.
+     */
+    private final List<ConversationListener> conversationListeners;
 
     /**
      * Listeners for new messages.
      * The key in the map is a conversation id.
      */
-    private Map<String, MessageListener> messageListeners;
+    private final Map<String, MessageListener> messageListeners;
+
+    /**
+     * Runs listener notifications on the main thread in batches.
+     */
+    private final MainThreadDispatcher dispatcher = new MainThreadDispatcher();
+
+    /**
+     * Live messages waiting for the dispatcher, delivered to each conversation in one call.
+     * The key in the map is a conversation id.
+     */
+    private final Map<String, List<MessageItem>> pendingMessages = new HashMap<>();
+
+    /**
+     * Delivers live messages collected since the previous batch.
+     */
+    private final Runnable flushPendingMessages = new Runnable() {
+        @Override
+        public void run() {
+            Map<String, List<MessageItem>> batch;
+            synchronized (pendingMessages) {
+                batch = new HashMap<>(pendingMessages);
+                pendingMessages.clear();
+            }
+            for (Map.Entry<String, List<MessageItem>> entry : batch.entrySet()) {
+                MessageListener listener = messageListeners.get(entry.getKey());
+                if (listener == null) {
+                    continue;
+                }
+                List<MessageItem> messages = entry.getValue();
+                if (messages.size() == 1) {
+                    listener.onAddMessage(messages.get(0));
+                } else {
+                    listener.onAddMessages(messages);
+                }
+            }
+            // Conversation list moves each conversation once per batch
+            for (String conversationId : batch.keySet()) {
+                long time = getLastActivity(conversationId);
+                for (ConversationListener listener : conversationListeners) {
+                    if (listener != null) {
+                        listener.onConversationActivity(conversationId, time);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Tracks earliest loaded message and page size of message queries per conversation.
+     */
+    private final MessagePager messagePager = new MessagePager();
+
+    /**
+     * Disk cache of conversations and recent messages displayed before the network queries finish.
+     */
+    private ConversationCache cache;
+
+    /**
+     * Conversations displayed from the cache and not yet confirmed by the conversation query.
+     */
+    private final Set<String> cachedConversationIds = new HashSet<>();
+
+    /**
+     * True when the conversation query result arrived, cached conversations are ignored afterwards.
+     */
+    private boolean conversationsQueried;
+
+    /**
+     * ETags of conversations passed to the listeners, unchanged conversations are not notified again.
+     */
+    private final ETagTracker eTagTracker = new ETagTracker();
+
+    /**
+     * Conversation listeners registered before. A new listener has an empty list and needs all conversations notified.
+     */
+    private final Set<ConversationListener> knownConversationListeners = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<ConversationListener, Boolean>()));
+
+    /**
+     * Folds conversation detail requests from a burst of participant events into one query per conversation.
+     */
+    private final FetchCoalescer conversationFetches = new FetchCoalescer(FetchCoalescer.DEFAULT_WINDOW_MILLIS, new FetchCoalescer.Fetch() {
+        @Override
+        public void fetch(String conversationId, Runnable done) {
+            queryConversation(conversationId, done);
+        }
+    });
+
+    /**
+     * Detects messages missed by the socket in opened conversations and queries just the missing range.
+     */
+    private final EventGapTracker gapTracker = new EventGapTracker(EventGapTracker.DEFAULT_MIN_INTERVAL_MILLIS, new EventGapTracker.Backfill() {
+        @Override
+        public void backfill(String conversationId, long gapFrom, long gapTo, Runnable done) {
+            backfillMessages(conversationId, gapFrom, gapTo, done);
+        }
+    });
+
+    /**
+     * Latest pages of the most recently active conversations loaded before the user opens them.
+     */
+    private final MessagePrefetcher prefetcher = new MessagePrefetcher(MessagePrefetcher.DEFAULT_MAX_CONCURRENT, MessagePrefetcher.DEFAULT_CACHE_SIZE, new MessagePrefetcher.Fetch() {
+        @Override
+        public void fetch(String conversationId, int limit, MessagePrefetcher.Result result) {
+            prefetchMessages(conversationId, limit, result);
+        }
+    });
+
+    /**
+     * Time of the latest message received or conversation opened in this session.
+     * The key in the map is a conversation id.
+     */
+    private final Map<String, Long> lastActivity = new ConcurrentHashMap<>();
+
+    /**
+     * Store for data of large message parts, null if all parts are kept in memory.
+     */
+    private PartStore partStore;
+
+    /**
+     * Durable outbox for messages not yet accepted by the server.
+     */
+    private MessageOutbox outbox;
+
+    /**
+     * Schedules sending the outbox again after a failure.
+     */
+    private final Handler outboxRetryHandler = new Handler(Looper.getMainLooper());
+
+    private long outboxRetryDelay = OUTBOX_RETRY_MIN_MILLIS;
+
+    private boolean isOutboxRetryScheduled;
+
+    /**
+     * Sends messages from the outbox.
+     */
+    private final MessageOutbox.Sender outboxSender = new MessageOutbox.Sender() {
+        @Override
+        public void send(MessageOutbox.Entry entry, final MessageOutbox.Result result) {
+            client.service().messaging().sendMessage(entry.getConversationId(), createMessageToSend(entry.getBody(), entry.getId()), metrics.wrap(ApiMetrics.OPERATION_SEND_MESSAGE, new Callback<ComapiResult<MessageSentResponse>>() {
+                @Override
+                public void success(ComapiResult<MessageSentResponse> response) {
+                    if (response.isSuccessful()) {
+                        Log.i(Const.TAG, "Successfully sent message");
+                        resetOutboxRetry();
+                    } else {
+                        Log.e(Const.TAG, "Error sending message: " + response.getMessage());
+                    }
+                    result.finished(response.isSuccessful());
+                    if (!response.isSuccessful()) {
+                        retryOutbox();
+                    }
+                }
+
+                @Override
+                public void error(Throwable t) {
+                    Log.e(Const.TAG, "Error sending message: " + t.getLocalizedMessage());
+                    result.finished(false);
+                    retryOutbox();
+                }
+            }));
+        }
+    };
 
     /**
      * Recommended constructor.
      */
     public ComapiController() {
-        participantsListenerMap = new HashMap<>();
-        conversationListeners = new ArrayList<>();
-        messageListeners = new HashMap<>();
+        participantsListenerMap = new ConcurrentHashMap<>();
+        conversationListeners = new CopyOnWriteArrayList<>();
+        messageListeners = new ConcurrentHashMap<>();
     }
 
     /**
@@ -99,6 +297,26 @@ public class ComapiController {
      */
     public void setClient(ComapiClient client) {
         this.client = client;
+        // send messages left in the outbox if the session from the previous run is still valid
+        replayOutbox();
+    }
+
+    /**
+     * Gets recorded latency and results of SDK calls.
+     *
+     * @return Recorded latency and results of SDK calls.
+     */
+    public ApiMetrics getApiMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets numbers of dispatched listener notifications and main thread batches.
+     *
+     * @return Dispatcher of listener notifications.
+     */
+    public MainThreadDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     /**
@@ -111,7 +329,7 @@ public class ComapiController {
     }
 
     /**
-     * Send message to the conversation participants.
+     * Send message to the conversation participants. The message is saved in the outbox first so it will be sent even if the network or the app goes down.
      *
      * @param conversationId Conversation unique id.
      * @param message        Message body to send.
@@ -120,8 +338,18 @@ public class ComapiController {
 
         if (client != null) {
 
+            if (outbox != null) {
+                try {
+                    outbox.add(conversationId, message);
+                    replayOutbox();
+                    return;
+                } catch (IOException e) {
+                    Log.e(Const.TAG, "Error saving message in the outbox: " + e.getLocalizedMessage());
+                }
+            }
+
             // Send message to a conversation participants
-            client.service().messaging().sendMessage(conversationId, createMessageToSend(message), new Callback<ComapiResult<MessageSentResponse>>() {
+            client.service().messaging().sendMessage(conversationId, createMessageToSend(message, null), metrics.wrap(ApiMetrics.OPERATION_SEND_MESSAGE, new Callback<ComapiResult<MessageSentResponse>>() {
                 @Override
                 public void success(ComapiResult<MessageSentResponse> result) {
                     Log.i(Const.TAG, "Successfully sent message");
@@ -131,17 +359,120 @@ public class ComapiController {
                 public void error(Throwable t) {
                     Log.e(Const.TAG, "Error sending message: " + t.getLocalizedMessage());
                 }
-            });
+            }));
+        }
+    }
+
+    /**
+     * Sets durable outbox for messages not yet accepted by the server and reads messages left from the previous run.
+     *
+     * @param file Outbox journal file.
+     */
+    public void initOutbox(File file) {
+        MessageOutbox messageOutbox = new MessageOutbox(file);
+        try {
+            messageOutbox.load();
+            outbox = messageOutbox;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(Const.TAG, "Error loading message outbox: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Sets disk cache of conversations and recent messages.
+     *
+     * @param dir Directory to keep the cache files in.
+     */
+    public void initCache(File dir) {
+        cache = new ConversationCache(dir);
+    }
+
+    /**
+     * Sets directory for data of large message parts. Files left from the previous run are deleted, messages are loaded again.
+     *
+     * @param dir Directory for message part files.
+     */
+    public void initPartStore(File dir) {
+        PartStore store = new PartStore(dir);
+        store.clear();
+        partStore = store;
+    }
+
+    /**
+     * Create message for the UI. Keeps a bounded preview for the list row, large parts are written to files.
+     *
+     * @param messageId           Message unique id.
+     * @param conversationEventId Conversation event id of the message.
+     * @param from                Message sender profile id.
+     * @param parts               Message parts received from the SDK.
+     * @return Message for the UI.
+     */
+    private MessageItem createMessageItem(String messageId, Long conversationEventId, String from, List<Part> parts) {
+        return new MessageItem(conversationEventId, PartStore.preview(parts), from, from.equals(getProfileId()), MessagePart.adapt(messageId, parts, partStore));
+    }
+
+    /**
+     * Send messages waiting in the outbox in order if the session is active.
+     */
+    private void replayOutbox() {
+        if (outbox != null && client != null && client.getSession() != null && client.getSession().isSuccessfullyCreated()) {
+            outbox.replay(outboxSender);
         }
     }
 
+    /**
+     * Send the outbox again after a delay growing with every failure. Replay stops at the first failed message and would otherwise wait for the next message or session start.
+     */
+    private void retryOutbox() {
+        long delay;
+        synchronized (outboxRetryHandler) {
+            if (isOutboxRetryScheduled) {
+                return;
+            }
+            isOutboxRetryScheduled = true;
+            delay = outboxRetryDelay;
+            outboxRetryDelay = Math.min(outboxRetryDelay * 2, OUTBOX_RETRY_MAX_MILLIS);
+        }
+        outboxRetryHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (outboxRetryHandler) {
+                    isOutboxRetryScheduled = false;
+                }
+                replayOutbox();
+            }
+        }, delay);
+    }
+
+    /**
+     * Message from the outbox was sent, next failure is retried after the shortest delay.
+     */
+    private void resetOutboxRetry() {
+        synchronized (outboxRetryHandler) {
+            outboxRetryDelay = OUTBOX_RETRY_MIN_MILLIS;
+        }
+    }
+
+    /**
+     * Check if the received message hasn't been already displayed. The same message may be sent twice if the app was closed before the server response arrived.
+     *
+     * @param metadata  Received message metadata.
+     * @param messageId Received message unique id.
+     * @return True if the message is a duplicate of already received message.
+     */
+    boolean isDuplicate(Map<String, Object> metadata, String messageId) {
+        Object id = metadata != null ? metadata.get(MessageOutbox.METADATA_OUTBOX_ID) : null;
+        return id != null && outbox != null && !outbox.onEcho(id.toString(), messageId);
+    }
+
     /**
      * Create new message object for Comapi Client APIs that can be send to conversation participants.
      *
-     * @param message Message body.
+     * @param message  Message body.
+     * @param outboxId Outbox id to put in the message metadata, can be null.
      * @return New message object for Comapi Client APIs.
      */
-    private MessageToSend createMessageToSend(final String message) {
+    private MessageToSend createMessageToSend(final String message, final String outboxId) {
 
         // Message can contain many part. We will be creating only one. It contains plain text with message body.
         Part bodyPart = Part.builder()
@@ -152,7 +483,13 @@ public class ComapiController {
                 .build();
 
         // Build message object.
-        return MessageToSend.builder().addPart(bodyPart).build();
+        MessageToSend.Builder builder = MessageToSend.builder().addPart(bodyPart);
+        if (outboxId != null) {
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put(MessageOutbox.METADATA_OUTBOX_ID, outboxId);
+            builder.setMetadata(metadata);
+        }
+        return builder.build();
     }
 
     /**
@@ -180,7 +517,7 @@ public class ComapiController {
      * @param conversationId Conversation unique id.
      */
     public void getParticipants(final String conversationId) {
-        client.service().messaging().getParticipants(conversationId, new Callback<ComapiResult<List<Participant>>>() {
+        client.service().messaging().getParticipants(conversationId, metrics.wrap(ApiMetrics.OPERATION_GET_PARTICIPANTS, new Callback<ComapiResult<List<Participant>>>() {
             @Override
             public void success(ComapiResult<List<Participant>> result) {
                 Log.i(Const.TAG, "Notifying listeners about conversation participants.");
@@ -193,31 +530,63 @@ public class ComapiController {
             public void error(Throwable t) {
                 Log.e(Const.TAG, "Error getting conversation participants: " + t.getLocalizedMessage());
             }
-        });
+        }));
     }
 
     /**
      * Add participant to a conversation.
      *
+     * @param context        Context used to display errors.
      * @param conversationId Conversation unique id.
      * @param participantId  Profile id of a new participant to add.
      */
     public void addParticipant(final Context context, final String conversationId, final String participantId) {
-        final List<Participant> participants = new ArrayList<>();
-        participants.add(Participant.builder().setId(participantId).setIsParticipant().build());
-        client.service().profile().queryProfiles(new QueryBuilder().addEqual("id", participantId).build(), new Callback<ComapiResult<List<Map<String, Object>>>>() {
+        addParticipants(context, conversationId, Collections.singletonList(participantId));
+    }
+
+    /**
+     * Add many participants to a conversation. Profiles not found in the cache are checked in batched queries and all existing ones are added in a single call.
+     *
+     * @param context        Context used to display errors.
+     * @param conversationId Conversation unique id.
+     * @param participantIds Profile ids of new participants to add.
+     */
+    public void addParticipants(final Context context, final String conversationId, final List<String> participantIds) {
+        profileCache.check(participantIds, new ProfileCache.ProfileQuery() {
             @Override
-            public void success(ComapiResult<List<Map<String, Object>>> result) {
-                if (result.isSuccessful() && !result.getResult().isEmpty() && result.getResult() != null) {
-                    client.service().messaging().addParticipants(conversationId, participants, null);
-                } else {
-                    Toast.makeText(context.getApplicationContext(), "User doesn't exist.", Toast.LENGTH_SHORT).show();
-                }
+            public void queryProfiles(String query, Callback<ComapiResult<List<Map<String, Object>>>> callback) {
+                client.service().profile().queryProfiles(query, metrics.wrap(ApiMetrics.OPERATION_QUERY_PROFILES, callback));
             }
-
+        }, new ProfileCache.CheckResult() {
             @Override
-            public void error(Throwable t) {
+            public void onChecked(final List<String> existing, List<String> notFound, List<String> unchecked) {
+                if (!notFound.isEmpty()) {
+                    Toast.makeText(context.getApplicationContext(), "Users don't exist: " + TextUtils.join(", ", notFound), Toast.LENGTH_SHORT).show();
+                }
+                if (!unchecked.isEmpty()) {
+                    Log.e(Const.TAG, "Error querying participants: " + TextUtils.join(", ", unchecked));
+                }
+                if (existing.isEmpty()) {
+                    return;
+                }
+                final List<Participant> participants = new ArrayList<>();
+                for (String id : existing) {
+                    participants.add(Participant.builder().setId(id).setIsParticipant().build());
+                }
+                client.service().messaging().addParticipants(conversationId, participants, metrics.wrap(ApiMetrics.OPERATION_ADD_PARTICIPANTS, new Callback<ComapiResult<Void>>() {
+                    @Override
+                    public void success(ComapiResult<Void> result) {
+                        if (!result.isSuccessful()) {
+                            Toast.makeText(context.getApplicationContext(), "Failed to add: " + TextUtils.join(", ", existing), Toast.LENGTH_SHORT).show();
+                        }
+                    }
 
+                    @Override
+                    public void error(Throwable t) {
+                        Log.e(Const.TAG, "Error adding participants: " + t.getLocalizedMessage());
+                        Toast.makeText(context.getApplicationContext(), "Failed to add: " + TextUtils.join(", ", existing), Toast.LENGTH_SHORT).show();
+                    }
+                }));
             }
         });
     }
@@ -231,7 +600,7 @@ public class ComapiController {
     public void removeParticipant(String conversationId, String participantId) {
         List<String> participants = new ArrayList<>();
         participants.add(participantId);
-        client.service().messaging().removeParticipants(conversationId, participants, null);
+        client.service().messaging().removeParticipants(conversationId, participants, metrics.wrap(ApiMetrics.OPERATION_REMOVE_PARTICIPANTS, null));
     }
 
     /**
@@ -240,11 +609,16 @@ public class ComapiController {
      * @param conversationId Conversation unique id.
      * @param participantId  Profile id of a participant to add.
      */
-    void notifyParticipantAdded(String conversationId, String participantId) {
-        ParticipantsListener listener = participantsListenerMap.get(conversationId);
-        if (listener != null) {
-            listener.onAddParticipant(participantId);
-        }
+    void notifyParticipantAdded(final String conversationId, final String participantId) {
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                ParticipantsListener listener = participantsListenerMap.get(conversationId);
+                if (listener != null) {
+                    listener.onAddParticipant(participantId);
+                }
+            }
+        });
     }
 
     /**
@@ -253,11 +627,16 @@ public class ComapiController {
      * @param conversationId Conversation unique id.
      * @param participantId  Profile id of a participant to remove.
      */
-    void notifyParticipantRemoved(String conversationId, String participantId) {
-        ParticipantsListener listener = participantsListenerMap.get(conversationId);
-        if (listener != null) {
-            listener.onRemoveParticipant(participantId);
-        }
+    void notifyParticipantRemoved(final String conversationId, final String participantId) {
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                ParticipantsListener listener = participantsListenerMap.get(conversationId);
+                if (listener != null) {
+                    listener.onRemoveParticipant(participantId);
+                }
+            }
+        });
     }
 
     /**
@@ -266,7 +645,7 @@ public class ComapiController {
      * @param name Public name of a new conversation.
      */
     public void createConversation(String name) {
-        client.service().messaging().createConversation(createConversationRequest(name), null);
+        client.service().messaging().createConversation(createConversationRequest(name), metrics.wrap(ApiMetrics.OPERATION_CREATE_CONVERSATION, null));
     }
 
     /**
@@ -299,51 +678,375 @@ public class ComapiController {
      */
     public void getConversations() {
 
-        client.service().messaging().getConversations(Scope.PARTICIPANT, new Callback<ComapiResult<List<ConversationDetails>>>() {
+        final String profileId = getProfileId();
+        conversationsQueried = false;
+
+        // Display cached conversations until the query finishes
+        if (cache != null && profileId != null) {
+            cache.loadConversations(profileId, new ConversationCache.Loaded<List<ConversationItem>>() {
+                @Override
+                public void onLoaded(List<ConversationItem> conversations) {
+                    if (!conversationsQueried) {
+                        for (ConversationItem conversation : conversations) {
+                            cachedConversationIds.add(conversation.getId());
+                            notifyConversationAdded(conversation.getId(), conversation.getName());
+                        }
+                    }
+                }
+            });
+        }
+
+        client.service().messaging().getConversations(Scope.PARTICIPANT, metrics.wrap(ApiMetrics.OPERATION_GET_CONVERSATIONS, new Callback<ComapiResult<List<ConversationDetails>>>() {
             @Override
             public void success(ComapiResult<List<ConversationDetails>> result) {
 
                 Log.i(Const.TAG, "Notifying listeners about conversations.");
 
-                if (!result.getResult().isEmpty()) {
+                if (!result.isSuccessful() || result.getResult() == null) {
+                    Log.e(Const.TAG, "Error getting conversations: " + result.getMessage());
+                    notifyConversationQueryFinished();
+                    return;
+                }
+
+                conversationsQueried = true;
+
+                List<ConversationItem> conversations = new ArrayList<>(result.getResult().size());
+                for (ConversationDetails conversation : result.getResult()) {
+                    conversations.add(new ConversationItem(conversation.getId(), conversation.getName()));
+                }
+
+                if (!conversations.isEmpty()) {
                     for (ConversationDetails conversation : result.getResult()) {
-                        notifyConversationAdded(conversation.getId(), conversation.getName());
+                        // A cached conversation needs to be confirmed even if it hasn't changed since the last query
+                        boolean cached = cachedConversationIds.remove(conversation.getId());
+                        if (eTagTracker.isChanged(conversation.getId(), conversation.getETag()) || cached) {
+                            notifyConversationAdded(conversation.getId(), conversation.getName());
+                        }
+                    }
+                    // Remove cached conversations the user no longer participates in
+                    for (String conversationId : cachedConversationIds) {
+                        eTagTracker.remove(conversationId);
+                        notifyConversationRemoved(conversationId);
                     }
                 } else {
+                    eTagTracker.clear();
                     notifyConversationsEmpty();
                 }
+                cachedConversationIds.clear();
+                notifyConversationQueryFinished();
+                Log.i(Const.TAG, eTagTracker.toString());
+
+                // Load the conversations the user is most likely to open next
+                prefetchMostRecent(result.getResult());
+
+                if (cache != null && profileId != null) {
+                    cache.saveConversations(profileId, conversations);
+                }
             }
 
             @Override
             public void error(Throwable t) {
                 Log.e(Const.TAG, "Error getting conversations: " + t.getLocalizedMessage());
+                notifyConversationQueryFinished();
             }
-        });
+        }));
     }
 
+    /**
+     * Query the latest page of messages in a conversation. Resets paging of older messages.
+     *
+     * @param conversationId Conversation unique id.
+     */
     public void getMessages(final String conversationId) {
 
-        client.service().messaging().queryMessages(conversationId, null, 100, new Callback<ComapiResult<MessagesQueryResponse>>() {
+        lastActivity.put(conversationId, SystemClock.elapsedRealtime());
+
+        MessagePrefetcher.Entry prefetched = prefetcher.take(conversationId);
+        if (prefetched != null && prefetched.isFresh()) {
+            onPrefetchedMessages(conversationId, prefetched);
+            return;
+        }
+
+        final MessagePager.Page page = messagePager.first(conversationId);
+        final String profileId = getProfileId();
+
+        if (prefetched != null) {
+            // Display outdated prefetched messages until the query finishes
+            if (!prefetched.getMessages().isEmpty()) {
+                notifyMessagesAdded(conversationId, prefetched.getMessages());
+            }
+        } else if (cache != null && profileId != null) {
+            // Display cached messages until the query finishes
+            cache.loadMessages(profileId, conversationId, new ConversationCache.Loaded<List<MessageItem>>() {
+                @Override
+                public void onLoaded(List<MessageItem> messages) {
+                    if (!messages.isEmpty() && messagePager.isLoading(page)) {
+                        notifyMessagesAdded(conversationId, messages);
+                    }
+                }
+            });
+        }
+
+        queryMessages(page);
+    }
+
+    /**
+     * Query the page of messages older than the earliest message loaded by {@link #getMessages(String)} or previous call of this method.
+     *
+     * @param conversationId Conversation unique id.
+     * @return False if there is nothing to query - the previous page is still loading or all messages have been loaded.
+     */
+    public boolean getPreviousMessages(final String conversationId) {
+        MessagePager.Page page = messagePager.previous(conversationId);
+        if (page == null) {
+            return false;
+        }
+        queryMessages(page);
+        return true;
+    }
+
+    /**
+     * Query a page of messages and notify MessageListener.
+     *
+     * @param page Page of messages to query.
+     */
+    private void queryMessages(final MessagePager.Page page) {
+
+        final String conversationId = page.getConversationId();
+
+        client.service().messaging().queryMessages(conversationId, page.getFrom(), page.getLimit(), metrics.wrap(ApiMetrics.OPERATION_QUERY_MESSAGES, new Callback<ComapiResult<MessagesQueryResponse>>() {
             @Override
             public void success(ComapiResult<MessagesQueryResponse> result) {
 
                 Log.i(Const.TAG, "Notifying listeners about messages in a conversation " + conversationId);
 
-                if (result.getResult().getMessages() != null && !result.getResult().getMessages().isEmpty()) {
-                    for (MessageReceived msg : result.getResult().getMessages()) {
-                        notifyMessageAdded(msg.getConversationId(), msg.getSentEventId(), msg.getFromWhom().getId(), msg.getFromWhom().getId().equals(getProfileId()), msg.getParts().get(0).getData());
+                List<MessageReceived> messages = result.getResult() != null ? result.getResult().getMessages() : null;
+
+                if (messages != null && !messages.isEmpty()) {
+                    List<MessageItem> items = new ArrayList<>(messages.size());
+                    Long earliestEventId = null;
+                    Long latestEventId = null;
+                    for (MessageReceived msg : messages) {
+                        if (earliestEventId == null || msg.getSentEventId() < earliestEventId) {
+                            earliestEventId = msg.getSentEventId();
+                        }
+                        if (latestEventId == null || msg.getSentEventId() > latestEventId) {
+                            latestEventId = msg.getSentEventId();
+                        }
+                        // Second copy of a message sent again from the outbox still counts for paging but isn't displayed
+                        if (!isDuplicate(msg.getMetadata(), msg.getMessageId())) {
+                            items.add(createMessageItem(msg.getMessageId(), msg.getSentEventId(), msg.getFromWhom().getId(), msg.getParts()));
+                        }
                     }
-                    return;
+                    messagePager.onLoaded(page, messages.size(), earliestEventId);
+                    notifyMessagesAdded(conversationId, items);
+                    if (page.getFrom() == null) {
+                        cacheMessages(conversationId, items);
+                        // Live messages are checked for gaps from the latest loaded one
+                        gapTracker.reset(conversationId, latestEventId);
+                    }
+                } else if (result.isSuccessful()) {
+                    messagePager.onLoaded(page, 0, null);
+                    if (page.getFrom() == null) {
+                        notifyMessagesEmpty(conversationId);
+                        cacheMessages(conversationId, new ArrayList<MessageItem>());
+                    }
+                } else {
+                    Log.e(Const.TAG, "Error getting messages: " + result.getMessage());
+                    messagePager.onFailed(page);
                 }
 
-                notifyMessagesEmpty(conversationId);
+                notifyPagingFinished(conversationId);
             }
 
             @Override
             public void error(Throwable t) {
                 Log.e(Const.TAG, "Error getting messages: " + t.getLocalizedMessage());
+                messagePager.onFailed(page);
+                notifyPagingFinished(conversationId);
+            }
+        }));
+    }
+
+    /**
+     * Use the latest page loaded by the prefetcher as the first page of a conversation.
+     *
+     * @param conversationId Conversation unique id.
+     * @param prefetched     Prefetched page.
+     */
+    private void onPrefetchedMessages(String conversationId, MessagePrefetcher.Entry prefetched) {
+        List<MessageItem> messages = prefetched.getMessages();
+        Long earliestEventId = null;
+        Long latestEventId = null;
+        for (MessageItem message : messages) {
+            if (earliestEventId == null || message.getConversationEventId() < earliestEventId) {
+                earliestEventId = message.getConversationEventId();
+            }
+            if (latestEventId == null || message.getConversationEventId() > latestEventId) {
+                latestEventId = message.getConversationEventId();
+            }
+        }
+        messagePager.firstLoaded(conversationId, prefetched.getLimit(), messages.size(), earliestEventId);
+        if (!messages.isEmpty()) {
+            notifyMessagesAdded(conversationId, messages);
+            cacheMessages(conversationId, messages);
+            gapTracker.reset(conversationId, latestEventId);
+        } else {
+            notifyMessagesEmpty(conversationId);
+        }
+        notifyPagingFinished(conversationId);
+    }
+
+    /**
+     * Queue the latest page of the most recently active conversations for prefetching. Conversations without activity in this session
+     * keep the order of the query result.
+     *
+     * @param conversations Conversations from the query result.
+     */
+    private void prefetchMostRecent(List<ConversationDetails> conversations) {
+        List<String> conversationIds = new ArrayList<>(conversations.size());
+        for (ConversationDetails conversation : conversations) {
+            conversationIds.add(conversation.getId());
+        }
+        // Stable sort, most recent activity first
+        Collections.sort(conversationIds, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                Long lhsActivity = lastActivity.get(lhs);
+                Long rhsActivity = lastActivity.get(rhs);
+                return Long.compare(rhsActivity != null ? rhsActivity : Long.MIN_VALUE, lhsActivity != null ? lhsActivity : Long.MIN_VALUE);
             }
         });
+        prefetcher.prefetch(conversationIds, MessagePrefetcher.DEFAULT_TOP_N, messagePager.getPageSize());
+    }
+
+    /**
+     * Query the latest page of messages for the prefetcher.
+     *
+     * @param conversationId Conversation unique id.
+     * @param limit          Maximum number of messages.
+     * @param prefetchResult Receives the messages or null if the query failed.
+     */
+    private void prefetchMessages(final String conversationId, int limit, final MessagePrefetcher.Result prefetchResult) {
+
+        client.service().messaging().queryMessages(conversationId, null, limit, metrics.wrap(ApiMetrics.OPERATION_QUERY_MESSAGES, new Callback<ComapiResult<MessagesQueryResponse>>() {
+            @Override
+            public void success(ComapiResult<MessagesQueryResponse> result) {
+                if (!result.isSuccessful() || result.getResult() == null) {
+                    Log.e(Const.TAG, "Error prefetching messages: " + result.getMessage());
+                    prefetchResult.done(null);
+                    return;
+                }
+                List<MessageReceived> messages = result.getResult().getMessages();
+                List<MessageItem> items = new ArrayList<>(messages != null ? messages.size() : 0);
+                if (messages != null) {
+                    for (MessageReceived msg : messages) {
+                        if (!isDuplicate(msg.getMetadata(), msg.getMessageId())) {
+                            items.add(createMessageItem(msg.getMessageId(), msg.getSentEventId(), msg.getFromWhom().getId(), msg.getParts()));
+                        }
+                    }
+                }
+                prefetchResult.done(items);
+            }
+
+            @Override
+            public void error(Throwable t) {
+                Log.e(Const.TAG, "Error prefetching messages: " + t.getLocalizedMessage());
+                prefetchResult.done(null);
+            }
+        }));
+    }
+
+    /**
+     * Gets time of the latest message received or the conversation opened in this session.
+     *
+     * @param conversationId Conversation unique id.
+     * @return Elapsed realtime of the last activity, 0 if none.
+     */
+    public long getLastActivity(String conversationId) {
+        Long time = lastActivity.get(conversationId);
+        return time != null ? time : 0;
+    }
+
+    /**
+     * Gets prefetch counters and concurrency limit.
+     *
+     * @return Prefetcher of the latest messages.
+     */
+    public MessagePrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Query messages missed by the socket and notify MessageListener.
+     *
+     * @param conversationId Conversation unique id.
+     * @param gapFrom        First missing conversation event id.
+     * @param gapTo          Last missing conversation event id.
+     * @param done           Run when the query finished.
+     */
+    private void backfillMessages(final String conversationId, final long gapFrom, final long gapTo, final Runnable done) {
+
+        // Query backwards from the event after the gap, the query may include the event it starts from
+        client.service().messaging().queryMessages(conversationId, gapTo + 1, (int) (gapTo - gapFrom + 2), metrics.wrap(ApiMetrics.OPERATION_QUERY_MESSAGES, new Callback<ComapiResult<MessagesQueryResponse>>() {
+            @Override
+            public void success(ComapiResult<MessagesQueryResponse> result) {
+
+                List<MessageReceived> messages = result.getResult() != null ? result.getResult().getMessages() : null;
+
+                if (messages != null && !messages.isEmpty()) {
+                    List<MessageItem> items = new ArrayList<>(messages.size());
+                    String profileId = getProfileId();
+                    for (MessageReceived msg : messages) {
+                        if (msg.getSentEventId() != null && msg.getSentEventId() >= gapFrom && msg.getSentEventId() <= gapTo) {
+                            gapTracker.recovered(1);
+                        }
+                        if (isDuplicate(msg.getMetadata(), msg.getMessageId())) {
+                            continue;
+                        }
+                        // The query may include the live message it starts from, the list view replaces it
+                        MessageItem item = createMessageItem(msg.getMessageId(), msg.getSentEventId(), msg.getFromWhom().getId(), msg.getParts());
+                        items.add(item);
+                        if (cache != null && profileId != null) {
+                            cache.addMessage(profileId, conversationId, item);
+                        }
+                    }
+                    notifyMessagesAdded(conversationId, items);
+                } else if (!result.isSuccessful()) {
+                    Log.e(Const.TAG, "Error getting missed messages: " + result.getMessage());
+                }
+                done.run();
+                Log.i(Const.TAG, "Message backfills " + gapTracker);
+            }
+
+            @Override
+            public void error(Throwable t) {
+                Log.e(Const.TAG, "Error getting missed messages: " + t.getLocalizedMessage());
+                done.run();
+            }
+        }));
+    }
+
+    /**
+     * Gets counters of detected gaps in live messages and backfill queries.
+     *
+     * @return Tracker of message event ids.
+     */
+    public EventGapTracker getGapTracker() {
+        return gapTracker;
+    }
+
+    /**
+     * Replace cached messages of a conversation with the latest page.
+     *
+     * @param conversationId Conversation unique id.
+     * @param messages       Latest messages.
+     */
+    private void cacheMessages(String conversationId, List<MessageItem> messages) {
+        String profileId = getProfileId();
+        if (cache != null && profileId != null) {
+            cache.saveMessages(profileId, conversationId, messages);
+        }
     }
 
     /**
@@ -353,6 +1056,19 @@ public class ComapiController {
      */
     public void setConversationListener(final ConversationListener listener) {
         conversationListeners.add(listener);
+        if (knownConversationListeners.add(listener)) {
+            // New screen, all conversations need to be notified regardless of ETags
+            eTagTracker.clear();
+        }
+    }
+
+    /**
+     * Gets ETag hit rate of conversation refreshes.
+     *
+     * @return Tracker of conversation ETags.
+     */
+    public ETagTracker getETagTracker() {
+        return eTagTracker;
     }
 
     /**
@@ -370,27 +1086,67 @@ public class ComapiController {
      * @param conversationId   Conversation unique id.
      * @param conversationName Conversation name.
      */
-    private void notifyConversationAdded(String conversationId, String conversationName) {
-        if (!conversationListeners.isEmpty()) {
-            for (ConversationListener listener : conversationListeners) {
-                if (listener != null) {
-                    listener.onAddConversation(conversationId, conversationName);
+    private void notifyConversationAdded(final String conversationId, final String conversationName) {
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                for (ConversationListener listener : conversationListeners) {
+                    if (listener != null) {
+                        listener.onAddConversation(conversationId, conversationName);
+                    }
                 }
             }
-        }
+        });
+    }
+
+    /**
+     * Notify registered listeners about a conversation to remove from the list.
+     *
+     * @param conversationId Conversation unique id.
+     */
+    private void notifyConversationRemoved(final String conversationId) {
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                for (ConversationListener listener : conversationListeners) {
+                    if (listener != null) {
+                        listener.onRemoveConversation(conversationId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Notify registered listeners that the conversation query finished, successfully or not.
+     */
+    private void notifyConversationQueryFinished() {
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                for (ConversationListener listener : conversationListeners) {
+                    if (listener != null) {
+                        listener.onConversationQueryFinished();
+                    }
+                }
+            }
+        });
     }
 
     /**
      * Notify registered listeners about an empty conversation list in query response.
      */
     private void notifyConversationsEmpty() {
-        if (!conversationListeners.isEmpty()) {
-            for (ConversationListener listener : conversationListeners) {
-                if (listener != null) {
-                    listener.onEmptyConversationList();
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                for (ConversationListener listener : conversationListeners) {
+                    if (listener != null) {
+                        listener.onEmptyConversationList();
+                    }
                 }
             }
-        }
+        });
     }
 
     /**
@@ -409,57 +1165,156 @@ public class ComapiController {
      */
     public void unregisterMessageListener(final String conversationId) {
         messageListeners.remove(conversationId);
+        // Messages are loaded again when the conversation is opened
+        gapTracker.forget(conversationId);
+    }
+
+    /**
+     * Record conversation event id of a live event to detect missed events.
+     *
+     * @param conversationId      Conversation unique id.
+     * @param conversationEventId Conversation event id.
+     */
+    void onConversationEvent(String conversationId, Long conversationEventId) {
+        if (conversationEventId != null) {
+            gapTracker.onEvent(conversationId, conversationEventId);
+        }
     }
 
     /**
      * Notify registered listeners about a message to add to the list.
      *
      * @param conversationId      Conversation unique id. Received message belongs to this conversation.
+     * @param messageId           Message unique id.
      * @param conversationEventId Monotonically increasing in a single conversation number of event assigned to received message.
      * @param from                Message sender profile id.
-     * @param isMyOwn             True if send by the user logged in in the app.
-     * @param body                Plain text message body.
+     * @param parts               Message parts.
      */
-    void notifyMessageAdded(String conversationId, Long conversationEventId, String from, boolean isMyOwn, String body) {
-        MessageListener listener = messageListeners.get(conversationId);
-        if (listener != null) {
-            listener.onAddMessage(conversationEventId, from, isMyOwn, body);
+    void notifyMessageAdded(String conversationId, String messageId, Long conversationEventId, String from, List<Part> parts) {
+        MessageItem message = createMessageItem(messageId, conversationEventId, from, parts);
+        lastActivity.put(conversationId, SystemClock.elapsedRealtime());
+        prefetcher.addMessage(conversationId, message);
+        String profileId = getProfileId();
+        if (cache != null && profileId != null) {
+            cache.addMessage(profileId, conversationId, message);
+        }
+        boolean flushPending;
+        synchronized (pendingMessages) {
+            flushPending = pendingMessages.isEmpty();
+            List<MessageItem> messages = pendingMessages.get(conversationId);
+            if (messages == null) {
+                messages = new ArrayList<>();
+                pendingMessages.put(conversationId, messages);
+            }
+            messages.add(message);
+        }
+        // Messages arriving before the flush runs join the same batch
+        if (flushPending) {
+            dispatcher.dispatch(flushPendingMessages);
         }
     }
 
+    /**
+     * Notify registered listeners about a page of messages to add to the list.
+     *
+     * @param conversationId Conversation unique id. Received messages belong to this conversation.
+     * @param messages       Received messages.
+     */
+    private void notifyMessagesAdded(final String conversationId, final List<MessageItem> messages) {
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                MessageListener listener = messageListeners.get(conversationId);
+                if (listener != null) {
+                    listener.onAddMessages(messages);
+                }
+            }
+        });
+    }
+
+    /**
+     * Notify registered listeners that a message query finished.
+     *
+     * @param conversationId Conversation unique id.
+     */
+    private void notifyPagingFinished(final String conversationId) {
+        final boolean hasMore = messagePager.hasMore(conversationId);
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                MessageListener listener = messageListeners.get(conversationId);
+                if (listener != null) {
+                    listener.onPagingFinished(hasMore);
+                }
+            }
+        });
+    }
+
     /**
      * Notify registered listeners about an empty message list in query response.
      */
-    private void notifyMessagesEmpty(String conversationId) {
-        MessageListener listener = messageListeners.get(conversationId);
-        if (listener != null) {
-            listener.onEmptyMessageList();
-        }
+    private void notifyMessagesEmpty(final String conversationId) {
+        dispatcher.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                MessageListener listener = messageListeners.get(conversationId);
+                if (listener != null) {
+                    listener.onEmptyMessageList();
+                }
+            }
+        });
     }
 
     /**
-     * Gets conversation details and notifies ConversationListeners.
+     * Gets conversation details and notifies ConversationListeners. Calls for the same conversation within a short window, or while the
+     * query is in flight, share a single query.
      *
      * @param conversationId Conversation unique id.
      */
     void getConversation(final String conversationId) {
+        conversationFetches.request(conversationId);
+    }
+
+    /**
+     * Gets numbers of requested and avoided conversation detail queries.
+     *
+     * @return Coalescer of conversation detail queries.
+     */
+    public FetchCoalescer getConversationFetches() {
+        return conversationFetches;
+    }
+
+    /**
+     * Query conversation details and notify listeners.
+     *
+     * @param conversationId Conversation unique id.
+     * @param done           Run when the query finished.
+     */
+    private void queryConversation(final String conversationId, final Runnable done) {
 
-        client.service().messaging().getConversation(conversationId, new Callback<ComapiResult<ConversationDetails>>() {
+        client.service().messaging().getConversation(conversationId, metrics.wrap(ApiMetrics.OPERATION_GET_CONVERSATION, new Callback<ComapiResult<ConversationDetails>>() {
             @Override
             public void success(ComapiResult<ConversationDetails> result) {
 
                 Log.i(Const.TAG, "Notifying listeners about a conversation " + conversationId);
 
-                if (result.isSuccessful()) {
+                if (result.isSuccessful() && eTagTracker.isChanged(result.getResult().getId(), result.getResult().getETag())) {
                     notifyConversationAdded(result.getResult().getId(), result.getResult().getName());
+                    String profileId = getProfileId();
+                    if (cache != null && profileId != null) {
+                        cache.putConversation(profileId, new ConversationItem(result.getResult().getId(), result.getResult().getName()));
+                    }
                 }
+                done.run();
+                Log.i(Const.TAG, "Conversation queries " + conversationFetches);
             }
 
             @Override
             public void error(Throwable t) {
                 Log.e(Const.TAG, "Error getting conversation: " + t.getLocalizedMessage());
+                done.run();
             }
-        });
+        }));
     }
 
     /**
@@ -467,12 +1322,19 @@ public class ComapiController {
      */
     public void startSession() {
 
-        client.service().session().startSession(new Callback<Session>() {
+        client.service().session().startSession(metrics.wrap(ApiMetrics.OPERATION_START_SESSION, new Callback<Session>() {
             @Override
             public void success(Session result) {
 
                 Log.i(Const.TAG, "Successfully started session");
 
+                // prefetched messages and conversation activity may belong to a different profile
+                prefetcher.cancel();
+                lastActivity.clear();
+
+                // send messages waiting for the session
+                replayOutbox();
+
                 // Post login finished event to EventBus 
                 EventBus.getDefault().postSticky(new LoginEvent(result.isSuccessfullyCreated()));
             }
@@ -485,6 +1347,6 @@ public class ComapiController {
                 // Post login finished event to EventBus 
                 EventBus.getDefault().postSticky(new LoginEvent(client.getSession().isSuccessfullyCreated()));
             }
-        });
+        }));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,379 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.comapi.sample.Const;
+import com.comapi.sample.ui.model.ConversationItem;
+import com.comapi.sample.ui.model.MessageItem;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Disk cache of conversation details and the most recent messages of each conversation, kept separately for every profile.
+ * Screens are populated from the cache as soon as they open while the network query runs, then the network result replaces the cached data.
+ * Files are read and written on a single background thread, results are delivered on the main thread.
+ */
+public class ConversationCache {
+
+    /**
+     * Maximum number of messages cached for a conversation.
+     */
+    public static final int MAX_MESSAGES = 50;
+
+    private static final String CHARSET = "UTF-8";
+
+    private static final String FILE_CONVERSATIONS = "conversations.json";
+
+    private static final String DIR_MESSAGES = "messages";
+
+    private static final String KEY_ID = "id";
+
+    private static final String KEY_NAME = "name";
+
+    private static final String KEY_EVENT_ID = "eventId";
+
+    private static final String KEY_BODY = "body";
+
+    private static final String KEY_FROM = "from";
+
+    private static final String KEY_MINE = "mine";
+
+    /**
+     * Receives data read from the cache.
+     *
+     * @param <T> Type of the cached data.
+     */
+    public interface Loaded<T> {
+
+        /**
+         * Cached data has been read. Called on the main thread.
+         *
+         * @param data Cached data, empty if nothing has been cached.
+         */
+        void onLoaded(T data);
+    }
+
+    private static final Comparator<MessageItem> EVENT_ID_ORDER = new Comparator<MessageItem>() {
+        @Override
+        public int compare(MessageItem lhs, MessageItem rhs) {
+            return lhs.getConversationEventId().compareTo(rhs.getConversationEventId());
+        }
+    };
+
+    private final File root;
+
+    private final ExecutorService executor;
+
+    private final Handler mainThread;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param root Directory to keep the cache files in.
+     */
+    public ConversationCache(File root) {
+        this.root = root;
+        this.executor = Executors.newSingleThreadExecutor();
+        this.mainThread = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Read cached conversations of a profile.
+     *
+     * @param profileId Profile id of the logged in user.
+     * @param callback  Receives cached conversations.
+     */
+    public void loadConversations(final String profileId, final Loaded<List<ConversationItem>> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<ConversationItem> conversations = new ArrayList<>(readConversations(profileId).values());
+                deliver(callback, conversations);
+            }
+        });
+    }
+
+    /**
+     * Replace cached conversations of a profile with the result of a conversation query.
+     *
+     * @param profileId     Profile id of the logged in user.
+     * @param conversations All conversations the user participates in.
+     */
+    public void saveConversations(final String profileId, final List<ConversationItem> conversations) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, ConversationItem> map = new LinkedHashMap<>();
+                for (ConversationItem conversation : conversations) {
+                    map.put(conversation.getId(), conversation);
+                }
+                writeConversations(profileId, map);
+            }
+        });
+    }
+
+    /**
+     * Add or update a single cached conversation.
+     *
+     * @param profileId    Profile id of the logged in user.
+     * @param conversation Conversation details.
+     */
+    public void putConversation(final String profileId, final ConversationItem conversation) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, ConversationItem> map = readConversations(profileId);
+                map.put(conversation.getId(), conversation);
+                writeConversations(profileId, map);
+            }
+        });
+    }
+
+    /**
+     * Read cached messages of a conversation.
+     *
+     * @param profileId      Profile id of the logged in user.
+     * @param conversationId Conversation unique id.
+     * @param callback       Receives cached messages ordered by conversation event id.
+     */
+    public void loadMessages(final String profileId, final String conversationId, final Loaded<List<MessageItem>> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, readMessages(profileId, conversationId));
+            }
+        });
+    }
+
+    /**
+     * Replace cached messages of a conversation with the latest page of messages.
+     *
+     * @param profileId      Profile id of the logged in user.
+     * @param conversationId Conversation unique id.
+     * @param messages       Latest messages in the conversation.
+     */
+    public void saveMessages(final String profileId, final String conversationId, final List<MessageItem> messages) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeMessages(profileId, conversationId, new ArrayList<>(messages));
+            }
+        });
+    }
+
+    /**
+     * Add a new message to the cached messages of a conversation. The oldest messages are dropped above {@link #MAX_MESSAGES}.
+     *
+     * @param profileId      Profile id of the logged in user.
+     * @param conversationId Conversation unique id.
+     * @param message        Received message.
+     */
+    public void addMessage(final String profileId, final String conversationId, final MessageItem message) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<MessageItem> messages = readMessages(profileId, conversationId);
+                for (int i = messages.size() - 1; i >= 0; i--) {
+                    if (messages.get(i).getConversationEventId().equals(message.getConversationEventId())) {
+                        messages.remove(i);
+                    }
+                }
+                messages.add(message);
+                writeMessages(profileId, conversationId, messages);
+            }
+        });
+    }
+
+    private <T> void deliver(final Loaded<T> callback, final T data) {
+        mainThread.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onLoaded(data);
+            }
+        });
+    }
+
+    private Map<String, ConversationItem> readConversations(String profileId) {
+        Map<String, ConversationItem> map = new LinkedHashMap<>();
+        String json = read(new File(profileDir(profileId), FILE_CONVERSATIONS));
+        if (json != null) {
+            try {
+                JSONArray array = new JSONArray(json);
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject object = array.getJSONObject(i);
+                    map.put(object.getString(KEY_ID), new ConversationItem(object.getString(KEY_ID), object.optString(KEY_NAME, null)));
+                }
+            } catch (JSONException e) {
+                Log.e(Const.TAG, "Ignoring corrupted conversation cache: " + e.getLocalizedMessage());
+            }
+        }
+        return map;
+    }
+
+    private void writeConversations(String profileId, Map<String, ConversationItem> conversations) {
+        try {
+            JSONArray array = new JSONArray();
+            for (ConversationItem conversation : conversations.values()) {
+                array.put(new JSONObject().put(KEY_ID, conversation.getId()).put(KEY_NAME, conversation.getName()));
+            }
+            write(new File(profileDir(profileId), FILE_CONVERSATIONS), array.toString());
+        } catch (JSONException e) {
+            Log.e(Const.TAG, "Error caching conversations: " + e.getLocalizedMessage());
+        }
+    }
+
+    private List<MessageItem> readMessages(String profileId, String conversationId) {
+        List<MessageItem> messages = new ArrayList<>();
+        String json = read(messagesFile(profileId, conversationId));
+        if (json != null) {
+            try {
+                JSONArray array = new JSONArray(json);
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject object = array.getJSONObject(i);
+                    messages.add(new MessageItem(object.getLong(KEY_EVENT_ID), object.optString(KEY_BODY, null), object.optString(KEY_FROM, null), object.getBoolean(KEY_MINE)));
+                }
+            } catch (JSONException e) {
+                Log.e(Const.TAG, "Ignoring corrupted message cache: " + e.getLocalizedMessage());
+            }
+        }
+        return messages;
+    }
+
+    private void writeMessages(String profileId, String conversationId, List<MessageItem> messages) {
+        Collections.sort(messages, EVENT_ID_ORDER);
+        List<MessageItem> recent = messages.subList(Math.max(0, messages.size() - MAX_MESSAGES), messages.size());
+        try {
+            JSONArray array = new JSONArray();
+            for (MessageItem message : recent) {
+                array.put(new JSONObject()
+                        .put(KEY_EVENT_ID, message.getConversationEventId())
+                        .put(KEY_BODY, message.getBody())
+                        .put(KEY_FROM, message.getSender())
+                        .put(KEY_MINE, message.getSentByMe()));
+            }
+            write(messagesFile(profileId, conversationId), array.toString());
+        } catch (JSONException e) {
+            Log.e(Const.TAG, "Error caching messages: " + e.getLocalizedMessage());
+        }
+    }
+
+    private File profileDir(String profileId) {
+        return new File(root, encode(profileId));
+    }
+
+    private File messagesFile(String profileId, String conversationId) {
+        return new File(new File(profileDir(profileId), DIR_MESSAGES), encode(conversationId) + ".json");
+    }
+
+    private static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            return String.valueOf(name.hashCode());
+        }
+    }
+
+    private static String read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            Log.e(Const.TAG, "Error reading cache file: " + e.getLocalizedMessage());
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the file through a temporary file so a crash can't leave it half written.
+     */
+    private static void write(File file, String content) {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(Const.TAG, "Unable to create cache directory " + dir.getPath());
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp, false), CHARSET));
+            writer.write(content);
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(file) && (!file.delete() || !tmp.renameTo(file))) {
+                Log.e(Const.TAG, "Unable to replace cache file " + file.getPath());
+            }
+        } catch (IOException e) {
+            Log.e(Const.TAG, "Error writing cache file: " + e.getLocalizedMessage());
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
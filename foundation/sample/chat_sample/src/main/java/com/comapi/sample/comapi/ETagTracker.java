@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers the ETag of every conversation already passed to the UI. A conversation received again with the same ETag hasn't changed,
+ * so listeners don't need to be notified. Counts checks and hits to report how much UI work the conditional refresh saves.
+ */
+public class ETagTracker {
+
+    /**
+     * ETags by conversation id.
+     */
+    private final Map<String, String> eTags;
+
+    private long checks;
+
+    private long hits;
+
+    /**
+     * Recommended constructor.
+     */
+    public ETagTracker() {
+        eTags = new HashMap<>();
+    }
+
+    /**
+     * Checks if the conversation changed since it was last seen and remembers the new ETag.
+     *
+     * @param conversationId Conversation unique id.
+     * @param eTag           ETag of received conversation details, can be null.
+     * @return False if the conversation has been seen with the same ETag, true otherwise. Always true if ETag is missing.
+     */
+    public synchronized boolean isChanged(String conversationId, String eTag) {
+        checks++;
+        if (eTag == null) {
+            eTags.remove(conversationId);
+            return true;
+        }
+        String previous = eTags.put(conversationId, eTag);
+        if (eTag.equals(previous)) {
+            hits++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forget the ETag of a removed conversation.
+     *
+     * @param conversationId Conversation unique id.
+     */
+    public synchronized void remove(String conversationId) {
+        eTags.remove(conversationId);
+    }
+
+    /**
+     * Forget all ETags e.g. when a new screen needs all conversations to be notified.
+     */
+    public synchronized void clear() {
+        eTags.clear();
+    }
+
+    /**
+     * Gets the share of checks where conversation hasn't changed.
+     *
+     * @return Hit rate between 0 and 1.
+     */
+    public synchronized double getHitRate() {
+        return checks > 0 ? (double) hits / checks : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "ETag checks=%d unchanged=%d hitRate=%.2f", checks, hits, getHitRate());
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Detects gaps in conversation event ids of live events, e.g. events missed while the socket was reconnecting. Missing ranges are passed
+ * to {@link Backfill} to query just these events instead of refreshing the whole conversation. Only one backfill per conversation runs
+ * at a time and consecutive backfills are at least {@link #DEFAULT_MIN_INTERVAL_MILLIS} apart, gaps found in the meantime are merged.
+ * Only conversations with a known starting point set in {@link #reset(String, long)} are tracked.
+ */
+public class EventGapTracker {
+
+    /**
+     * Default minimum time between backfills of the same conversation.
+     */
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 2000;
+
+    /**
+     * Maximum number of events queried in one backfill. Older missing events are left for paging.
+     */
+    public static final int MAX_BACKFILL = 100;
+
+    /**
+     * Queries missing events.
+     */
+    public interface Backfill {
+
+        /**
+         * Query missing events of a conversation. The range is at most {@link #MAX_BACKFILL} events long.
+         *
+         * @param conversationId Conversation unique id.
+         * @param gapFrom        First missing conversation event id.
+         * @param gapTo          Last missing conversation event id.
+         * @param done           Must be run when the query finished, successfully or not.
+         */
+        void backfill(String conversationId, long gapFrom, long gapTo, Runnable done);
+    }
+
+    /**
+     * Event ids seen in a conversation.
+     */
+    private static class State {
+
+        /**
+         * Highest event id with no missing events before it.
+         */
+        long contiguous;
+
+        /**
+         * Highest event id received.
+         */
+        long highest;
+
+        /**
+         * Missing range waiting for backfill, null if none.
+         */
+        Long gapFrom;
+
+        Long gapTo;
+
+        boolean scheduled;
+
+        boolean inFlight;
+
+        long lastBackfill;
+
+        State(long latestEventId) {
+            contiguous = latestEventId;
+            highest = latestEventId;
+        }
+    }
+
+    private final Handler handler;
+
+    private final long minIntervalMillis;
+
+    private final Backfill backfill;
+
+    private final Map<String, State> states;
+
+    private long events;
+
+    private long gaps;
+
+    private long backfills;
+
+    private long truncated;
+
+    private long recovered;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param minIntervalMillis Minimum time between backfills of the same conversation.
+     * @param backfill          Queries missing events.
+     */
+    public EventGapTracker(long minIntervalMillis, Backfill backfill) {
+        this.handler = new Handler(Looper.getMainLooper());
+        this.minIntervalMillis = minIntervalMillis;
+        this.backfill = backfill;
+        this.states = new HashMap<>();
+    }
+
+    /**
+     * Start tracking a conversation from the latest event loaded by a full query. Discards gaps found before.
+     *
+     * @param conversationId Conversation unique id.
+     * @param latestEventId  Latest conversation event id loaded.
+     */
+    public synchronized void reset(String conversationId, long latestEventId) {
+        states.put(conversationId, new State(latestEventId));
+    }
+
+    /**
+     * Stop tracking a conversation.
+     *
+     * @param conversationId Conversation unique id.
+     */
+    public synchronized void forget(String conversationId) {
+        states.remove(conversationId);
+    }
+
+    /**
+     * Record a live event and schedule backfill if events before it are missing.
+     *
+     * @param conversationId      Conversation unique id.
+     * @param conversationEventId Conversation event id of received event.
+     */
+    public synchronized void onEvent(String conversationId, long conversationEventId) {
+        State state = states.get(conversationId);
+        if (state == null) {
+            return;
+        }
+        events++;
+        if (conversationEventId <= state.highest) {
+            // Duplicate, or an event from the missing range arrived late
+            return;
+        }
+        if (conversationEventId > state.highest + 1) {
+            gaps++;
+            long from = state.highest + 1;
+            long to = conversationEventId - 1;
+            state.gapFrom = state.gapFrom == null ? from : Math.min(state.gapFrom, from);
+            state.gapTo = state.gapTo == null ? to : Math.max(state.gapTo, to);
+        }
+        state.highest = conversationEventId;
+        if (state.gapFrom == null && !state.inFlight) {
+            state.contiguous = state.highest;
+        } else {
+            schedule(conversationId, state);
+        }
+    }
+
+    /**
+     * Record number of messages recovered by a backfill.
+     *
+     * @param count Number of messages that weren't received live.
+     */
+    public synchronized void recovered(int count) {
+        recovered += count;
+    }
+
+    /**
+     * Gets number of detected gaps in event ids.
+     *
+     * @return Number of gaps.
+     */
+    public synchronized long getGaps() {
+        return gaps;
+    }
+
+    /**
+     * Gets number of backfill queries.
+     *
+     * @return Number of backfills.
+     */
+    public synchronized long getBackfills() {
+        return backfills;
+    }
+
+    /**
+     * Gets number of messages recovered by backfills.
+     *
+     * @return Number of messages.
+     */
+    public synchronized long getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Gets highest event id of a conversation with no missing events before it.
+     *
+     * @param conversationId Conversation unique id.
+     * @return Conversation event id or null if the conversation isn't tracked.
+     */
+    public synchronized Long getContiguousEventId(String conversationId) {
+        State state = states.get(conversationId);
+        return state != null ? state.contiguous : null;
+    }
+
+    /**
+     * Post backfill of the pending gap once the previous one finished and the minimum interval passed.
+     *
+     * @param conversationId Conversation unique id.
+     * @param state          Event ids seen in the conversation.
+     */
+    private void schedule(final String conversationId, final State state) {
+        if (state.gapFrom == null || state.scheduled || state.inFlight) {
+            return;
+        }
+        state.scheduled = true;
+        long delay = Math.max(0, state.lastBackfill + minIntervalMillis - SystemClock.elapsedRealtime());
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                start(conversationId, state);
+            }
+        }, delay);
+    }
+
+    /**
+     * Pass the pending gap to {@link Backfill}.
+     *
+     * @param conversationId Conversation unique id.
+     * @param state          Event ids seen in the conversation.
+     */
+    private void start(final String conversationId, final State state) {
+        long from;
+        long to;
+        synchronized (this) {
+            state.scheduled = false;
+            if (states.get(conversationId) != state || state.gapFrom == null) {
+                return;
+            }
+            to = state.gapTo;
+            from = state.gapFrom;
+            if (to - from + 1 > MAX_BACKFILL) {
+                // Keep the most recent missing events
+                truncated++;
+                from = to - MAX_BACKFILL + 1;
+            }
+            state.gapFrom = null;
+            state.gapTo = null;
+            state.inFlight = true;
+            state.lastBackfill = SystemClock.elapsedRealtime();
+            backfills++;
+        }
+        backfill.backfill(conversationId, from, to, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (EventGapTracker.this) {
+                    state.inFlight = false;
+                    if (state.gapFrom == null) {
+                        state.contiguous = state.highest;
+                    } else {
+                        schedule(conversationId, state);
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "events=%d gaps=%d backfills=%d truncated=%d recovered=%d", events, gaps, backfills, truncated, recovered);
+    }
+}
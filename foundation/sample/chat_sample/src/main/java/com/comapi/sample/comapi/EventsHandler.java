@@ -23,6 +23,8 @@ package com.comapi.sample.comapi;
 import com.comapi.MessagingListener;
 import com.comapi.internal.network.model.events.conversation.ParticipantAddedEvent;
 import com.comapi.internal.network.model.events.conversation.ParticipantRemovedEvent;
+import com.comapi.internal.network.model.events.conversation.message.MessageDeliveredEvent;
+import com.comapi.internal.network.model.events.conversation.message.MessageReadEvent;
 import com.comapi.internal.network.model.events.conversation.message.MessageSentEvent;
 
 /**
@@ -77,7 +79,31 @@ public class EventsHandler extends MessagingListener {
          New message received.
          */
 
+        // Check for events missed e.g. during socket reconnection
+        controller.onConversationEvent(event.getContext().getConversationId(), event.getConversationEventId());
+
+        // Ignore second copy of a message sent again from the outbox
+        if (controller.isDuplicate(event.getMetadata(), event.getMessageId())) {
+            return;
+        }
+
         // Notify listeners.
-        controller.notifyMessageAdded(event.getContext().getConversationId(), event.getConversationEventId(), event.getContext().getFromWhom().getId(), event.getContext().getFromWhom().getId().equals(controller.getProfileId()), event.getParts().get(0).getData());
+        controller.notifyMessageAdded(event.getContext().getConversationId(), event.getMessageId(), event.getConversationEventId(), event.getContext().getFromWhom().getId(), event.getParts());
+    }
+
+    @Override
+    public void onMessageDelivered(MessageDeliveredEvent event) {
+
+        /*
+         Message status changed. Status events share the conversation event ids with messages, record them so they aren't taken for missed messages.
+         */
+
+        controller.onConversationEvent(event.getConversationId(), event.getConversationEventId());
+    }
+
+    @Override
+    public void onMessageRead(MessageReadEvent event) {
+
+        controller.onConversationEvent(event.getConversationId(), event.getConversationEventId());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.comapi.sample.Const;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Folds repeated fetch requests for the same key into a single fetch. The first request for a key waits a short window, requests
+ * arriving in the window share its result instead of starting another one. Requests arriving while the fetch is in flight may need
+ * newer data than it returns, so they are folded into one more fetch started when it finishes. Used to get conversation details
+ * once when a burst of participant added events arrives for a new conversation.
+ */
+public class FetchCoalescer {
+
+    /**
+     * Default time to wait for more requests for the same key before fetching.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 300;
+
+    /**
+     * Performs the fetch for a key.
+     */
+    public interface Fetch {
+
+        /**
+         * Fetch data for a key.
+         *
+         * @param key  Key to fetch, e.g. conversation id.
+         * @param done Must be run when the fetch finished, successfully or not.
+         */
+        void fetch(String key, Runnable done);
+    }
+
+    private final Handler handler;
+
+    private final long windowMillis;
+
+    private final Fetch fetch;
+
+    /**
+     * Keys waiting for the window to close.
+     */
+    private final Set<String> scheduled;
+
+    /**
+     * Keys with a fetch in flight.
+     */
+    private final Set<String> inFlight;
+
+    /**
+     * Keys requested again while their fetch was in flight, fetched once more when it finishes.
+     */
+    private final Set<String> dirty;
+
+    private long requested;
+
+    private long fetched;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param windowMillis Time to wait for more requests for the same key before fetching.
+     * @param fetch        Performs the fetch.
+     */
+    public FetchCoalescer(long windowMillis, Fetch fetch) {
+        this.handler = new Handler(Looper.getMainLooper());
+        this.windowMillis = windowMillis;
+        this.fetch = fetch;
+        this.scheduled = new HashSet<>();
+        this.inFlight = new HashSet<>();
+        this.dirty = new HashSet<>();
+    }
+
+    /**
+     * Request fetch for a key. Does nothing if a fetch for this key is already scheduled, if it is in flight the key is fetched again when it finishes.
+     *
+     * @param key Key to fetch, e.g. conversation id.
+     */
+    public void request(final String key) {
+        synchronized (this) {
+            requested++;
+            if (scheduled.contains(key)) {
+                return;
+            }
+            if (inFlight.contains(key)) {
+                dirty.add(key);
+                return;
+            }
+            scheduled.add(key);
+        }
+        schedule(key);
+    }
+
+    /**
+     * Starts the fetch after the window.
+     *
+     * @param key Key to fetch.
+     */
+    private void schedule(final String key) {
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                start(key);
+            }
+        }, windowMillis);
+    }
+
+    /**
+     * Starts the fetch when the window closes.
+     *
+     * @param key Key to fetch.
+     */
+    private void start(final String key) {
+        synchronized (this) {
+            scheduled.remove(key);
+            inFlight.add(key);
+            fetched++;
+        }
+        try {
+            fetch.fetch(key, new Runnable() {
+                @Override
+                public void run() {
+                    finished(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Fetch failed before it started e.g. the client is not set yet, release the key so the next request can fetch it.
+            // Runs on the main looper, rethrowing would crash the app.
+            Log.e(Const.TAG, "Error fetching " + key + ": " + e.getLocalizedMessage(), e);
+            synchronized (this) {
+                inFlight.remove(key);
+                dirty.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Releases the key when the fetch finishes and fetches it again if it was requested in the meantime.
+     *
+     * @param key Fetched key.
+     */
+    private void finished(String key) {
+        synchronized (this) {
+            if (!inFlight.remove(key) || !dirty.remove(key)) {
+                return;
+            }
+            scheduled.add(key);
+        }
+        schedule(key);
+    }
+
+    /**
+     * Gets number of all fetch requests.
+     *
+     * @return Number of requests.
+     */
+    public synchronized long getRequested() {
+        return requested;
+    }
+
+    /**
+     * Gets number of fetches performed.
+     *
+     * @return Number of fetches.
+     */
+    public synchronized long getFetched() {
+        return fetched;
+    }
+
+    /**
+     * Gets number of requests served by another scheduled fetch or folded into a single fetch after the one in flight.
+     *
+     * @return Number of fetches avoided.
+     */
+    public synchronized long getAvoided() {
+        return requested - fetched - scheduled.size() - dirty.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "requested=%d fetched=%d avoided=%d", requested, fetched, getAvoided());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs listener notifications on the main thread. Notifications dispatched from any thread are queued and run in order by a single
+ * posted Runnable, so a burst of socket events costs one message in the main looper instead of one per event.
+ */
+public class MainThreadDispatcher {
+
+    private final Handler handler;
+
+    private final Queue<Runnable> queue;
+
+    /**
+     * True if drain Runnable is posted and hasn't started yet.
+     */
+    private final AtomicBoolean posted;
+
+    private final AtomicLong dispatched;
+
+    private final AtomicLong batches;
+
+    /**
+     * Runs all queued notifications.
+     */
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared before polling, notifications queued from now on are either run by this pass or posted again
+            posted.set(false);
+            batches.incrementAndGet();
+            Runnable notification;
+            while ((notification = queue.poll()) != null) {
+                notification.run();
+            }
+        }
+    };
+
+    /**
+     * Recommended constructor.
+     */
+    public MainThreadDispatcher() {
+        this.handler = new Handler(Looper.getMainLooper());
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.posted = new AtomicBoolean();
+        this.dispatched = new AtomicLong();
+        this.batches = new AtomicLong();
+    }
+
+    /**
+     * Queue notification to run on the main thread after notifications dispatched before.
+     *
+     * @param notification Notification to run.
+     */
+    public void dispatch(Runnable notification) {
+        dispatched.incrementAndGet();
+        queue.add(notification);
+        if (posted.compareAndSet(false, true)) {
+            handler.post(drain);
+        }
+    }
+
+    /**
+     * Gets number of dispatched notifications.
+     *
+     * @return Number of notifications.
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * Gets number of Runnables posted to the main thread.
+     *
+     * @return Number of batches.
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "dispatched=%d batches=%d", dispatched.get(), batches.get());
+    }
+}
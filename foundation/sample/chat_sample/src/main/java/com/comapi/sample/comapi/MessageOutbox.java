@@ -0,0 +1,493 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Durable outbox for messages that have not been confirmed by the server yet. Survives network loss and process death.
+ * Every message is appended to a journal file as an 'A' record and an acknowledged message is marked with a 'D' record. A message echoed by the server is marked with an 'E' record with its message id, so a copy sent again
+ * after process death is recognised after restart too. The journal is rewritten with only the pending messages and the most recently echoed ids once enough messages have been acknowledged.
+ * Each record ends with a checksum of its fields, records torn by a crash or otherwise corrupted are skipped when the journal is read.
+ * Pending messages are replayed in the order they were added. The outbox id is sent in the message metadata so the echo from the server can be matched and a message sent twice can be recognised.
+ */
+public class MessageOutbox {
+
+    /**
+     * Key of the message metadata entry with the outbox id.
+     */
+    public static final String METADATA_OUTBOX_ID = "outboxId";
+
+    private static final String RECORD_ADD = "A";
+    private static final String RECORD_DELETE = "D";
+    private static final String RECORD_ECHO = "E";
+    private static final String SEPARATOR = "\t";
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Number of acknowledged records in the journal after which it is compacted.
+     */
+    private static final int COMPACT_THRESHOLD = 50;
+
+    /**
+     * Maximum number of remembered ids of echoed messages.
+     */
+    private static final int MAX_ECHOED = 500;
+
+    /**
+     * Sends a single message from the outbox.
+     */
+    public interface Sender {
+
+        /**
+         * Send the message.
+         *
+         * @param entry  Message to send.
+         * @param result Result to be notified when the call finishes.
+         */
+        void send(Entry entry, Result result);
+    }
+
+    /**
+     * Result of sending a message.
+     */
+    public interface Result {
+
+        /**
+         * Sending finished.
+         *
+         * @param isSuccess True if the server accepted the message.
+         */
+        void finished(boolean isSuccess);
+    }
+
+    /**
+     * Message waiting in the outbox.
+     */
+    public static class Entry {
+
+        private final String id;
+        private final String conversationId;
+        private final String body;
+
+        Entry(String id, String conversationId, String body) {
+            this.id = id;
+            this.conversationId = conversationId;
+            this.body = body;
+        }
+
+        /**
+         * Get outbox id sent in the message metadata.
+         *
+         * @return Outbox id.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Get conversation unique id.
+         *
+         * @return Conversation unique id.
+         */
+        public String getConversationId() {
+            return conversationId;
+        }
+
+        /**
+         * Get message body.
+         *
+         * @return Message body.
+         */
+        public String getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Journal file.
+     */
+    private final File file;
+
+    /**
+     * Messages not yet acknowledged, in the order they were added.
+     */
+    private final LinkedHashMap<String /*id*/, Entry> pending;
+
+    /**
+     * Message ids of the messages already echoed by the server by outbox id, used to recognise messages sent twice.
+     */
+    private final LinkedHashMap<String /*id*/, String /*messageId*/> echoed;
+
+    private Writer writer;
+
+    private Sender sender;
+
+    private boolean isReplaying;
+
+    private int acknowledgedInJournal;
+
+    private long sentCount;
+
+    private long failedCount;
+
+    private long duplicateCount;
+
+    private long compactionCount;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param file Journal file.
+     */
+    public MessageOutbox(File file) {
+        this.file = file;
+        this.pending = new LinkedHashMap<>();
+        this.echoed = new LinkedHashMap<String, String>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_ECHOED;
+            }
+        };
+    }
+
+    /**
+     * Read pending messages from the journal file. Should be called once before the outbox is used.
+     *
+     * @throws IOException If the journal can't be read.
+     */
+    public synchronized void load() throws IOException {
+
+        pending.clear();
+        echoed.clear();
+        acknowledgedInJournal = 0;
+
+        if (file.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = parse(line);
+                    if (fields == null) {
+                        // incomplete last line after a crash or a corrupted record
+                        continue;
+                    }
+                    if (RECORD_ADD.equals(fields[0]) && fields.length == 4) {
+                        try {
+                            pending.put(fields[1], new Entry(fields[1], decode(fields[2]), decode(fields[3])));
+                        } catch (IllegalArgumentException e) {
+                            // malformed escape sequence, the record can't be restored
+                        }
+                    } else if (RECORD_DELETE.equals(fields[0]) && fields.length == 2) {
+                        pending.remove(fields[1]);
+                        acknowledgedInJournal++;
+                    } else if (RECORD_ECHO.equals(fields[0]) && fields.length == 3) {
+                        pending.remove(fields[1]);
+                        echoed.put(fields[1], fields[2]);
+                        acknowledgedInJournal++;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // start a clean journal with only the pending messages and echoed ids
+        compact();
+    }
+
+    /**
+     * Add message to the outbox. The message is saved in the journal before this method returns.
+     *
+     * @param conversationId Conversation unique id.
+     * @param body           Message body.
+     * @return Saved message.
+     * @throws IOException If the journal can't be written.
+     */
+    public Entry add(String conversationId, String body) throws IOException {
+        return add(UUID.randomUUID().toString(), conversationId, body);
+    }
+
+    /**
+     * Add message with a given id to the outbox. The message is saved in the journal before this method returns.
+     *
+     * @param id             Outbox id.
+     * @param conversationId Conversation unique id.
+     * @param body           Message body.
+     * @return Saved message.
+     * @throws IOException If the journal can't be written.
+     */
+    public synchronized Entry add(String id, String conversationId, String body) throws IOException {
+        Entry entry = new Entry(id, conversationId, body);
+        append(addRecord(id, conversationId, body));
+        pending.put(id, entry);
+        return entry;
+    }
+
+    /**
+     * Remove message from the outbox after the server accepted it.
+     *
+     * @param id Outbox id.
+     */
+    public synchronized void acknowledge(String id) {
+        if (pending.remove(id) != null) {
+            record(RECORD_DELETE + SEPARATOR + id);
+        }
+    }
+
+    /**
+     * Message with an outbox id in its metadata came back from the server, either as a live event or in a queried page.
+     * The first message id seen for the outbox id is saved in the journal, another message with the same outbox id is a copy sent again after the send response was lost.
+     *
+     * @param id        Outbox id from the message metadata.
+     * @param messageId Message unique id.
+     * @return False if another message with this outbox id has already been echoed, so this one is a duplicate and shouldn't be displayed.
+     */
+    public synchronized boolean onEcho(String id, String messageId) {
+        String echoedMessageId = echoed.get(id);
+        if (echoedMessageId != null) {
+            if (echoedMessageId.equals(messageId)) {
+                // same message queried again
+                return true;
+            }
+            duplicateCount++;
+            return false;
+        }
+        echoed.put(id, messageId);
+        // the send response could have been lost, the echo is enough to know the server has the message
+        pending.remove(id);
+        record(RECORD_ECHO + SEPARATOR + id + SEPARATOR + messageId);
+        return true;
+    }
+
+    /**
+     * Send pending messages one by one in the order they were added. Stops at the first failure, the message will be sent again on the next replay.
+     *
+     * @param sender Sends single messages.
+     */
+    public void replay(Sender sender) {
+        synchronized (this) {
+            this.sender = sender;
+            if (isReplaying) {
+                return;
+            }
+            isReplaying = true;
+        }
+        sendNext();
+    }
+
+    /**
+     * Send the oldest pending message.
+     */
+    private void sendNext() {
+
+        final Entry entry;
+        final Sender s;
+        synchronized (this) {
+            if (pending.isEmpty() || sender == null) {
+                isReplaying = false;
+                return;
+            }
+            entry = pending.values().iterator().next();
+            s = sender;
+        }
+
+        s.send(entry, new Result() {
+            @Override
+            public void finished(boolean isSuccess) {
+                if (isSuccess) {
+                    synchronized (MessageOutbox.this) {
+                        sentCount++;
+                    }
+                    acknowledge(entry.getId());
+                    sendNext();
+                } else {
+                    synchronized (MessageOutbox.this) {
+                        failedCount++;
+                        isReplaying = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Get pending messages in the order they were added.
+     *
+     * @return Pending messages.
+     */
+    public synchronized List<Entry> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Close the journal file.
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Append record to the journal and flush it to the disk.
+     *
+     * @param record Journal record.
+     * @throws IOException If the journal can't be written.
+     */
+    private void append(String record) throws IOException {
+        if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), CHARSET));
+        }
+        writer.write(seal(record));
+        writer.write('\n');
+        writer.flush();
+    }
+
+    /**
+     * Append record of an acknowledged or echoed message and compact the journal if enough of them have been appended.
+     *
+     * @param record Journal record.
+     */
+    private void record(String record) {
+        try {
+            append(record);
+            acknowledgedInJournal++;
+            if (acknowledgedInJournal >= COMPACT_THRESHOLD) {
+                compact();
+            }
+        } catch (IOException e) {
+            // the message will be sent again after restart and recognised as duplicate by its id when it comes back
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the pending messages and echoed ids.
+     *
+     * @throws IOException If the journal can't be written.
+     */
+    private void compact() throws IOException {
+
+        close();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp, false), CHARSET));
+        try {
+            for (Map.Entry<String, String> entry : echoed.entrySet()) {
+                out.write(seal(RECORD_ECHO + SEPARATOR + entry.getKey() + SEPARATOR + entry.getValue()));
+                out.write('\n');
+            }
+            for (Entry entry : pending.values()) {
+                out.write(seal(addRecord(entry.getId(), entry.getConversationId(), entry.getBody())));
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            // some file systems don't replace the existing file on rename
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Unable to replace outbox journal " + file.getPath());
+            }
+        }
+
+        acknowledgedInJournal = 0;
+        compactionCount++;
+    }
+
+    private static String addRecord(String id, String conversationId, String body) throws UnsupportedEncodingException {
+        return RECORD_ADD + SEPARATOR + id + SEPARATOR + encode(conversationId) + SEPARATOR + encode(body);
+    }
+
+    /**
+     * Append checksum of the record as its last field.
+     *
+     * @param record Journal record.
+     * @return Record line to write.
+     * @throws UnsupportedEncodingException If the charset is not supported.
+     */
+    private static String seal(String record) throws UnsupportedEncodingException {
+        return record + SEPARATOR + checksum(record);
+    }
+
+    /**
+     * Split record line into fields and verify its checksum.
+     *
+     * @param line Record line read from the journal.
+     * @return Record fields without the checksum or null if the line is incomplete or corrupted.
+     * @throws UnsupportedEncodingException If the charset is not supported.
+     */
+    private static String[] parse(String line) throws UnsupportedEncodingException {
+        int end = line.lastIndexOf(SEPARATOR);
+        if (end < 0) {
+            return null;
+        }
+        String record = line.substring(0, end);
+        if (!checksum(record).equals(line.substring(end + SEPARATOR.length()))) {
+            return null;
+        }
+        return record.split(SEPARATOR, -1);
+    }
+
+    private static String checksum(String record) throws UnsupportedEncodingException {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(CHARSET));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value != null ? value : "", CHARSET);
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, CHARSET);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "Outbox pending=%d sent=%d failed=%d duplicates=%d compactions=%d",
+                pending.size(), sentCount, failedCount, duplicateCount, compactionCount);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks paging of message queries per conversation. Remembers the earliest loaded conversation event id so older pages can be requested on demand,
+ * and adapts the page size to measured query latency - pages shrink when responses are slow and grow back when they are fast.
+ */
+public class MessagePager {
+
+    /**
+     * Smallest page size.
+     */
+    public static final int MIN_PAGE_SIZE = 20;
+
+    /**
+     * Largest page size.
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * Page size used before any latency was measured.
+     */
+    public static final int INITIAL_PAGE_SIZE = 50;
+
+    /**
+     * Query latency the page size is adjusted to.
+     */
+    public static final long TARGET_LATENCY_MILLIS = 1000;
+
+    /**
+     * Paging state of a conversation.
+     */
+    private static class Cursor {
+
+        Long earliestEventId;
+
+        boolean hasMore = true;
+
+        boolean loading;
+    }
+
+    /**
+     * Message query to be made.
+     */
+    public static class Page {
+
+        private final String conversationId;
+
+        private final Long from;
+
+        private final int limit;
+
+        private final Cursor cursor;
+
+        private final long startedAt;
+
+        private Page(String conversationId, Long from, int limit, Cursor cursor) {
+            this.conversationId = conversationId;
+            this.from = from;
+            this.limit = limit;
+            this.cursor = cursor;
+            this.startedAt = System.nanoTime();
+        }
+
+        /**
+         * @return Conversation unique id.
+         */
+        public String getConversationId() {
+            return conversationId;
+        }
+
+        /**
+         * @return Conversation event id to query messages from (backwards), null for the latest messages.
+         */
+        public Long getFrom() {
+            return from;
+        }
+
+        /**
+         * @return Maximum number of messages to query.
+         */
+        public int getLimit() {
+            return limit;
+        }
+    }
+
+    private final Map<String, Cursor> cursors;
+
+    private int pageSize;
+
+    /**
+     * Recommended constructor.
+     */
+    public MessagePager() {
+        cursors = new HashMap<>();
+        pageSize = INITIAL_PAGE_SIZE;
+    }
+
+    /**
+     * Starts paging a conversation from the latest messages. Resets previous paging state of the conversation.
+     *
+     * @param conversationId Conversation unique id.
+     * @return Page to query.
+     */
+    public synchronized Page first(String conversationId) {
+        Cursor cursor = new Cursor();
+        cursor.loading = true;
+        cursors.put(conversationId, cursor);
+        return new Page(conversationId, null, pageSize, cursor);
+    }
+
+    /**
+     * Starts paging a conversation from a latest page loaded in advance. Resets previous paging state of the conversation.
+     *
+     * @param conversationId  Conversation unique id.
+     * @param limit           Page size of the query that loaded the page.
+     * @param count           Number of messages in the page.
+     * @param earliestEventId Earliest conversation event id in the page, null if empty.
+     */
+    public synchronized void firstLoaded(String conversationId, int limit, int count, Long earliestEventId) {
+        Cursor cursor = new Cursor();
+        cursor.earliestEventId = earliestEventId;
+        cursor.hasMore = count >= limit && earliestEventId != null && earliestEventId > 0;
+        cursors.put(conversationId, cursor);
+    }
+
+    /**
+     * Gets the page of messages older than the earliest message loaded so far.
+     *
+     * @param conversationId Conversation unique id.
+     * @return Page to query or null if a query is already running, the first page hasn't been loaded or there are no older messages.
+     */
+    public synchronized Page previous(String conversationId) {
+        Cursor cursor = cursors.get(conversationId);
+        if (cursor == null || cursor.loading || !cursor.hasMore || cursor.earliestEventId == null) {
+            return null;
+        }
+        cursor.loading = true;
+        return new Page(conversationId, cursor.earliestEventId - 1, pageSize, cursor);
+    }
+
+    /**
+     * Records a page query result.
+     *
+     * @param page            Queried page.
+     * @param count           Number of messages received.
+     * @param earliestEventId Earliest conversation event id in the received messages, null if none were received.
+     */
+    public synchronized void onLoaded(Page page, int count, Long earliestEventId) {
+        adapt((System.nanoTime() - page.startedAt) / 1000000);
+        Cursor cursor = page.cursor;
+        cursor.loading = false;
+        if (earliestEventId != null && (cursor.earliestEventId == null || earliestEventId < cursor.earliestEventId)) {
+            cursor.earliestEventId = earliestEventId;
+        }
+        // conversation event ids start from 0
+        cursor.hasMore = count >= page.limit && cursor.earliestEventId != null && cursor.earliestEventId > 0;
+    }
+
+    /**
+     * Records failed page query. The same page can be queried again.
+     *
+     * @param page Queried page.
+     */
+    public synchronized void onFailed(Page page) {
+        page.cursor.loading = false;
+    }
+
+    /**
+     * Checks if the page query is still running and the page hasn't been replaced by a newer {@link #first(String)} call.
+     *
+     * @param page Queried page.
+     * @return True if the query result hasn't arrived yet.
+     */
+    public synchronized boolean isLoading(Page page) {
+        return page.cursor.loading && cursors.get(page.conversationId) == page.cursor;
+    }
+
+    /**
+     * Checks if there may be older messages to load.
+     *
+     * @param conversationId Conversation unique id.
+     * @return True if older messages can be queried.
+     */
+    public synchronized boolean hasMore(String conversationId) {
+        Cursor cursor = cursors.get(conversationId);
+        return cursor != null && cursor.hasMore;
+    }
+
+    /**
+     * Gets page size for the next query.
+     *
+     * @return Current page size.
+     */
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Halves the page size when a query took longer than the target latency, grows it by a quarter when it took less than half of it.
+     *
+     * @param latencyMillis Measured query latency.
+     */
+    private void adapt(long latencyMillis) {
+        if (latencyMillis > TARGET_LATENCY_MILLIS) {
+            pageSize = Math.max(MIN_PAGE_SIZE, pageSize / 2);
+        } else if (latencyMillis < TARGET_LATENCY_MILLIS / 2) {
+            pageSize = Math.min(MAX_PAGE_SIZE, pageSize + pageSize / 4);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import android.os.SystemClock;
+
+import com.comapi.sample.ui.model.MessageItem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Loads the latest page of messages for the conversations the user is most likely to open next, so opening them doesn't wait for
+ * a message query. At most {@link #getMaxConcurrent()} queries run at the same time. Loaded pages are kept in a small LRU cache and
+ * handed out once by {@link #take(String)}. {@link #cancel()} drops queued queries and results of queries still running.
+ */
+public class MessagePrefetcher {
+
+    /**
+     * Default number of conversations to prefetch after the conversation list loads.
+     */
+    public static final int DEFAULT_TOP_N = 5;
+
+    /**
+     * Default maximum number of queries running at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+
+    /**
+     * Default maximum number of prefetched pages kept in memory.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10;
+
+    /**
+     * Prefetched pages older than this are displayed but queried again.
+     */
+    public static final long MAX_AGE_MILLIS = 60 * 1000;
+
+    /**
+     * Queries the latest page of messages.
+     */
+    public interface Fetch {
+
+        /**
+         * Query the latest messages of a conversation.
+         *
+         * @param conversationId Conversation unique id.
+         * @param limit          Maximum number of messages.
+         * @param result         Must be called when the query finished.
+         */
+        void fetch(String conversationId, int limit, Result result);
+    }
+
+    /**
+     * Receives result of a prefetch query.
+     */
+    public interface Result {
+
+        /**
+         * Query finished.
+         *
+         * @param messages Received messages, null if the query failed.
+         */
+        void done(List<MessageItem> messages);
+    }
+
+    /**
+     * Latest page of messages of a conversation.
+     */
+    public static class Entry {
+
+        private final List<MessageItem> messages;
+
+        private final int limit;
+
+        private final long loadedAt;
+
+        Entry(List<MessageItem> messages, int limit) {
+            this.messages = messages;
+            this.limit = limit;
+            this.loadedAt = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * Gets prefetched messages.
+         *
+         * @return Messages, including live messages received after the query.
+         */
+        public List<MessageItem> getMessages() {
+            return messages;
+        }
+
+        /**
+         * Gets page size of the query.
+         *
+         * @return Maximum number of messages queried.
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * Checks if the page is recent enough to skip querying it again.
+         *
+         * @return True if loaded less than {@link #MAX_AGE_MILLIS} ago.
+         */
+        public boolean isFresh() {
+            return SystemClock.elapsedRealtime() - loadedAt < MAX_AGE_MILLIS;
+        }
+    }
+
+    private final Fetch fetch;
+
+    private final int cacheSize;
+
+    private int maxConcurrent;
+
+    /**
+     * Prefetched pages in access order, the eldest is removed when the cache is full.
+     */
+    private final LinkedHashMap<String, Entry> cache;
+
+    /**
+     * Conversations waiting for a free query slot.
+     */
+    private final Queue<String> queue;
+
+    /**
+     * Conversations queued or being queried.
+     */
+    private final Set<String> pending;
+
+    /**
+     * Conversations opened while their query was running, the result is already outdated.
+     */
+    private final Set<String> taken;
+
+    /**
+     * Queries running, including the ones started before {@link #cancel()} whose results will be dropped.
+     */
+    private int running;
+
+    /**
+     * Incremented by {@link #cancel()}, results of queries started before are dropped.
+     */
+    private int generation;
+
+    private long fetched;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param maxConcurrent Maximum number of queries running at the same time.
+     * @param cacheSize     Maximum number of prefetched pages kept in memory.
+     * @param fetch         Queries the latest page of messages.
+     */
+    public MessagePrefetcher(int maxConcurrent, final int cacheSize, Fetch fetch) {
+        this.fetch = fetch;
+        this.cacheSize = cacheSize;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MessagePrefetcher.Entry> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.queue = new ArrayDeque<>();
+        this.pending = new HashSet<>();
+        this.taken = new HashSet<>();
+    }
+
+    /**
+     * Queue the latest page of conversations to prefetch. Conversations already cached or queued are skipped.
+     *
+     * @param conversationIds Conversations ordered from the most likely to be opened.
+     * @param limit           Number of conversations from the start of the list to prefetch.
+     * @param pageSize        Maximum number of messages per conversation.
+     */
+    public void prefetch(List<String> conversationIds, int limit, int pageSize) {
+        List<String> toStart;
+        int startedIn;
+        synchronized (this) {
+            int count = Math.min(Math.min(limit, cacheSize), conversationIds.size());
+            for (int i = 0; i < count; i++) {
+                String conversationId = conversationIds.get(i);
+                if (!cache.containsKey(conversationId) && pending.add(conversationId)) {
+                    queue.add(conversationId);
+                }
+            }
+            toStart = poll();
+            startedIn = generation;
+        }
+        for (String conversationId : toStart) {
+            start(conversationId, pageSize, startedIn);
+        }
+    }
+
+    /**
+     * Removes the prefetched page of a conversation.
+     *
+     * @param conversationId Conversation unique id.
+     * @return Prefetched page or null if the conversation hasn't been prefetched.
+     */
+    public synchronized Entry take(String conversationId) {
+        Entry entry = cache.remove(conversationId);
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+            if (pending.contains(conversationId)) {
+                taken.add(conversationId);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a live message to the prefetched page of a conversation, so the page stays current until it's taken.
+     *
+     * @param conversationId Conversation unique id.
+     * @param message        Received message.
+     */
+    public synchronized void addMessage(String conversationId, MessageItem message) {
+        Entry entry = cache.get(conversationId);
+        if (entry != null) {
+            entry.messages.add(message);
+        }
+    }
+
+    /**
+     * Drops queued queries, results of running queries and all prefetched pages. Call when the session changes. Running queries keep their slots until they finish.
+     */
+    public synchronized void cancel() {
+        generation++;
+        queue.clear();
+        pending.clear();
+        taken.clear();
+        cache.clear();
+    }
+
+    /**
+     * Sets maximum number of queries running at the same time.
+     *
+     * @param maxConcurrent Maximum number of queries, at least 1.
+     */
+    public synchronized void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+    }
+
+    /**
+     * Gets maximum number of queries running at the same time.
+     *
+     * @return Maximum number of queries.
+     */
+    public synchronized int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Takes queued conversations up to the concurrency limit.
+     *
+     * @return Conversations to query.
+     */
+    private List<String> poll() {
+        List<String> toStart = new ArrayList<>();
+        while (running < maxConcurrent && !queue.isEmpty()) {
+            running++;
+            toStart.add(queue.poll());
+        }
+        return toStart;
+    }
+
+    /**
+     * Query a conversation and start the next queued one when it finishes.
+     *
+     * @param conversationId Conversation unique id.
+     * @param pageSize       Maximum number of messages.
+     * @param startedIn      Generation the query belongs to.
+     */
+    private void start(final String conversationId, final int pageSize, final int startedIn) {
+        fetch.fetch(conversationId, pageSize, new Result() {
+            @Override
+            public void done(List<MessageItem> messages) {
+                List<String> toStart;
+                int current;
+                synchronized (MessagePrefetcher.this) {
+                    // A query of an ended session held its slot until now
+                    running--;
+                    if (startedIn == generation) {
+                        pending.remove(conversationId);
+                        if (messages != null && !taken.remove(conversationId)) {
+                            fetched++;
+                            cache.put(conversationId, new Entry(new ArrayList<>(messages), pageSize));
+                        }
+                    }
+                    toStart = poll();
+                    current = generation;
+                }
+                for (String next : toStart) {
+                    start(next, pageSize, current);
+                }
+            }
+        });
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "fetched=%d hits=%d misses=%d cached=%d", fetched, hits, misses, cache.size());
+    }
+}
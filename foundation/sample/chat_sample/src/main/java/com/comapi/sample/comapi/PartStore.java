@@ -0,0 +1,240 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import android.util.Log;
+
+import com.comapi.internal.network.model.messaging.Part;
+import com.comapi.sample.Const;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Keeps data of large message parts in files instead of memory or database rows. Parts up to {@link #INLINE_LIMIT} characters are
+ * stored inline by the caller, larger ones are written to a file named after the message id and part index and read back only when
+ * the full part is needed. List rows use {@link #preview(List)} which never exceeds {@link #PREVIEW_LENGTH} characters.
+ */
+public class PartStore {
+
+    /**
+     * Maximum length of part data stored inline.
+     */
+    public static final int INLINE_LIMIT = 4 * 1024;
+
+    /**
+     * Maximum length of a message preview displayed in a list row.
+     */
+    public static final int PREVIEW_LENGTH = 300;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Directory with part files.
+     */
+    private final File dir;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param dir Directory with part files, created if missing.
+     */
+    public PartStore(File dir) {
+        this.dir = dir;
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(Const.TAG, "Error creating message parts directory " + dir.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Checks if part data is too large to be stored inline.
+     *
+     * @param data Part data.
+     * @return True if the data should be written with {@link #write(String, int, String)}.
+     */
+    public static boolean isLarge(String data) {
+        return data != null && data.length() > INLINE_LIMIT;
+    }
+
+    /**
+     * Write data of a large part to a file.
+     *
+     * @param messageId Message unique id.
+     * @param index     Index of the part in the message.
+     * @param data      Part data.
+     * @return File with the data or null if writing failed.
+     */
+    public File write(String messageId, int index, String data) {
+        File file = new File(dir, fileName(messageId, index));
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.write(data.getBytes(UTF_8));
+            return file;
+        } catch (IOException e) {
+            Log.e(Const.TAG, "Error writing message part: " + e.getLocalizedMessage());
+            return null;
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Read data of a part written with {@link #write(String, int, String)}.
+     *
+     * @param file File with the data.
+     * @return Part data or null if the file can't be read.
+     */
+    public static String read(File file) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } catch (IOException e) {
+            Log.e(Const.TAG, "Error reading message part: " + e.getLocalizedMessage());
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Delete files of all parts of a message.
+     *
+     * @param messageId Message unique id.
+     */
+    public void delete(String messageId) {
+        String prefix = fileName(messageId, 0);
+        prefix = prefix.substring(0, prefix.lastIndexOf('_') + 1);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(prefix)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete files of all messages.
+     */
+    public void clear() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Create text for a list row from message parts. Uses the first text part shortened to {@link #PREVIEW_LENGTH} characters, or the
+     * type of the first part if there is no text. Other parts are counted.
+     *
+     * @param parts Message parts.
+     * @return Message preview.
+     */
+    public static String preview(List<Part> parts) {
+        if (parts == null || parts.isEmpty()) {
+            return "";
+        }
+        Part first = parts.get(0);
+        for (Part part : parts) {
+            if (isText(part.getType())) {
+                first = part;
+                break;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        if (isText(first.getType()) && first.getData() != null) {
+            String data = first.getData();
+            if (data.length() > PREVIEW_LENGTH) {
+                int end = PREVIEW_LENGTH;
+                // don't split a surrogate pair
+                if (Character.isHighSurrogate(data.charAt(end - 1))) {
+                    end--;
+                }
+                sb.append(data, 0, end).append('\u2026');
+            } else {
+                sb.append(data);
+            }
+        } else {
+            sb.append('[').append(first.getType() != null ? first.getType() : first.getName()).append(']');
+        }
+        if (parts.size() > 1) {
+            sb.append(" (+").append(parts.size() - 1).append(')');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks if part type is text. Parts without a type are treated as text.
+     *
+     * @param type Part MIME type.
+     * @return True for text types.
+     */
+    private static boolean isText(String type) {
+        return type == null || type.startsWith("text/");
+    }
+
+    /**
+     * File name for a part, message id characters not allowed in file names are replaced.
+     *
+     * @param messageId Message unique id.
+     * @param index     Index of the part in the message.
+     * @return File name.
+     */
+    private static String fileName(String messageId, int index) {
+        return messageId.replaceAll("[^A-Za-z0-9.-]", "-") + "_" + index;
+    }
+
+    /**
+     * Close stream ignoring errors.
+     *
+     * @param closeable Stream to close, can be null.
+     */
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(Const.TAG, e.getLocalizedMessage());
+            }
+        }
+    }
+}
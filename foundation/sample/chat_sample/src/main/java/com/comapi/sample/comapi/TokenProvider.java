@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+/**
+ * Asynchronous source of JWT tokens answering authentication challenges, e.g. a client of an auth provider service.
+ */
+public interface TokenProvider {
+
+    /**
+     * Receives the result of a token request. May be called on any thread.
+     */
+    interface Callback {
+
+        /**
+         * Token has been issued.
+         *
+         * @param token Signed JWT token.
+         */
+        void onToken(String token);
+
+        /**
+         * Token could not be issued.
+         *
+         * @param t Reason of the failure.
+         */
+        void onError(Throwable t);
+    }
+
+    /**
+     * Prepare everything a token request for the profile needs ahead of the authentication challenge, so the challenge
+     * itself only waits for signing the nonce. Returns immediately.
+     *
+     * @param profileId Profile id expected to authenticate.
+     */
+    void prefetch(String profileId);
+
+    /**
+     * Request a token for the nonce of an authentication challenge. Returns immediately.
+     *
+     * @param profileId Profile id to issue the token for.
+     * @param nonce     Nonce from the authentication challenge.
+     * @param callback  Receives the token or the failure.
+     */
+    void requestToken(String profileId, String nonce, Callback callback);
+}
@@ -41,21 +41,19 @@ import android.widget.TextView;
 
 import com.comapi.sample.Const;
 import com.comapi.sample.R;
+import com.comapi.sample.StartupTrace;
 import com.comapi.sample.comapi.ComapiController;
 import com.comapi.sample.events.Initialisation;
 import com.comapi.sample.events.LoginEvent;
 import com.comapi.sample.ui.holders.ConversationViewHolder;
 import com.comapi.sample.ui.listeners.ConversationListener;
 import com.comapi.sample.ui.model.ConversationItem;
+import com.comapi.sample.ui.model.ConversationListModel;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Activity displaying all conversations in which registered user participates. Allows to send new message to a conversation.
  *
@@ -74,14 +72,19 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
     private ComapiController controller;
 
     /**
-     * Conversations, no duplicates.
+     * Conversations ordered by last activity, no duplicates.
+     */
+    private ConversationListModel<ConversationItem> conversations;
+
+    /**
+     * True if conversations were inserted, removed or moved since the list view was last refreshed.
      */
-    private Map<String, ConversationItem> dataMap;
+    private boolean structureChanged;
 
     /**
-     * Conversations, no duplicates.
+     * Conversations list view.
      */
-    private ArrayList<ConversationItem> data;
+    private ListView listView;
 
     /**
      * Adapter for conversations list view.
@@ -185,10 +188,36 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
      */
     private void initAdapter() {
 
-        data = new ArrayList<>();
-        dataMap = new HashMap<>();
+        conversations = new ConversationListModel<>(new ConversationListModel.Listener() {
+            @Override
+            public void onInserted(int position) {
+                structureChanged = true;
+            }
+
+            @Override
+            public void onRemoved(int position) {
+                structureChanged = true;
+            }
+
+            @Override
+            public void onMoved(int from, int to) {
+                structureChanged = true;
+            }
+
+            @Override
+            public void onChanged(int position) {
+                if (!structureChanged) {
+                    rebindRow(position);
+                }
+            }
+
+            @Override
+            public void onCleared() {
+                structureChanged = true;
+            }
+        });
 
-        adapter = new ArrayAdapter<ConversationItem>(this, 0, data) {
+        adapter = new ArrayAdapter<ConversationItem>(this, 0, conversations.getItems()) {
             @NonNull
             @Override
             public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
@@ -221,19 +250,41 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
         };
 
         // Bind adapter with list view
-        ListView listview = (ListView) findViewById(R.id.list_view_conversations);
-        listview.setAdapter(adapter);
+        listView = (ListView) findViewById(R.id.list_view_conversations);
+        listView.setAdapter(adapter);
 
         // Set action when list element will be clicked. Open chat for a given conversation.
-        listview.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                ConversationItem item = data.get(position);
+                ConversationItem item = conversations.getItems().get(position);
                 openChat(item.getId(), item.getName());
             }
         });
     }
 
+    /**
+     * Bind data to a single row if it's visible, other rows are left untouched.
+     *
+     * @param position Position of the changed conversation.
+     */
+    private void rebindRow(int position) {
+        View row = listView.getChildAt(position - listView.getFirstVisiblePosition());
+        if (row != null) {
+            adapter.getView(position, row, listView);
+        }
+    }
+
+    /**
+     * Refresh list view once if conversations were inserted, removed or moved.
+     */
+    private void refreshIfStructureChanged() {
+        if (structureChanged) {
+            structureChanged = false;
+            adapter.notifyDataSetChanged();
+        }
+    }
+
     /**
      * Open Activity with list of messages in a given conversation.
      */
@@ -257,6 +308,9 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
          SDK finished initialising.
          */
 
+        // The app start is complete when the conversation list is drawn with the SDK ready
+        StartupTrace.finishOnNextDraw(findViewById(R.id.list_view_conversations), "conversation_list");
+
         // Get Controller for Comapi calls
         controller = event.getController();
         // Get profile id for which Comapi SDK was authenticating session.
@@ -309,19 +363,42 @@ public class ConversationListActivity extends AppCompatActivity implements Creat
         /*
          Add new conversation in which logged in user participates.
          */
-        dataMap.put(conversationId, new ConversationItem(conversationId, conversationName));
-        data.clear();
-        data.addAll(dataMap.values());
-        adapter.notifyDataSetChanged();
+        conversations.put(conversationId, new ConversationItem(conversationId, conversationName), controller.getLastActivity(conversationId));
+        refreshIfStructureChanged();
         // Hide progress bar
         overlay.setVisibility(View.GONE);
     }
 
+    @Override
+    public void onRemoveConversation(String conversationId) {
+
+        /*
+         Remove conversation displayed from the cache that no longer exists.
+         */
+        conversations.remove(conversationId);
+        refreshIfStructureChanged();
+    }
+
+    @Override
+    public void onConversationActivity(String conversationId, long time) {
+
+        /*
+         New message in a conversation, move it to the top.
+         */
+        conversations.touch(conversationId, time);
+        refreshIfStructureChanged();
+    }
+
+    @Override
+    public void onConversationQueryFinished() {
+        // Hide progress bar, also when nothing changed or the query failed
+        overlay.setVisibility(View.GONE);
+    }
+
     @Override
     public void onEmptyConversationList() {
-        dataMap.clear();
-        data.clear();
-        adapter.notifyDataSetChanged();
+        conversations.clear();
+        refreshIfStructureChanged();
         // Hide progress bar
         overlay.setVisibility(View.GONE);
     }
@@ -46,6 +46,7 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Activity displaying participants for a conversation. Allows to add and remove participants.
@@ -135,10 +136,10 @@ public class ManageParticipantsActivity extends AppCompatActivity implements Par
         addButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                String participantId = participantEditText.getText().toString();
-                if (!TextUtils.isEmpty(participantId)) {
-                    // Send request to add participant to this conversation.
-                    controller.addParticipant(ManageParticipantsActivity.this.getApplicationContext(), conversationId, participantId);
+                String participantIds = participantEditText.getText().toString().trim();
+                if (!TextUtils.isEmpty(participantIds)) {
+                    // Send request to add participants to this conversation. Many profile ids can be separated with commas or spaces.
+                    controller.addParticipants(ManageParticipantsActivity.this.getApplicationContext(), conversationId, Arrays.asList(participantIds.split("[,\\s]+")));
                     participantEditText.setText("");
                 }
             }
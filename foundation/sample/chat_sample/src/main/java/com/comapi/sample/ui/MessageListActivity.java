@@ -24,6 +24,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
@@ -51,7 +52,9 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Activity displaying messages for a conversation. Allows to send new message to a conversation.
@@ -71,12 +74,17 @@ public class MessageListActivity extends AppCompatActivity implements MessageLis
     private String conversationName;
 
     /**
-     * Messages sorted by conversation event id (monotonically increasing with the order of message sent in conversation).
+     * Orders messages by conversation event id (monotonically increasing with the order of message sent in conversation).
      */
-    private TreeMap<Long, MessageItem> data;
+    private static final Comparator<MessageItem> EVENT_ID_ORDER = new Comparator<MessageItem>() {
+        @Override
+        public int compare(MessageItem lhs, MessageItem rhs) {
+            return lhs.getConversationEventId().compareTo(rhs.getConversationEventId());
+        }
+    };
 
     /**
-     * Messages passed to adapter obtained from ordered values of {@link MessageListActivity#data}.
+     * Messages passed to adapter, kept sorted by {@link MessageListActivity#EVENT_ID_ORDER}.
      */
     private ArrayList<MessageItem> dataArray;
 
@@ -100,6 +108,16 @@ public class MessageListActivity extends AppCompatActivity implements MessageLis
      */
     private ViewGroup overlay;
 
+    /**
+     * List view displaying messages.
+     */
+    private ListView listView;
+
+    /**
+     * Widget displaying loading spinner when older messages are requested by swiping the list down.
+     */
+    private SwipeRefreshLayout swipeToRefresh;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -178,6 +196,7 @@ public class MessageListActivity extends AppCompatActivity implements MessageLis
         if (controller != null) {
             // Remove socket message listener for active Conversation
             controller.unregisterMessageListener(conversationId);
+            controller.getApiMetrics().export();
         }
     }
 
@@ -189,6 +208,19 @@ public class MessageListActivity extends AppCompatActivity implements MessageLis
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar_messages);
         setSupportActionBar(toolbar);
 
+        // Swipe down at the top of the list to load older messages
+        swipeToRefresh = (SwipeRefreshLayout) findViewById(R.id.swipe_to_refresh_messages);
+        swipeToRefresh.setOnRefreshListener(
+                new SwipeRefreshLayout.OnRefreshListener() {
+                    @Override
+                    public void onRefresh() {
+                        if (controller == null || !controller.getPreviousMessages(conversationId)) {
+                            swipeToRefresh.setRefreshing(false);
+                        }
+                    }
+                }
+        );
+
         messageEditText = (EditText) findViewById(R.id.send_message_edit_text);
 
         // Button to send
@@ -218,11 +250,22 @@ public class MessageListActivity extends AppCompatActivity implements MessageLis
      */
     private void bindData() {
 
-        data = new TreeMap<>();
         dataArray = new ArrayList<>();
 
         adapter = new ArrayAdapter<MessageItem>(this, 0, dataArray) {
 
+            @Override
+            public boolean hasStableIds() {
+                // Lets the list view keep its scroll position when messages are inserted above the visible rows
+                return true;
+            }
+
+            @Override
+            public long getItemId(int position) {
+                MessageItem item = getItem(position);
+                return item != null ? item.getConversationEventId() : position;
+            }
+
             @Override
             public int getViewTypeCount() {
 
@@ -295,8 +338,8 @@ public class MessageListActivity extends AppCompatActivity implements MessageLis
         };
 
         // Bind adapter with list view
-        ListView listview = (ListView) findViewById(R.id.list_view_messages);
-        listview.setAdapter(adapter);
+        listView = (ListView) findViewById(R.id.list_view_messages);
+        listView.setAdapter(adapter);
 
     }
 
@@ -321,23 +364,86 @@ public class MessageListActivity extends AppCompatActivity implements MessageLis
     }
 
     @Override
-    public void onAddMessage(Long conversationEventId, String from, boolean isMyOwn, String body) {
+    public void onAddMessage(MessageItem message) {
 
         /*
          A new message was received from socket or message query
          */
 
-        // Add data and sort messages
-        data.put(conversationEventId, new MessageItem(body, from, isMyOwn));
-        // Populate adapter data with sorted messages
-        dataArray.clear();
-        dataArray.addAll(data.values());
+        // Insert message at its sorted position
+        insert(message);
         // Notify adapter to refresh list view
         adapter.notifyDataSetChanged();
         // Hide progress bar
         overlay.setVisibility(View.GONE);
     }
 
+    @Override
+    public void onAddMessages(List<MessageItem> messages) {
+
+        /*
+         A page of messages was received from message query
+         */
+
+        // Remember the first visible message to keep it in place when older messages are inserted above it
+        int firstPosition = listView.getFirstVisiblePosition();
+        View firstView = listView.getChildAt(0);
+        int firstTop = firstView != null ? firstView.getTop() : 0;
+        MessageItem firstItem = firstPosition < dataArray.size() ? dataArray.get(firstPosition) : null;
+
+        List<MessageItem> sorted = new ArrayList<>(messages);
+        Collections.sort(sorted, EVENT_ID_ORDER);
+        if (!dataArray.isEmpty() && !sorted.isEmpty() && EVENT_ID_ORDER.compare(sorted.get(sorted.size() - 1), dataArray.get(0)) < 0) {
+            // Page of older messages goes in front of all loaded messages
+            dataArray.addAll(0, sorted);
+        } else {
+            for (MessageItem item : sorted) {
+                insert(item);
+            }
+        }
+        // Refresh list view once for the whole page
+        adapter.notifyDataSetChanged();
+        if (firstItem != null) {
+            listView.setSelectionFromTop(Collections.binarySearch(dataArray, firstItem, EVENT_ID_ORDER), firstTop);
+        }
+        // Hide progress bar
+        overlay.setVisibility(View.GONE);
+    }
+
+    @Override
+    public void onPagingFinished(boolean hasMore) {
+
+        /*
+         Message query finished
+         */
+
+        // Hide progress bar, also when the query failed
+        overlay.setVisibility(View.GONE);
+        swipeToRefresh.setRefreshing(false);
+        // Nothing older to load
+        swipeToRefresh.setEnabled(hasMore);
+    }
+
+    /**
+     * Insert message into the sorted adapter data using binary search. A message with the same conversation event id replaces the existing one.
+     *
+     * @param item Message to insert.
+     */
+    private void insert(MessageItem item) {
+        int size = dataArray.size();
+        // New messages usually come after the last one
+        if (size == 0 || EVENT_ID_ORDER.compare(dataArray.get(size - 1), item) < 0) {
+            dataArray.add(item);
+            return;
+        }
+        int index = Collections.binarySearch(dataArray, item, EVENT_ID_ORDER);
+        if (index >= 0) {
+            dataArray.set(index, item);
+        } else {
+            dataArray.add(-index - 1, item);
+        }
+    }
+
     @Override
     public void onEmptyMessageList() {
 
@@ -346,7 +452,6 @@ public class MessageListActivity extends AppCompatActivity implements MessageLis
          */
 
         // Clear data store.
-        data.clear();
         dataArray.clear();
         // Notify adapter to refresh list view
         adapter.notifyDataSetChanged();
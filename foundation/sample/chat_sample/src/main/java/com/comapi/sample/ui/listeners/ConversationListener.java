@@ -35,8 +35,28 @@ public interface ConversationListener {
      */
     void onAddConversation(String conversationId, String conversationName);
 
+    /**
+     * Conversation is no longer available to the user. Should be removed from conversation list view.
+     *
+     * @param conversationId Conversation unique id.
+     */
+    void onRemoveConversation(String conversationId);
+
+    /**
+     * New activity in a conversation, e.g. a message was received.
+     *
+     * @param conversationId Conversation unique id.
+     * @param time           Time of the activity, comparable with {@link com.comapi.sample.comapi.ComapiController#getLastActivity(String)}.
+     */
+    void onConversationActivity(String conversationId, long time);
+
     /**
      * Conversation query finished with an empty result.
      */
     void onEmptyConversationList();
+
+    /**
+     * Conversation query finished, successfully or not. Conversations that haven't changed since the last query are not passed to {@link #onAddConversation}.
+     */
+    void onConversationQueryFinished();
 }
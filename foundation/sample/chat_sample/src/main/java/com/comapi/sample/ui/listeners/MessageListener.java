@@ -20,6 +20,10 @@
 
 package com.comapi.sample.ui.listeners;
 
+import com.comapi.sample.ui.model.MessageItem;
+
+import java.util.List;
+
 /**
  * Interface for the Activities to listen for received messages.
  *
@@ -30,15 +34,26 @@ public interface MessageListener {
     /**
      * Message was received.
      *
-     * @param conversationEventId Conversation event id of this message. Monotonically increasing in a conversation.
-     * @param from                Profile id of a user that sent the message.
-     * @param isMyOwn             Is sent by the user registered locally.
-     * @param body                Body of an text message.
+     * @param message Received message.
+     */
+    void onAddMessage(MessageItem message);
+
+    /**
+     * Page of messages was received from a message query. Delivered in a single call so the list view is refreshed once per page.
+     *
+     * @param messages Received messages in any order.
      */
-    void onAddMessage(Long conversationEventId, String from, boolean isMyOwn, String body);
+    void onAddMessages(List<MessageItem> messages);
 
     /**
      * Message query finished with an empty result.
      */
     void onEmptyMessageList();
+
+    /**
+     * Message query for a page of messages finished, successfully or not.
+     *
+     * @param hasMore True if there may be older messages to load.
+     */
+    void onPagingFinished(boolean hasMore);
 }
@@ -0,0 +1,328 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.ui.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversations displayed in the conversation list, ordered by last activity with the most recent first. Conversations with the same
+ * activity keep the order in which they were added. Finds a conversation by id in constant time and its position by binary search.
+ * Changes are reported to {@link Listener} with positions, so a list view can rebind a single row instead of refreshing all of them.
+ *
+ * @param <T> Conversation data displayed in a list row.
+ */
+public class ConversationListModel<T> {
+
+    /**
+     * Receives positional changes of the list.
+     */
+    public interface Listener {
+
+        /**
+         * Conversation inserted.
+         *
+         * @param position Position of the new conversation.
+         */
+        void onInserted(int position);
+
+        /**
+         * Conversation removed.
+         *
+         * @param position Position of the conversation before removal.
+         */
+        void onRemoved(int position);
+
+        /**
+         * Conversation moved after its activity changed.
+         *
+         * @param from Position before the move.
+         * @param to   Position after the move.
+         */
+        void onMoved(int from, int to);
+
+        /**
+         * Conversation data changed in place.
+         *
+         * @param position Position of the conversation.
+         */
+        void onChanged(int position);
+
+        /**
+         * All conversations removed.
+         */
+        void onCleared();
+    }
+
+    /**
+     * Conversation with its sort keys.
+     */
+    private static class Entry<T> {
+
+        T item;
+
+        long activity;
+
+        /**
+         * Order of adding, breaks ties between conversations with the same activity.
+         */
+        final long sequence;
+
+        Entry(T item, long activity, long sequence) {
+            this.item = item;
+            this.activity = activity;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Most recent activity first, then order of adding.
+     */
+    private final Comparator<Entry<T>> order = new Comparator<Entry<T>>() {
+        @Override
+        public int compare(Entry<T> lhs, Entry<T> rhs) {
+            if (lhs.activity != rhs.activity) {
+                return lhs.activity > rhs.activity ? -1 : 1;
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+
+    private final Listener listener;
+
+    /**
+     * Conversations in display order.
+     */
+    private final ArrayList<Entry<T>> entries;
+
+    /**
+     * Conversations by id.
+     */
+    private final Map<String, Entry<T>> index;
+
+    /**
+     * Read only view of conversations in display order, backed by this model.
+     */
+    private final List<T> items;
+
+    private long nextSequence;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param listener Receives positional changes of the list.
+     */
+    public ConversationListModel(Listener listener) {
+        this.listener = listener;
+        this.entries = new ArrayList<>();
+        this.index = new HashMap<>();
+        this.items = new AbstractList<T>() {
+            @Override
+            public T get(int location) {
+                return entries.get(location).item;
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    /**
+     * Add a conversation or update its data and activity.
+     *
+     * @param id       Conversation unique id.
+     * @param item     Conversation data.
+     * @param activity Time of the last activity, conversations with higher values are displayed first.
+     */
+    public void put(String id, T item, long activity) {
+        Entry<T> entry = index.get(id);
+        if (entry == null) {
+            entry = new Entry<>(item, activity, nextSequence++);
+            index.put(id, entry);
+            int position = -Collections.binarySearch(entries, entry, order) - 1;
+            entries.add(position, entry);
+            listener.onInserted(position);
+        } else if (entry.activity == activity) {
+            entry.item = item;
+            listener.onChanged(positionOf(entry));
+        } else {
+            entry.item = item;
+            move(entry, activity);
+        }
+    }
+
+    /**
+     * Update data of a conversation keeping its position.
+     *
+     * @param id   Conversation unique id.
+     * @param item Conversation data.
+     * @return False if the conversation isn't in the list.
+     */
+    public boolean update(String id, T item) {
+        Entry<T> entry = index.get(id);
+        if (entry == null) {
+            return false;
+        }
+        entry.item = item;
+        listener.onChanged(positionOf(entry));
+        return true;
+    }
+
+    /**
+     * Move a conversation to its new position after activity.
+     *
+     * @param id       Conversation unique id.
+     * @param activity Time of the last activity.
+     * @return False if the conversation isn't in the list.
+     */
+    public boolean touch(String id, long activity) {
+        Entry<T> entry = index.get(id);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.activity != activity) {
+            move(entry, activity);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a conversation.
+     *
+     * @param id Conversation unique id.
+     * @return False if the conversation wasn't in the list.
+     */
+    public boolean remove(String id) {
+        Entry<T> entry = index.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        int position = positionOf(entry);
+        entries.remove(position);
+        listener.onRemoved(position);
+        return true;
+    }
+
+    /**
+     * Remove conversations not in the given set of ids.
+     *
+     * @param ids Ids of conversations to keep.
+     */
+    public void retain(Collection<String> ids) {
+        Iterator<Map.Entry<String, Entry<T>>> iterator = index.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry<T>> mapEntry = iterator.next();
+            if (!ids.contains(mapEntry.getKey())) {
+                int position = positionOf(mapEntry.getValue());
+                entries.remove(position);
+                iterator.remove();
+                listener.onRemoved(position);
+            }
+        }
+    }
+
+    /**
+     * Remove all conversations.
+     */
+    public void clear() {
+        entries.clear();
+        index.clear();
+        listener.onCleared();
+    }
+
+    /**
+     * Gets conversation data by id.
+     *
+     * @param id Conversation unique id.
+     * @return Conversation data or null if not in the list.
+     */
+    public T get(String id) {
+        Entry<T> entry = index.get(id);
+        return entry != null ? entry.item : null;
+    }
+
+    /**
+     * Gets position of a conversation.
+     *
+     * @param id Conversation unique id.
+     * @return Position in the list or -1 if not in the list.
+     */
+    public int indexOf(String id) {
+        Entry<T> entry = index.get(id);
+        return entry != null ? positionOf(entry) : -1;
+    }
+
+    /**
+     * Gets conversations in display order. The list is read only and reflects later changes, it can back a list adapter.
+     *
+     * @return Conversations in display order.
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Gets number of conversations.
+     *
+     * @return Number of conversations.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Position of an entry in the list.
+     *
+     * @param entry Entry in the list.
+     * @return Position of the entry.
+     */
+    private int positionOf(Entry<T> entry) {
+        return Collections.binarySearch(entries, entry, order);
+    }
+
+    /**
+     * Change activity of an entry and move it to keep the list ordered.
+     *
+     * @param entry    Entry in the list.
+     * @param activity New activity.
+     */
+    private void move(Entry<T> entry, long activity) {
+        int from = positionOf(entry);
+        entries.remove(from);
+        entry.activity = activity;
+        int to = -Collections.binarySearch(entries, entry, order) - 1;
+        entries.add(to, entry);
+        if (from == to) {
+            listener.onChanged(to);
+        } else {
+            listener.onMoved(from, to);
+        }
+    }
+}
@@ -20,6 +20,9 @@
 
 package com.comapi.sample.ui.model;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Data holder for message in list view.
  *
@@ -28,10 +31,20 @@ package com.comapi.sample.ui.model;
 public class MessageItem {
 
     /**
-     * Message body.
+     * Conversation event id of this message. Monotonically increasing in a conversation.
+     */
+    private Long conversationEventId;
+
+    /**
+     * Message preview, at most {@link com.comapi.sample.comapi.PartStore#PREVIEW_LENGTH} characters.
      */
     private String body;
 
+    /**
+     * Message parts, large parts are kept in files.
+     */
+    private List<MessagePart> parts;
+
     /**
      * Profile id of a message sender.
      */
@@ -45,25 +58,59 @@ public class MessageItem {
     /**
      * Recommended constructor.
      *
-     * @param body     Message body.
-     * @param from     Profile id of a message sender.
-     * @param sentByMe True if sent by the user registered locally.
+     * @param conversationEventId Conversation event id of this message.
+     * @param body                Message body.
+     * @param from                Profile id of a message sender.
+     * @param sentByMe            True if sent by the user registered locally.
+     */
+    public MessageItem(Long conversationEventId, String body, String from, Boolean sentByMe) {
+        this(conversationEventId, body, from, sentByMe, Collections.<MessagePart>emptyList());
+    }
+
+    /**
+     * Constructor for a message with parts.
+     *
+     * @param conversationEventId Conversation event id of this message.
+     * @param body                Message preview.
+     * @param from                Profile id of a message sender.
+     * @param sentByMe            True if sent by the user registered locally.
+     * @param parts               Message parts adapted with {@link MessagePart#adapt}.
      */
-    public MessageItem(String body, String from, Boolean sentByMe) {
+    public MessageItem(Long conversationEventId, String body, String from, Boolean sentByMe, List<MessagePart> parts) {
+        this.conversationEventId = conversationEventId;
         this.body = body;
         this.sender = from;
         this.sentByMe = sentByMe;
+        this.parts = parts;
+    }
+
+    /**
+     * Gets conversation event id of this message.
+     *
+     * @return Conversation event id, monotonically increasing in a conversation.
+     */
+    public Long getConversationEventId() {
+        return conversationEventId;
     }
 
     /**
-     * Gets Message body.
+     * Gets Message preview for a list row.
      *
-     * @return Message body.
+     * @return Message preview.
      */
     public String getBody() {
         return body;
     }
 
+    /**
+     * Gets message parts. Data of large parts is read from files when requested. Messages restored from the cache have no parts.
+     *
+     * @return Message parts.
+     */
+    public List<MessagePart> getParts() {
+        return parts;
+    }
+
     /**
      * Is sent by the user registered locally.
      *
@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.ui.model;
+
+import com.comapi.internal.network.model.messaging.Part;
+import com.comapi.sample.comapi.PartStore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message part with data kept inline when small or in a file when larger than {@link PartStore#INLINE_LIMIT}. Data in a file is read
+ * only when {@link #getData()} is called.
+ */
+public class MessagePart {
+
+    private final String name;
+
+    private final String type;
+
+    private final Integer size;
+
+    /**
+     * Inline data, null if the data is in a file.
+     */
+    private final String data;
+
+    /**
+     * File with the data, null if the data is inline.
+     */
+    private final File file;
+
+    /**
+     * Recommended constructor.
+     *
+     * @param name Part name.
+     * @param type Part MIME type.
+     * @param size Part size declared by the sender.
+     * @param data Inline data, null if the data is in a file.
+     * @param file File with the data, null if the data is inline.
+     */
+    public MessagePart(String name, String type, Integer size, String data, File file) {
+        this.name = name;
+        this.type = type;
+        this.size = size;
+        this.data = data;
+        this.file = file;
+    }
+
+    /**
+     * Adapt message parts received from the SDK. Large parts are written to files if the part store is available.
+     *
+     * @param messageId Message unique id.
+     * @param parts     Message parts received from the SDK.
+     * @param store     Store for large parts, null to keep all parts inline.
+     * @return Message parts.
+     */
+    public static List<MessagePart> adapt(String messageId, List<Part> parts, PartStore store) {
+        if (parts == null || parts.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<MessagePart> result = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            Part part = parts.get(i);
+            File file = null;
+            if (store != null && messageId != null && PartStore.isLarge(part.getData())) {
+                file = store.write(messageId, i, part.getData());
+            }
+            result.add(new MessagePart(part.getName(), part.getType(), part.getSize(), file == null ? part.getData() : null, file));
+        }
+        return result;
+    }
+
+    /**
+     * Get part name.
+     *
+     * @return Part name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get part MIME type.
+     *
+     * @return Part MIME type.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Get part size declared by the sender.
+     *
+     * @return Part size, can be null.
+     */
+    public Integer getSize() {
+        return size;
+    }
+
+    /**
+     * Check if the data is kept in memory.
+     *
+     * @return True if the data is inline, false if it's read from a file.
+     */
+    public boolean isInline() {
+        return file == null;
+    }
+
+    /**
+     * Get part data. Reads the file for large parts, don't call from list rows.
+     *
+     * @return Part data or null if the file can't be read.
+     */
+    public String getData() {
+        return file != null ? PartStore.read(file) : data;
+    }
+}
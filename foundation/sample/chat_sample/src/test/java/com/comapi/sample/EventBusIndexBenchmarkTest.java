@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample;
+
+import com.comapi.sample.events.Initialisation;
+import com.comapi.sample.events.LoginEvent;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+import org.greenrobot.eventbus.meta.SimpleSubscriberInfo;
+import org.greenrobot.eventbus.meta.SubscriberInfo;
+import org.greenrobot.eventbus.meta.SubscriberInfoIndex;
+import org.greenrobot.eventbus.meta.SubscriberMethodInfo;
+
+import org.junit.After;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Microbenchmark of EventBus register/unregister cost with reflection lookup and with a subscriber index like the one generated from build.gradle.
+ * Cold runs clear the EventBus caches before every registration, which is the cost paid the first time an Activity class registers in a process.
+ * Results are printed, not asserted, as timings depend on the machine, so the benchmark is ignored in regular test runs. Remove {@link Ignore} to run it,
+ * {@link EventBusIndexTest} checks that the generated index is complete and used.
+ */
+@Ignore("Benchmark, run manually")
+public class EventBusIndexBenchmarkTest {
+
+    private static final int WARM_UP = 1000;
+
+    private static final int ITERATIONS = 10000;
+
+    /**
+     * Subscribes to the same sticky events as ConversationListActivity.
+     */
+    public static class Subscriber {
+
+        int received;
+
+        @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
+        public void onEvent(Initialisation event) {
+            received++;
+        }
+
+        @Subscribe(threadMode = ThreadMode.MAIN, sticky = true)
+        public void onEvent(LoginEvent event) {
+            received++;
+        }
+    }
+
+    /**
+     * Same content the annotation processor generates for {@link Subscriber}.
+     */
+    private static class Index implements SubscriberInfoIndex {
+
+        private final SubscriberInfo info = new SimpleSubscriberInfo(Subscriber.class, true, new SubscriberMethodInfo[]{
+                new SubscriberMethodInfo("onEvent", Initialisation.class, ThreadMode.MAIN, 0, true),
+                new SubscriberMethodInfo("onEvent", LoginEvent.class, ThreadMode.MAIN, 0, true),
+        });
+
+        @Override
+        public SubscriberInfo getSubscriberInfo(Class<?> subscriberClass) {
+            return subscriberClass == Subscriber.class ? info : null;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        EventBus.clearCaches();
+    }
+
+    @Test
+    public void registrationCost() {
+        EventBus reflection = EventBus.builder().ignoreGeneratedIndex(true).build();
+        EventBus index = EventBus.builder().addIndex(new Index()).build();
+
+        for (EventBus bus : new EventBus[]{reflection, index}) {
+            bus.postSticky(new Initialisation(null));
+            bus.postSticky(new LoginEvent(true));
+            measure(bus, true, WARM_UP);
+            measure(bus, false, WARM_UP);
+        }
+
+        report("reflection cold", measure(reflection, true, ITERATIONS));
+        report("index cold", measure(index, true, ITERATIONS));
+        report("reflection warm", measure(reflection, false, ITERATIONS));
+        report("index warm", measure(index, false, ITERATIONS));
+    }
+
+    /**
+     * Registers and unregisters a subscriber repeatedly.
+     *
+     * @param bus        Event bus to register to.
+     * @param cold       True if the EventBus caches should be cleared before each registration.
+     * @param iterations Number of registrations.
+     * @return Average nanoseconds per register and unregister pair.
+     */
+    private long measure(EventBus bus, boolean cold, int iterations) {
+        Subscriber subscriber = new Subscriber();
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            if (cold) {
+                EventBus.clearCaches();
+            }
+            long start = System.nanoTime();
+            bus.register(subscriber);
+            bus.unregister(subscriber);
+            total += System.nanoTime() - start;
+        }
+        assertEquals(2 * iterations, subscriber.received);
+        return total / iterations;
+    }
+
+    private void report(String name, long nanos) {
+        System.out.println(String.format(Locale.ENGLISH, "EventBus register/unregister %s: %d ns", name, nanos));
+    }
+}
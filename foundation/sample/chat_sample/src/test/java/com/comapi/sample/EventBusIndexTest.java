@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample;
+
+import com.comapi.sample.events.LoginEvent;
+import com.comapi.sample.ui.ConversationListActivity;
+import com.comapi.sample.ui.ManageParticipantsActivity;
+import com.comapi.sample.ui.MessageListActivity;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.SubscriberMethod;
+import org.greenrobot.eventbus.ThreadMode;
+import org.greenrobot.eventbus.meta.SimpleSubscriberInfo;
+import org.greenrobot.eventbus.meta.SubscriberInfo;
+import org.greenrobot.eventbus.meta.SubscriberInfoIndex;
+import org.greenrobot.eventbus.meta.SubscriberMethodInfo;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks that the subscriber index generated from build.gradle describes every subscribing Activity, and that a bus with an index looks subscribers up in it instead of using reflection.
+ */
+public class EventBusIndexTest {
+
+    /**
+     * Has a method to receive events but no {@link Subscribe} annotation, so it can only be registered through an index.
+     */
+    public static class Unannotated {
+
+        int received;
+
+        public void onEvent(LoginEvent event) {
+            received++;
+        }
+    }
+
+    /**
+     * Index describing {@link Unannotated}.
+     */
+    private static class Index implements SubscriberInfoIndex {
+
+        private final SubscriberInfo info = new SimpleSubscriberInfo(Unannotated.class, false, new SubscriberMethodInfo[]{
+                new SubscriberMethodInfo("onEvent", LoginEvent.class, ThreadMode.POSTING, 0, true),
+        });
+
+        @Override
+        public SubscriberInfo getSubscriberInfo(Class<?> subscriberClass) {
+            return subscriberClass == Unannotated.class ? info : null;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        EventBus.clearCaches();
+    }
+
+    @Test
+    public void generatedIndex_describesEverySubscriber() {
+        SubscriberInfoIndex index = new SampleEventBusIndex();
+        for (Class<?> subscriberClass : new Class<?>[]{ConversationListActivity.class, MessageListActivity.class, ManageParticipantsActivity.class}) {
+            SubscriberInfo info = index.getSubscriberInfo(subscriberClass);
+            assertNotNull(subscriberClass.getSimpleName() + " missing from the index", info);
+            assertEquals(subscriberClass.getSimpleName(), annotatedMethods(subscriberClass), indexedMethods(info));
+        }
+    }
+
+    @Test
+    public void busWithIndex_registersWithoutReflection() {
+        EventBus bus = EventBus.builder().addIndex(new Index()).build();
+        bus.postSticky(new LoginEvent(true));
+
+        // reflection lookup would fail, the class has no @Subscribe methods
+        Unannotated subscriber = new Unannotated();
+        bus.register(subscriber);
+        bus.post(new LoginEvent(false));
+        bus.unregister(subscriber);
+
+        assertEquals(2, subscriber.received);
+    }
+
+    private static Set<String> annotatedMethods(Class<?> subscriberClass) {
+        Set<String> methods = new HashSet<>();
+        for (Method method : subscriberClass.getDeclaredMethods()) {
+            Subscribe subscribe = method.getAnnotation(Subscribe.class);
+            if (subscribe != null) {
+                methods.add(describe(method.getName(), method.getParameterTypes()[0], subscribe.threadMode(), subscribe.sticky()));
+            }
+        }
+        return methods;
+    }
+
+    private static Set<String> indexedMethods(SubscriberInfo info) {
+        Set<String> methods = new HashSet<>();
+        for (SubscriberMethod method : info.getSubscriberMethods()) {
+            methods.add(describe(method.method.getName(), method.eventType, method.threadMode, method.sticky));
+        }
+        return methods;
+    }
+
+    private static String describe(String name, Class<?> eventType, ThreadMode threadMode, boolean sticky) {
+        return name + "(" + eventType.getName() + ") " + threadMode + (sticky ? " sticky" : "");
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MessageOutbox} with a fake messaging service failing intermittently.
+ */
+public class MessageOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    private FlakySender sender;
+
+    /**
+     * Fake messaging service failing every n-th call. Accepted messages are recorded in the order they arrived.
+     */
+    private static class FlakySender implements MessageOutbox.Sender {
+
+        final List<String> delivered = new ArrayList<>();
+        final List<String> ids = new ArrayList<>();
+        int failEvery;
+        int calls;
+
+        FlakySender(int failEvery) {
+            this.failEvery = failEvery;
+        }
+
+        @Override
+        public void send(MessageOutbox.Entry entry, MessageOutbox.Result result) {
+            calls++;
+            if (failEvery > 0 && calls % failEvery == 0) {
+                result.finished(false);
+            } else {
+                delivered.add(entry.getBody());
+                ids.add(entry.getId());
+                result.finished(true);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "outbox");
+        sender = new FlakySender(3);
+    }
+
+    @Test
+    public void replay_deliversInOrderDespiteFailures() throws Exception {
+
+        MessageOutbox outbox = new MessageOutbox(file);
+        outbox.load();
+        for (int i = 0; i < 10; i++) {
+            outbox.add("c1", "m" + i);
+        }
+
+        // every failure stops the replay, keep replaying like a reconnecting app would
+        int replays = 0;
+        while (!outbox.getPending().isEmpty() && replays < 100) {
+            outbox.replay(sender);
+            replays++;
+        }
+
+        assertTrue(outbox.getPending().isEmpty());
+        assertEquals(Arrays.asList("m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8", "m9"), sender.delivered);
+        assertTrue(replays > 1);
+    }
+
+    @Test
+    public void load_restoresPendingAfterProcessDeath() throws Exception {
+
+        MessageOutbox outbox = new MessageOutbox(file);
+        outbox.load();
+        outbox.add("c1", "first");
+        outbox.add("c2", "second\twith tab\nand new line");
+        outbox.add("c1", "third");
+
+        // only the first message gets through before the network drops
+        sender.failEvery = 2;
+        outbox.replay(sender);
+        assertEquals(Arrays.asList("first"), sender.delivered);
+
+        // process dies without closing the file, new instance reads the journal
+        MessageOutbox restored = new MessageOutbox(file);
+        restored.load();
+
+        List<MessageOutbox.Entry> pending = restored.getPending();
+        assertEquals(2, pending.size());
+        assertEquals("c2", pending.get(0).getConversationId());
+        assertEquals("second\twith tab\nand new line", pending.get(0).getBody());
+        assertEquals("third", pending.get(1).getBody());
+
+        sender.failEvery = 0;
+        restored.replay(sender);
+        assertEquals(Arrays.asList("first", "second\twith tab\nand new line", "third"), sender.delivered);
+        assertTrue(restored.getPending().isEmpty());
+    }
+
+    @Test
+    public void onEcho_acknowledgesAndRecognisesDuplicates() throws Exception {
+
+        MessageOutbox outbox = new MessageOutbox(file);
+        outbox.load();
+        MessageOutbox.Entry entry = outbox.add("c1", "hello");
+
+        // send response was lost but the echo arrived
+        assertTrue(outbox.onEcho(entry.getId(), "message-1"));
+        assertTrue(outbox.getPending().isEmpty());
+
+        // the same message queried again is not a duplicate
+        assertTrue(outbox.onEcho(entry.getId(), "message-1"));
+
+        // the same message sent again comes back as another message
+        assertFalse(outbox.onEcho(entry.getId(), "message-2"));
+
+        MessageOutbox restored = new MessageOutbox(file);
+        restored.load();
+        assertTrue(restored.getPending().isEmpty());
+    }
+
+    @Test
+    public void onEcho_recognisesDuplicatesAfterRestart() throws Exception {
+
+        MessageOutbox outbox = new MessageOutbox(file);
+        outbox.load();
+        MessageOutbox.Entry entry = outbox.add("c1", "hello");
+        assertTrue(outbox.onEcho(entry.getId(), "message-1"));
+
+        // process dies, the copy sent again before the echo was saved comes back after restart
+        MessageOutbox restored = new MessageOutbox(file);
+        restored.load();
+        assertTrue(restored.onEcho(entry.getId(), "message-1"));
+        assertFalse(restored.onEcho(entry.getId(), "message-2"));
+
+        // echoed ids survive compaction of the journal
+        sender.failEvery = 0;
+        for (int i = 0; i < 60; i++) {
+            restored.add("c1", "message " + i);
+            restored.replay(sender);
+        }
+        restored.close();
+
+        MessageOutbox compacted = new MessageOutbox(file);
+        compacted.load();
+        assertFalse(compacted.onEcho(entry.getId(), "message-2"));
+    }
+
+    @Test
+    public void onEcho_firstCopySeenWins_whenNoEchoWasSavedBeforeProcessDeath() throws Exception {
+
+        MessageOutbox outbox = new MessageOutbox(file);
+        outbox.load();
+        MessageOutbox.Entry entry = outbox.add("c1", "hello");
+
+        // server accepted the message but the process died before the response and the echo
+        MessageOutbox restored = new MessageOutbox(file);
+        restored.load();
+        assertEquals(1, restored.getPending().size());
+
+        // replay stores the second copy, both come back in a queried page
+        sender.failEvery = 0;
+        restored.replay(sender);
+        assertTrue(restored.onEcho(entry.getId(), "message-2"));
+        assertFalse(restored.onEcho(entry.getId(), "message-1"));
+    }
+
+    @Test
+    public void acknowledge_compactsJournal() throws Exception {
+
+        MessageOutbox outbox = new MessageOutbox(file);
+        outbox.load();
+        sender.failEvery = 0;
+        for (int i = 0; i < 200; i++) {
+            outbox.add("c1", "message " + i);
+            outbox.replay(sender);
+        }
+        outbox.add("c1", "last");
+        outbox.close();
+
+        // journal holds only a handful of records instead of 401
+        long lines = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            while (reader.readLine() != null) {
+                lines++;
+            }
+        } finally {
+            reader.close();
+        }
+        assertTrue("journal lines " + lines, lines < 2 * 50 + 2);
+
+        MessageOutbox restored = new MessageOutbox(file);
+        restored.load();
+        assertEquals(1, restored.getPending().size());
+        assertEquals("last", restored.getPending().get(0).getBody());
+    }
+
+    @Test
+    public void load_skipsTruncatedLastRecord() throws Exception {
+
+        MessageOutbox outbox = new MessageOutbox(file);
+        outbox.load();
+        outbox.add("c1", "first");
+        outbox.close();
+        long intact = file.length();
+
+        outbox = new MessageOutbox(file);
+        outbox.load();
+        outbox.add("c1", "caf\u00e9 \u017c\u00f3\u0142w");
+        outbox.close();
+        byte[] journal = readAll(file);
+
+        // crash at every possible point of writing the second record, including the middle of an escape sequence in the body
+        for (long length = intact; length < journal.length - 1; length++) {
+            writeAll(file, journal, (int) length);
+
+            MessageOutbox restored = new MessageOutbox(file);
+            restored.load();
+
+            List<MessageOutbox.Entry> pending = restored.getPending();
+            assertEquals("length " + length, 1, pending.size());
+            assertEquals("first", pending.get(0).getBody());
+            restored.close();
+        }
+    }
+
+    @Test
+    public void load_skipsCorruptedRecord() throws Exception {
+
+        MessageOutbox outbox = new MessageOutbox(file);
+        outbox.load();
+        outbox.add("c1", "first");
+        outbox.add("c1", "second");
+        outbox.close();
+
+        // flip a character of the first record's body
+        byte[] journal = readAll(file);
+        String content = new String(journal, "UTF-8");
+        journal[content.indexOf("first")] = 'F';
+        writeAll(file, journal, journal.length);
+
+        MessageOutbox restored = new MessageOutbox(file);
+        restored.load();
+
+        List<MessageOutbox.Entry> pending = restored.getPending();
+        assertEquals(1, pending.size());
+        assertEquals("second", pending.get(0).getBody());
+    }
+
+    private static byte[] readAll(File file) throws Exception {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeAll(File file, byte[] data, int length) throws Exception {
+        FileOutputStream out = new FileOutputStream(file, false);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import com.comapi.sample.ui.model.MessageItem;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link MessagePrefetcher} with a fake query completing on demand.
+ */
+public class MessagePrefetcherTest {
+
+    private FakeFetch fetch;
+
+    private MessagePrefetcher prefetcher;
+
+    /**
+     * Fake message query keeping requests open until the test completes them.
+     */
+    private static class FakeFetch implements MessagePrefetcher.Fetch {
+
+        final List<String> requested = new ArrayList<>();
+        final List<MessagePrefetcher.Result> pending = new ArrayList<>();
+
+        @Override
+        public void fetch(String conversationId, int limit, MessagePrefetcher.Result result) {
+            requested.add(conversationId);
+            pending.add(result);
+        }
+
+        void complete() {
+            pending.remove(0).done(Collections.<MessageItem>emptyList());
+        }
+    }
+
+    @Before
+    public void setUp() {
+        fetch = new FakeFetch();
+        prefetcher = new MessagePrefetcher(2, 10, fetch);
+    }
+
+    @Test
+    public void queries_areLimitedToMaxConcurrent() {
+
+        prefetcher.prefetch(Arrays.asList("c1", "c2", "c3", "c4"), 4, 20);
+        assertEquals(Arrays.asList("c1", "c2"), fetch.requested);
+
+        fetch.complete();
+        assertEquals(Arrays.asList("c1", "c2", "c3"), fetch.requested);
+    }
+
+    @Test
+    public void cancel_keepsSlotsOfRunningQueries() {
+
+        prefetcher.prefetch(Arrays.asList("c1", "c2"), 2, 20);
+        prefetcher.cancel();
+
+        // queries of the ended session are still running, the new ones have to wait for them
+        prefetcher.prefetch(Arrays.asList("c3", "c4", "c5"), 3, 20);
+        assertEquals(Arrays.asList("c1", "c2"), fetch.requested);
+
+        fetch.complete();
+        assertEquals(Arrays.asList("c1", "c2", "c3"), fetch.requested);
+        assertEquals(2, fetch.pending.size());
+    }
+
+    @Test
+    public void cancel_dropsResultsOfRunningQueries() {
+
+        prefetcher.prefetch(Arrays.asList("c1"), 1, 20);
+        prefetcher.cancel();
+        fetch.complete();
+
+        assertNull(prefetcher.take("c1"));
+    }
+}
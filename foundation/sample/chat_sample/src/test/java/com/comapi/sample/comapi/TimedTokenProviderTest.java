@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2017 Comapi (trading name of Dynmark International Limited)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons
+ * to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the
+ * Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.comapi.sample.comapi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link TimedTokenProvider} with a fake provider answering on demand, and for {@link LocalTokenProvider}.
+ */
+public class TimedTokenProviderTest {
+
+    private static final long TIMEOUT = 100;
+
+    private FakeProvider provider;
+
+    private RecordingCallback callback;
+
+    /**
+     * Fake token provider keeping requests open until the test answers them.
+     */
+    private static class FakeProvider implements TokenProvider {
+
+        final List<String> prefetched = new ArrayList<>();
+        final List<Callback> pending = new ArrayList<>();
+
+        @Override
+        public void prefetch(String profileId) {
+            prefetched.add(profileId);
+        }
+
+        @Override
+        public void requestToken(String profileId, String nonce, Callback callback) {
+            pending.add(callback);
+        }
+    }
+
+    /**
+     * Callback recording every answer, counts down on the first one.
+     */
+    private static class RecordingCallback implements TokenProvider.Callback {
+
+        final CountDownLatch answered = new CountDownLatch(1);
+        final List<String> tokens = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+
+        @Override
+        public synchronized void onToken(String token) {
+            tokens.add(token);
+            answered.countDown();
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            errors.add(t);
+            answered.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return answered.await(5, TimeUnit.SECONDS);
+        }
+
+        synchronized int answers() {
+            return tokens.size() + errors.size();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        provider = new FakeProvider();
+        callback = new RecordingCallback();
+    }
+
+    @Test
+    public void requestToken_deliversTokenIssuedWithinTimeout() throws Exception {
+        TimedTokenProvider timed = new TimedTokenProvider(provider, TimeUnit.SECONDS.toMillis(5));
+        timed.requestToken("profile", "nonce", callback);
+
+        provider.pending.get(0).onToken("token");
+
+        assertTrue(callback.await());
+        assertEquals(1, callback.tokens.size());
+        assertEquals("token", callback.tokens.get(0));
+        assertTrue(callback.errors.isEmpty());
+    }
+
+    @Test
+    public void requestToken_failsWithTimeout_whenNoTokenIssued() throws Exception {
+        TimedTokenProvider timed = new TimedTokenProvider(provider, TIMEOUT);
+        timed.requestToken("profile", "nonce", callback);
+
+        assertTrue(callback.await());
+        assertEquals(1, callback.errors.size());
+        assertTrue(callback.errors.get(0) instanceof TimeoutException);
+    }
+
+    @Test
+    public void requestToken_ignoresTokenIssuedAfterTimeout() throws Exception {
+        TimedTokenProvider timed = new TimedTokenProvider(provider, TIMEOUT);
+        timed.requestToken("profile", "nonce", callback);
+        assertTrue(callback.await());
+
+        provider.pending.get(0).onToken("late");
+        provider.pending.get(0).onError(new IllegalStateException());
+
+        assertEquals(1, callback.answers());
+        assertTrue(callback.tokens.isEmpty());
+    }
+
+    @Test
+    public void requestToken_passesErrorThrough() throws Exception {
+        TimedTokenProvider timed = new TimedTokenProvider(provider, TimeUnit.SECONDS.toMillis(5));
+        timed.requestToken("profile", "nonce", callback);
+
+        IllegalStateException error = new IllegalStateException("auth service down");
+        provider.pending.get(0).onError(error);
+        provider.pending.get(0).onToken("second");
+
+        assertTrue(callback.await());
+        assertEquals(1, callback.answers());
+        assertEquals(error, callback.errors.get(0));
+    }
+
+    @Test
+    public void prefetch_isDelegated() {
+        new TimedTokenProvider(provider, TIMEOUT).prefetch("profile");
+
+        assertEquals(1, provider.prefetched.size());
+        assertEquals("profile", provider.prefetched.get(0));
+    }
+
+    @Test
+    public void localProvider_deliversMintedToken() throws Exception {
+        LocalTokenProvider local = new LocalTokenProvider(new TokenMinter("secret".getBytes(Charset.forName("UTF-8")), "local", "local"));
+        local.requestToken("profile", "nonce", callback);
+
+        assertTrue(callback.await());
+        assertEquals(1, callback.tokens.size());
+        assertNotNull(callback.tokens.get(0));
+        assertTrue(callback.errors.isEmpty());
+    }
+
+    @Test
+    public void localProvider_reportsMintingFailureAsError() throws Exception {
+        final IllegalArgumentException error = new IllegalArgumentException("bad claims");
+        LocalTokenProvider local = new LocalTokenProvider(new TokenMinter("secret".getBytes(Charset.forName("UTF-8")), "local", "local") {
+            @Override
+            public String mint(String profileId, String nonce) {
+                throw error;
+            }
+        });
+        local.requestToken("profile", "nonce", callback);
+
+        assertTrue(callback.await());
+        assertEquals(1, callback.errors.size());
+        assertEquals(error, callback.errors.get(0));
+        assertTrue(callback.tokens.isEmpty());
+    }
+}